@@ -1,8 +1,16 @@
 package app;
 
 import fasta.FASTAParser;
+import fasta.EncodedSequence;
+import fasta.ReadMode;
+import fasta.FASTASequence;
+import kmer.KmerIndex;
 import parameter.Parameter;
+import phmm.NullModel;
+import phmm.NullModelType;
 import phmm.ProfileHMM;
+import scheduler.MemoryBudgetScheduler;
+import training.BaumWelch;
 import viterbi.*;
 import scores.*;
 
@@ -12,7 +20,11 @@ import java.nio.file.Files;
 import java.nio.charset.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Hello world!
@@ -20,6 +32,30 @@ import java.util.*;
  */
 public class App 
 {
+    /**
+     * Fraction of the maximum heap used for the viterbi calculations if no memoryBudget is configured, the rest is
+     * left to the model, the test sequences and the results.
+     */
+    private static final double DEFAULT_MEMORY_BUDGET = 0.6;
+    /**
+     * Baum-Welch stops when the log likelihood of the refinement sequences improves by less than this fraction.
+     */
+    private static final double REFINEMENT_TOLERANCE = 1e-4;
+    /**
+     * The test sequences are read and calculated in batches of about this many residues, so the memory for
+     * sequences and results does not depend on the size of the test files.
+     */
+    private static final long BATCH_RESIDUES = 1 << 22;
+    /**
+     * Upper bound of the characters of one line of {@link PosteriorWriter}, the text is Latin-1 and needs one byte
+     * per character.
+     */
+    private static final int POSTERIOR_LINE_BYTES = 64;
+    /**
+     * Prefix of the result files in the output folder, the ROC curve only reads these files.
+     */
+    private static final String RESULT_FILE_PREFIX = "probabilities-";
+
     public static void main( String[] args )
     {
         if (args.length < 1) {
@@ -28,6 +64,8 @@ public class App
         }
         try {
             Parameter parameter = parseParameters(args[0]);
+            // the workspaces of the viterbi calculations are emptied when the heap runs full
+            ViterbiWorkspace.registerMemoryPressureListener();
             new File(parameter.getOutputFolder()+"rocCurve").mkdirs();
 
             Character gapSymbol = '-';
@@ -36,24 +74,77 @@ public class App
             var trainingSequences = FASTAParser.parse(Paths.get(parameter.getTraining()));
 
             // create profil HMM with test sequences
-            ProfileHMM pHMM = new ProfileHMM(trainingSequences, gapSymbol, observationMap, parameter.getEmissionPseudocounts(),parameter.getTransitionPseudocounts(), parameter.getDeleteDeletePseudocounts(), 0.5);
+            ProfileHMM pHMM = new ProfileHMM(trainingSequences, gapSymbol, observationMap, parameter.getEmissionPseudocounts(),parameter.getTransitionPseudocounts(), parameter.getDeleteDeletePseudocounts(), 0.5, true);
+
+            // optionally refine the parameters with Baum-Welch on unaligned sequences
+            if (!parameter.getRefinementData().isEmpty()) {
+                pHMM = refine(parameter, pHMM, gapSymbol, observationMap);
+            }
 
             //get test sequences
             ArrayList<String> testFiles = getFileList(parameter.getTest());
 
-            runVitberiOnTestFiles(parameter, observationMap, testFiles, pHMM);
+            // scores are reported as log odds against the null model, if there is one
+            NullModel nullModel = createNullModel(parameter, trainingSequences, gapSymbol, observationMap);
+
+            // test sequences sharing too few k-mers with the training sequences are skipped
+            KmerIndex kmerIndex = parameter.getKmerIndex().isEmpty() ? null
+                    : loadKmerIndex(parameter, trainingSequences, gapSymbol, observationMap);
+
+            runVitberiOnTestFiles(parameter, observationMap, testFiles, pHMM, nullModel, kmerIndex);
             
             // create roc curve
             if (parameter.isRocCurve()) {
                 rocCurve(parameter);
             }
-        } catch (Exception e) {
+        } catch (Exception | OutOfMemoryError e) {
             System.err.println(e);
         }
     }
 
+    /**
+     * Reads the k-mer index of the parameters, or builds it from the training sequences and writes it if the file
+     * does not exist yet or was built with another k or other training sequences.
+     */
+    private static KmerIndex loadKmerIndex(Parameter parameter, List<FASTASequence> trainingSequences,
+            Character gapSymbol, Map<Character, Integer> observationMap) throws IOException {
+        var path = Paths.get(parameter.getKmerIndex());
+        if (Files.isRegularFile(path)) {
+            var kmerIndex = KmerIndex.read(path);
+            if (kmerIndex.isBuiltFrom(trainingSequences, gapSymbol, observationMap, parameter.getKmerLength())) {
+                return kmerIndex;
+            }
+        }
+        var kmerIndex = KmerIndex.build(trainingSequences, gapSymbol, observationMap, parameter.getKmerLength());
+        kmerIndex.write(path);
+        System.err.println("Wrote k-mer index with " + kmerIndex.size() + " " + kmerIndex.getK() + "-mers to "
+                + path);
+        return kmerIndex;
+    }
+
+    private static ProfileHMM refine(Parameter parameter, ProfileHMM pHMM, Character gapSymbol,
+            Map<Character, Integer> observationMap) throws IOException {
+        var sequences = new ArrayList<int[]>();
+        for (var file : getFileList(parameter.getRefinementData())) {
+            for (var sequence : FASTAParser.parse(Paths.get(file))) {
+                // aligned sequences may be used as well, the gaps are left out
+                var bases = String.valueOf(sequence.getSequence()).replace(gapSymbol.toString(), "").toCharArray();
+                sequences.add(new FASTASequence(sequence.getId(), bases).parseBasesToInt(observationMap));
+            }
+        }
+        var baumWelch = new BaumWelch(parameter.getRefinementIterations(), REFINEMENT_TOLERANCE,
+                parameter.getParallelism());
+        var result = baumWelch.refine(pHMM, sequences);
+        System.err.println("Baum-Welch log likelihood of " + sequences.size() + " sequences: "
+                + result.getInitialLogLikelihood() + " -> " + result.getLogLikelihood() + " after "
+                + result.getIterations() + " iterations");
+        return result.getModel();
+    }
+
     private static void rocCurve(Parameter parameter) {
         ArrayList<String> resultFiles = getFileList(parameter.getOutputFolder());
+        // the output folder also holds e.g. the posteriors or a k-mer index
+        resultFiles.removeIf(file -> !Paths.get(file).getFileName().toString().startsWith(RESULT_FILE_PREFIX));
         try {
             
             Scanner reader = new Scanner(System.in);
@@ -123,43 +214,469 @@ public class App
         for (var line : lines) {
             if (line.isEmpty())
                 continue;
-            // line looks like: viterbiPath;maxProbability
-            LabeledScore score = new LabeledScore(Double.parseDouble(line.split(";")[1]), label);
+            // line looks like: viterbiPath;maxProbability, with readMode parallelUnordered id;viterbiPath;maxProbability
+            var fields = line.split(";");
+            LabeledScore score = new LabeledScore(Double.parseDouble(fields[fields.length - 1]), label);
             labeledScores.add(score);
         }
 
         return labeledScores;
     }
 
+    private static NullModel createNullModel(Parameter parameter, List<FASTASequence> trainingSequences,
+            Character gapSymbol, Map<Character, Integer> observationMap) {
+        switch (parameter.getNullModel()) {
+            case UNIFORM: return NullModel.uniform(observationMap.size());
+            case TRAINING: return NullModel.fromSequences(trainingSequences, gapSymbol, observationMap, parameter.getEmissionPseudocounts());
+            case NONE:
+            default: return null;
+        }
+    }
+
     private static void runVitberiOnTestFiles(Parameter parameter, HashMap<Character, Integer> observationMap,
-            ArrayList<String> testFiles, ProfileHMM pHMM) throws IOException {
+            ArrayList<String> testFiles, ProfileHMM pHMM, NullModel nullModel, KmerIndex kmerIndex) throws IOException, InterruptedException {
+
+        var profileViterbi = new ProfileViterbi(pHMM);
+        var bandedViterbi = parameter.getBandWidth() >= 0 ? new BandedViterbi(pHMM) : null;
+        // long sequences are split into tiles on their own threads, next to the jobs of the scheduler
+        var wavefrontPool = parameter.getWavefrontLength() >= 0 ? new ForkJoinPool(parameter.getParallelism()) : null;
+        // chunks of the test files are read on their own threads while the scheduler calculates the last batch
+        var readPool = parameter.getReadMode() != ReadMode.SEQUENTIAL ? new ForkJoinPool(parameter.getParallelism()) : null;
+        var alphabet = new char[observationMap.size()];
+        for (var entry : observationMap.entrySet()) {
+            alphabet[entry.getValue()] = entry.getKey();
+        }
+        var profileForward = parameter.getScoring() == Scoring.FORWARD || parameter.isPosteriors()
+                ? new ProfileForward(pHMM) : null;
+        // the filter needs a background even if the scores are reported without null model
+        var msvFilter = Double.isNaN(parameter.getMsvThreshold()) ? null
+                : new MsvFilter(pHMM, nullModel != null ? nullModel : NullModel.uniform(observationMap.size()));
+
+        // the workspaces of the scheduler are reused for all sequences and test files
+        try (var scheduler = new MemoryBudgetScheduler(parameter.getMemoryBudget(), parameter.getParallelism())) {
+            for (var testFile : testFiles) {
+                String[] file = testFile.split("/");
+                // the results of compressed test files are written uncompressed
+                String filename = file[file.length - 1].replaceFirst("\\.(gz|bgz)$", "");
+                if (parameter.getRecordRangeStart() >= 0) {
+                    // the ranges of a test file can be calculated into the same output folder
+                    filename += "." + parameter.getRecordRangeStart() + "-" + parameter.getRecordRangeEnd();
+                }
+                var statistics = new TestFileStatistics();
+                // the sequences are read and calculated in batches, only one batch of sequences and results is held
+                // in memory
+                try (var reader = parameter.getRecordRangeStart() >= 0
+                             ? FASTAParser.open(Paths.get(testFile), observationMap, parameter.getRecordRangeStart(),
+                                     parameter.getRecordRangeEnd())
+                             : FASTAParser.open(Paths.get(testFile), observationMap, parameter.getReadMode(),
+                                     readPool, parameter.getParallelism());
+                     var results = Files.newBufferedWriter(
+                             Paths.get(parameter.getOutputFolder() + RESULT_FILE_PREFIX + filename),
+                             Charset.forName("UTF-8"));
+                     var posteriors = parameter.isPosteriors() ? Files.newBufferedWriter(
+                             Paths.get(parameter.getOutputFolder() + "posteriors-" + filename),
+                             Charset.forName("UTF-8")) : null) {
+                    while (reader.hasNext()) {
+                        var jobs = new ArrayList<ViterbiJob>();
+                        var residues = 0L;
+                        while (reader.hasNext() && residues < BATCH_RESIDUES) {
+                            var sequence = reader.next();
+                            residues += sequence.getLength();
+                            jobs.add(new ViterbiJob(pHMM, kmerIndex, msvFilter, profileViterbi, bandedViterbi, wavefrontPool, profileForward, nullModel, parameter, sequence, alphabet));
+                        }
+
+                        // calculate viterbi path and probability, as many sequences at once as fit into the memory budget
+                        List<ViterbiResult> vitProbabilities = scheduler.run(jobs);
+
+                        // store each probability in one line
+                        for (var i = 0; i < vitProbabilities.size(); i++) {
+                            var vitProbability = vitProbabilities.get(i);
+                            if (vitProbability == null) {
+                                System.err.println("Skipping " + jobs.get(i).getId() + ", not enough memory");
+                                continue;
+                            }
+                            if (parameter.getReadMode() == ReadMode.PARALLEL_UNORDERED) {
+                                // the lines are not in the order of the test file, the id tells which record they belong to
+                                results.write(jobs.get(i).getId() + ";");
+                            }
+                            results.write(String.valueOf(pHMM.prettyPrintPath(vitProbability.getViterbiPath())) + ";" + vitProbability.getMaxProbability() + "\n");
+                            results.newLine();
+                        }
+
+                        if (posteriors != null) {
+                            writePosteriors(posteriors, jobs);
+                        }
+                        for (var job : jobs) {
+                            statistics.add(job);
+                        }
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+                if (kmerIndex != null || msvFilter != null) {
+                    reportFilterStages(filename, statistics, kmerIndex != null, msvFilter != null);
+                }
+                if (!Double.isNaN(parameter.getBeamWidth()) && parameter.isBeamValidation()) {
+                    reportBeamValidation(filename, statistics);
+                }
+            }
+        } finally {
+            if (wavefrontPool != null) {
+                wavefrontPool.shutdown();
+            }
+            if (readPool != null) {
+                readPool.shutdown();
+            }
+        }
+    }
 
-        for (var testFile : testFiles) {
-            var sequences = FASTAParser.parse(Paths.get(testFile));
-            var vitProbabilities = Collections.synchronizedList(new ArrayList<ViterbiResult>(testFile.length()));
+    /**
+     * Prints for every filter stage how many sequences of a test file passed it, and estimates the time the skipped
+     * sequences would have needed for the full calculation from the time per residue of the calculated ones.
+     */
+    private static void reportFilterStages(String filename, TestFileStatistics statistics, boolean kmerIndex,
+            boolean msvFilter) {
+        for (var stage : FilterStage.values()) {
+            if (stage == FilterStage.KMER_INDEX && !kmerIndex || stage == FilterStage.MSV && !msvFilter) {
+                continue;
+            }
+            var entered = statistics.entered[stage.ordinal()];
+            var failed = statistics.failed[stage.ordinal()];
+            System.err.println(filename + ": " + stage + " passed " + (entered - failed) + " of " + entered
+                    + " sequences");
+        }
 
-            sequences.parallelStream().forEach(sequence -> {
-                System.err.println(sequence.getId());
-                int[] observations = sequence.parseBasesToInt(observationMap);
+        var savedSeconds = statistics.calculatedResidues == 0 ? 0 : statistics.skippedResidues
+                * (statistics.calculationNanos / (double) statistics.calculatedResidues) / 1e9;
+        System.err.println(String.format(Locale.ROOT, "%s: %d sequences skipped the full calculation, saving about "
+                + "%.1f s of CPU time, the filters took %.1f s", filename, statistics.skipped, savedSeconds,
+                statistics.filterNanos / 1e9));
+    }
 
-                // calculate viterbi path and probability
+    /**
+     * Prints how many of the validated sequences of a test file got a different path or a lower score with beam
+     * pruning than without.
+     */
+    private static void reportBeamValidation(String filename, TestFileStatistics statistics) {
+        System.err.println(String.format(Locale.ROOT, "%s: beam pruning changed the path of %d and the score of %d "
+                + "of %d sequences, the largest score loss was %.4f", filename, statistics.changedPaths,
+                statistics.changedScores, statistics.validated, statistics.maxScoreLoss));
+    }
 
-                ViterbiResult viterbiResult = Viterbi.calc(observations, pHMM);
-                vitProbabilities.add(viterbiResult);
-            });
+    /**
+     * Writes the posterior decodings of the jobs in their order, jobs which ran out of memory are left out.
+     */
+    private static void writePosteriors(Writer writer, List<ViterbiJob> jobs) throws IOException {
+        for (var job : jobs) {
+            if (job.getPosteriors() != null) {
+                writer.write(job.getPosteriors());
+            }
+        }
+    }
 
-            // create new file and store each probability in one line
+    /**
+     * Counts of the filter stages and the beam validation of the jobs of a test file, collected batch by batch so
+     * that the jobs do not have to be kept until the end of the file.
+     */
+    private static class TestFileStatistics {
+        // indexed by the ordinal of the stage
+        private final int[] entered = new int[FilterStage.values().length];
+        private final int[] failed = new int[FilterStage.values().length];
+        private int skipped = 0;
+        private long skippedResidues = 0;
+        private long calculatedResidues = 0;
+        private long calculationNanos = 0;
+        private long filterNanos = 0;
+        private int validated = 0;
+        private int changedPaths = 0;
+        private int changedScores = 0;
+        private double maxScoreLoss = 0;
 
-            List<String> lines = new ArrayList<String>();
-            for (var vitProbability : vitProbabilities) {
-                lines.add(String.valueOf(pHMM.prettyPrintPath(vitProbability.getViterbiPath())) + ";" + vitProbability.getMaxProbability() + "\n");
+        void add(ViterbiJob job) {
+            var failedStage = job.getFailedStage();
+            for (var stage : FilterStage.values()) {
+                if (failedStage == null || failedStage.compareTo(stage) >= 0) {
+                    entered[stage.ordinal()]++;
+                }
+                if (failedStage == stage) {
+                    failed[stage.ordinal()]++;
+                }
+            }
+            if (failedStage != null) {
+                skipped++;
+                skippedResidues += job.getLength();
+            } else {
+                calculatedResidues += job.getLength();
+                calculationNanos += job.getCalculationNanos();
             }
-            String[] file = testFile.split("/");
-            String filename = file[file.length - 1];
-            File results = new File(parameter.getOutputFolder() + "probabilities-" + filename);
-            results.createNewFile();
-            Files.write(Paths.get(results.getAbsolutePath()), lines, Charset.forName("UTF-8"));
+            filterNanos += job.getFilterNanos();
 
+            if (job.getBeamScoreLoss() != null) {
+                validated++;
+                if (job.isBeamPathChanged()) {
+                    changedPaths++;
+                }
+                if (job.getBeamScoreLoss() > 0) {
+                    changedScores++;
+                    maxScoreLoss = Math.max(maxScoreLoss, job.getBeamScoreLoss());
+                }
+            }
+        }
+    }
+
+    /**
+     * Filters a sequence has to pass before the full calculation, in the order they run.
+     */
+    private enum FilterStage {
+        KMER_INDEX("k-mer index"),
+        MSV("MSV filter");
+
+        private final String name;
+
+        FilterStage(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Viterbi calculation of one test sequence, its memory follows from the sequence length and the number of
+     * states of the model. With forward scoring the viterbi path is only calculated if the viterbi mode asks for
+     * one, the reported score is the forward log probability. If posteriors are requested, the posterior decoding
+     * of the sequence is kept as text until all jobs of the batch are finished, the text is charged to the memory
+     * budget as retained bytes. Sequences sharing too few k-mers
+     * with the training sequences or below the threshold of the MSV filter get the score -Infinity and an empty path
+     * without any further calculation. With a beam width the viterbi path is calculated with beam pruning, in the
+     * validation mode a second time without pruning for comparison. With a band width only the cells around the
+     * diagonal of sequence and model are calculated.
+     */
+    private static class ViterbiJob implements MemoryBudgetScheduler.Job<ViterbiResult> {
+        private final ProfileHMM profileHMM;
+        // null if the filter is off
+        private final KmerIndex kmerIndex;
+        private final MsvFilter msvFilter;
+        private final ProfileViterbi profileViterbi;
+        // null unless the calculation is banded
+        private final BandedViterbi bandedViterbi;
+        // null unless long sequences are calculated in parallel tiles
+        private final ForkJoinPool wavefrontPool;
+        // null unless the scoring is forward or posteriors are requested
+        private final ProfileForward profileForward;
+        // null if the raw log probabilities are reported
+        private final NullModel nullModel;
+        private final Parameter parameter;
+        private final EncodedSequence sequence;
+        // alphabet[observation] is the base of the observation
+        private final char[] alphabet;
+        // written by run, read after the scheduler returned
+        private String posteriors;
+        // null if the sequence passed all filters
+        private FilterStage failedStage;
+        private long filterNanos;
+        private long calculationNanos;
+        // null unless the beam pruning was validated
+        private Double beamScoreLoss;
+        private boolean beamPathChanged;
+
+        ViterbiJob(ProfileHMM profileHMM, KmerIndex kmerIndex, MsvFilter msvFilter, ProfileViterbi profileViterbi, BandedViterbi bandedViterbi, ForkJoinPool wavefrontPool, ProfileForward profileForward, NullModel nullModel,
+                Parameter parameter, EncodedSequence sequence, char[] alphabet) {
+            this.profileHMM = profileHMM;
+            this.kmerIndex = kmerIndex;
+            this.msvFilter = msvFilter;
+            this.profileViterbi = profileViterbi;
+            this.bandedViterbi = bandedViterbi;
+            this.wavefrontPool = wavefrontPool;
+            this.profileForward = profileForward;
+            this.nullModel = nullModel;
+            this.parameter = parameter;
+            this.sequence = sequence;
+            this.alphabet = alphabet;
+        }
+
+        private boolean needsViterbi() {
+            return parameter.getScoring() != Scoring.FORWARD || parameter.getViterbiMode() != ViterbiMode.SCORE_ONLY;
+        }
+
+        private boolean isBeam() {
+            return !Double.isNaN(parameter.getBeamWidth());
+        }
+
+        private boolean isWavefront() {
+            return wavefrontPool != null && sequence.getLength() >= parameter.getWavefrontLength();
+        }
+
+        /**
+         * @return the posterior decoding as written by {@link PosteriorWriter}, null if posteriors are not requested
+         * or the job did not finish
+         */
+        String getPosteriors() {
+            return posteriors;
+        }
+
+        /**
+         * @return the filter the sequence failed, null if it passed all of them
+         */
+        FilterStage getFailedStage() {
+            return failedStage;
+        }
+
+        String getId() {
+            return sequence.getId();
+        }
+
+        int getLength() {
+            return sequence.getLength();
+        }
+
+        long getFilterNanos() {
+            return filterNanos;
+        }
+
+        /**
+         * @return the time of the calculations after the filters
+         */
+        long getCalculationNanos() {
+            return calculationNanos;
+        }
+
+        /**
+         * @return the log probability of the viterbi path without pruning minus the one with pruning, null if the
+         * beam pruning was not validated for this sequence
+         */
+        Double getBeamScoreLoss() {
+            return beamScoreLoss;
+        }
+
+        boolean isBeamPathChanged() {
+            return beamPathChanged;
+        }
+
+        @Override
+        public long workspaceBytes() {
+            // the band may be widened up to the whole model
+            var viterbiBytes = !needsViterbi() ? 0
+                    : bandedViterbi != null ? bandedViterbi.workspaceBytes(sequence.getLength())
+                    : isBeam() ? profileViterbi.beamWorkspaceBytes(sequence.getLength())
+                    : isWavefront() ? profileViterbi.wavefrontWorkspaceBytes(sequence.getLength())
+                    : profileViterbi.workspaceBytes(sequence.getLength(), parameter.getViterbiMode(),
+                    parameter.getPrecision());
+            // both use the same column buffers of the workspace
+            var bytes = parameter.getScoring() == Scoring.FORWARD
+                    ? Math.max(viterbiBytes, profileForward.workspaceBytes()) : viterbiBytes;
+            if (parameter.isPosteriors()) {
+                // the checkpoints and segment come on top, counting the columns twice is conservative
+                bytes += profileForward.posteriorWorkspaceBytes(sequence.getLength());
+            }
+            if (msvFilter != null) {
+                bytes += msvFilter.workspaceBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public long transientBytes() {
+            // the observations
+            var bytes = Integer.BYTES * (long) sequence.getLength();
+            if (needsViterbi()) {
+                // the band and the beam always calculate a path
+                bytes += bandedViterbi != null ? bandedViterbi.transientBytes(sequence.getLength())
+                        : isBeam() ? profileViterbi.transientBytes(sequence.getLength(), ViterbiMode.FULL,
+                        Precision.DOUBLE)
+                        : profileViterbi.transientBytes(sequence.getLength(), parameter.getViterbiMode(),
+                        parameter.getPrecision());
+            }
+            if (parameter.isPosteriors()) {
+                // the buffer of the StringWriter grows up to twice the text, before it is copied into the string
+                bytes += 2 * posteriorTextBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public long retainedBytes() {
+            return parameter.isPosteriors() ? posteriorTextBytes() : 0;
+        }
+
+        /**
+         * @return an upper bound of the size of the posterior text
+         */
+        private long posteriorTextBytes() {
+            return POSTERIOR_LINE_BYTES * (sequence.getLength() + 2L) + sequence.getId().length();
+        }
+
+        @Override
+        public ViterbiResult run(ViterbiWorkspace workspace) {
+            System.err.println(sequence.getId());
+            int[] observations = sequence.toIntArray();
+            var start = System.nanoTime();
+            if (kmerIndex != null && kmerIndex.countSharedKmers(observations) < parameter.getKmerMinShared()) {
+                failedStage = FilterStage.KMER_INDEX;
+            } else if (msvFilter != null
+                    && !(msvFilter.calcScore(observations, workspace) >= parameter.getMsvThreshold())) {
+                failedStage = FilterStage.MSV;
+            }
+            filterNanos = System.nanoTime() - start;
+            if (failedStage != null) {
+                return new ViterbiResult(new int[0], Double.NEGATIVE_INFINITY);
+            }
+            start = System.nanoTime();
+            var path = new int[0];
+            var score = 0.;
+            if (needsViterbi()) {
+                var viterbiResult = bandedViterbi != null
+                        ? bandedViterbi.calc(observations, parameter.getBandWidth(), workspace)
+                        : isBeam() ? calcBeam(observations, workspace)
+                        : isWavefront() ? profileViterbi.calcWavefront(observations, wavefrontPool, workspace)
+                        : profileViterbi.calc(observations, parameter.getViterbiMode(), parameter.getPrecision(),
+                        workspace);
+                path = viterbiResult.getViterbiPath();
+                score = viterbiResult.getMaxProbability();
+            }
+            if (parameter.getScoring() == Scoring.FORWARD) {
+                score = profileForward.calcScore(observations, workspace);
+            }
+            if (parameter.isPosteriors()) {
+                posteriors = calcPosteriors(observations, workspace);
+            }
+            if (nullModel != null) {
+                score = nullModel.bitScore(score, observations);
+            }
+            calculationNanos = System.nanoTime() - start;
+            return new ViterbiResult(path, score);
+        }
+
+        private ViterbiResult calcBeam(int[] observations, ViterbiWorkspace workspace) {
+            var result = profileViterbi.calcBeam(observations, parameter.getBeamWidth(), workspace);
+            if (parameter.isBeamValidation()) {
+                var exact = profileViterbi.calcBeam(observations, Double.POSITIVE_INFINITY, workspace);
+                beamPathChanged = !Arrays.equals(exact.getViterbiPath(), result.getViterbiPath());
+                // both are -Infinity for empty sequences
+                beamScoreLoss = exact.getMaxProbability() == result.getMaxProbability() ? 0
+                        : exact.getMaxProbability() - result.getMaxProbability();
+            }
+            return result;
+        }
+
+        private String calcPosteriors(int[] observations, ViterbiWorkspace workspace) {
+            var text = new StringWriter();
+            var writer = new PosteriorWriter(text, profileHMM);
+            try {
+                var residues = new char[observations.length];
+                for (var i = 0; i < residues.length; i++) {
+                    residues[i] = alphabet[observations[i]];
+                }
+                writer.beginSequence(sequence.getId(), residues);
+                writer.endSequence(profileForward.calcPosteriors(observations, writer, workspace));
+            } catch (IOException e) {
+                // a StringWriter does not throw
+                throw new UncheckedIOException(e);
+            }
+            return text.toString();
         }
     }
 
@@ -172,6 +689,25 @@ public class App
         int transitionPseudocounts = 1;
         int deleteDeletePseudocounts = 1;
         boolean rocCurve = false;
+        ViterbiMode viterbiMode = ViterbiMode.FULL;
+        Precision precision = Precision.DOUBLE;
+        long memoryBudget = 0;
+        int parallelism = 0;
+        Scoring scoring = Scoring.VITERBI;
+        NullModelType nullModel = NullModelType.NONE;
+        boolean posteriors = false;
+        String refinementData = "";
+        int refinementIterations = 10;
+        double msvThreshold = Double.NaN;
+        String kmerIndex = "";
+        int kmerLength = 11;
+        int kmerMinShared = 1;
+        double beamWidth = Double.NaN;
+        boolean beamValidation = false;
+        int bandWidth = -1;
+        int wavefrontLength = -1;
+        ReadMode readMode = ReadMode.SEQUENTIAL;
+        String recordRange = "";
         for (var line: lines) {
             if (line.startsWith("//")) {
                 continue;
@@ -188,9 +724,58 @@ public class App
                 case "transitionPseudocounts": transitionPseudocounts = Integer.parseInt(setting[1]); break;
                 case "deleteDeletePseudocounts" : deleteDeletePseudocounts = Integer.parseInt(setting[1]); break;
                 case "rocCurve": rocCurve = Boolean.parseBoolean(setting[1]); break;
+                case "viterbiMode": viterbiMode = ViterbiMode.valueOf(toConstantName(setting[1])); break;
+                case "precision": precision = Precision.valueOf(toConstantName(setting[1])); break;
+                case "memoryBudget": memoryBudget = Long.parseLong(setting[1].trim()) * 1024 * 1024; break;
+                case "parallelism": parallelism = Integer.parseInt(setting[1].trim()); break;
+                case "scoring": scoring = Scoring.valueOf(toConstantName(setting[1])); break;
+                case "nullModel": nullModel = NullModelType.valueOf(toConstantName(setting[1])); break;
+                case "posteriors": posteriors = Boolean.parseBoolean(setting[1].trim()); break;
+                case "refinementData": refinementData = setting[1].trim(); break;
+                case "refinementIterations": refinementIterations = Integer.parseInt(setting[1].trim()); break;
+                case "msvThreshold": msvThreshold = Double.parseDouble(setting[1].trim()); break;
+                case "kmerIndex": kmerIndex = setting[1].trim(); break;
+                case "kmerLength": kmerLength = Integer.parseInt(setting[1].trim()); break;
+                case "kmerMinShared": kmerMinShared = Integer.parseInt(setting[1].trim()); break;
+                case "beamWidth": beamWidth = Double.parseDouble(setting[1].trim()); break;
+                case "beamValidation": beamValidation = Boolean.parseBoolean(setting[1].trim()); break;
+                case "bandWidth": bandWidth = Integer.parseInt(setting[1].trim()); break;
+                case "wavefrontLength": wavefrontLength = Integer.parseInt(setting[1].trim()); break;
+                case "readMode": readMode = ReadMode.valueOf(toConstantName(setting[1])); break;
+                case "recordRange": recordRange = setting[1].trim(); break;
+            }
+        }
+        if (!Double.isNaN(beamWidth) && bandWidth >= 0) {
+            throw new IllegalArgumentException("beamWidth and bandWidth cannot be combined");
+        }
+        if (wavefrontLength >= 0 && (viterbiMode != ViterbiMode.FULL || !Double.isNaN(beamWidth) || bandWidth >= 0)) {
+            throw new IllegalArgumentException("wavefrontLength needs viterbiMode full without beamWidth and bandWidth");
+        }
+        int recordRangeStart = -1;
+        int recordRangeEnd = -1;
+        if (!recordRange.isEmpty()) {
+            // first record and record after the last one, like 500000-600000
+            var range = recordRange.split("-");
+            recordRangeStart = Integer.parseInt(range[0].trim());
+            recordRangeEnd = Integer.parseInt(range[1].trim());
+            if (recordRangeStart < 0 || recordRangeEnd < recordRangeStart || readMode != ReadMode.SEQUENTIAL) {
+                throw new IllegalArgumentException("recordRange needs 0 <= start <= end and readMode sequential");
             }
         }
-        return new Parameter(training, test, outputFolder, emissionPseudocounts, transitionPseudocounts, deleteDeletePseudocounts, rocCurve);
+        if (memoryBudget <= 0) {
+            memoryBudget = (long) (DEFAULT_MEMORY_BUDGET * Runtime.getRuntime().maxMemory());
+        }
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        return new Parameter(training, test, outputFolder, emissionPseudocounts, transitionPseudocounts, deleteDeletePseudocounts, rocCurve, viterbiMode, precision, memoryBudget, parallelism, scoring, nullModel, posteriors, refinementData, refinementIterations, msvThreshold, kmerIndex, kmerLength, kmerMinShared, beamWidth, beamValidation, bandWidth, wavefrontLength, readMode, recordRangeStart, recordRangeEnd);
+    }
+
+    /**
+     * Converts a camel case setting value like scoreOnly to the name of an enum constant like SCORE_ONLY.
+     */
+    private static String toConstantName(String value) {
+        return value.trim().replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
     }
 
     private static ArrayList<String> getFileList(String path) {
@@ -0,0 +1,198 @@
+package fasta;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a BGZF file, a series of independent gzip members of at most 64 KB that each store their compressed
+ * size in a BC extra field. The blocks are read one after the other on the calling thread and inflated on the
+ * threads of an executor, up to a fixed number of blocks per thread ahead of the byte being read. The bytes are
+ * returned in the order of the file.
+ */
+class BGZFInputStream extends InputStream {
+    private static final int BLOCKS_PER_THREAD = 16;
+    // ID1, ID2, CM, FLG, MTIME, XFL, OS and XLEN
+    private static final int HEADER_SIZE = 12;
+    // CRC32 and ISIZE
+    private static final int TRAILER_SIZE = 8;
+    // BGZF blocks hold at most 64 KB of inflated data
+    private static final int MAX_INFLATED_SIZE = 1 << 16;
+
+    private final DataInputStream in;
+    private final ExecutorService executor;
+    private final int maxBlocksInFlight;
+    private final ArrayDeque<Future<byte[]>> blocks = new ArrayDeque<>();
+    private boolean endOfFile = false;
+    private byte[] block = new byte[0];
+    private int blockPosition = 0;
+
+    /**
+     * @param parallelism number of threads of the executor, determines how many blocks are inflated ahead
+     */
+    BGZFInputStream(InputStream in, ExecutorService executor, int parallelism) {
+        this.in = new DataInputStream(in);
+        this.executor = executor;
+        this.maxBlocksInFlight = Math.max(1, parallelism * BLOCKS_PER_THREAD);
+    }
+
+    /**
+     * @return whether header, the first bytes of a file, starts a gzip member with a BC extra field
+     */
+    static boolean isBGZF(byte[] header, int length) {
+        return length >= 16 && CompressedInput.isGzip(header, length) && (header[3] & 0x04) != 0
+                && header[12] == 'B' && header[13] == 'C' && header[14] == 2 && header[15] == 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBlock()) {
+            return -1;
+        }
+        return block[blockPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillBlock()) {
+            return -1;
+        }
+        var count = Math.min(length, block.length - blockPosition);
+        System.arraycopy(block, blockPosition, buffer, offset, count);
+        blockPosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (var pending : blocks) {
+            pending.cancel(false);
+        }
+        blocks.clear();
+        in.close();
+    }
+
+    /**
+     * Makes the next inflated block current if the current one is read completely.
+     *
+     * @return false at the end of the file
+     */
+    private boolean fillBlock() throws IOException {
+        while (blockPosition == block.length) {
+            while (!endOfFile && blocks.size() < maxBlocksInFlight) {
+                submitBlock();
+            }
+            if (blocks.isEmpty()) {
+                return false;
+            }
+            try {
+                block = blocks.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while inflating a BGZF block");
+            } catch (ExecutionException e) {
+                // executors like ForkJoinPool wrap the IOException of the block in RuntimeExceptions
+                for (var cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                }
+                throw new IOException(e.getCause());
+            }
+            blockPosition = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next block and submits it for inflation, sets endOfFile if there is none.
+     */
+    private void submitBlock() throws IOException {
+        var header = new byte[HEADER_SIZE];
+        var read = in.readNBytes(header, 0, HEADER_SIZE);
+        if (read == 0) {
+            endOfFile = true;
+            return;
+        }
+        if (read < HEADER_SIZE || !CompressedInput.isGzip(header, read) || (header[3] & 0x04) == 0) {
+            throw new IOException("Invalid BGZF block");
+        }
+        var extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        var extra = new byte[extraLength];
+        in.readFully(extra);
+        var blockSize = -1;
+        for (var i = 0; i + 4 <= extraLength; ) {
+            var subfieldLength = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= extraLength) {
+                blockSize = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+            }
+            i += 4 + subfieldLength;
+        }
+        var compressedSize = blockSize - HEADER_SIZE - extraLength - TRAILER_SIZE;
+        if (blockSize < 0 || compressedSize < 0) {
+            throw new IOException("BGZF block without block size");
+        }
+        var compressed = new byte[compressedSize + TRAILER_SIZE];
+        try {
+            in.readFully(compressed);
+        } catch (EOFException e) {
+            throw new IOException("Truncated BGZF block", e);
+        }
+        blocks.add(executor.submit(() -> inflate(compressed, compressedSize)));
+    }
+
+    /**
+     * @param block the deflated data followed by the CRC32 and the size of the inflated data
+     */
+    private static byte[] inflate(byte[] block, int compressedSize) throws IOException {
+        var crc = readInt(block, compressedSize);
+        var size = readInt(block, compressedSize + 4);
+        // checked before the allocation, a corrupt size could allocate up to 2 GB per block in flight
+        if (size < 0 || size > MAX_INFLATED_SIZE) {
+            throw new IOException("Invalid BGZF block");
+        }
+        var inflated = new byte[size];
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, 0, compressedSize);
+            var length = 0;
+            while (length < size && !inflater.finished()) {
+                var count = inflater.inflate(inflated, length, size - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            if (length != size || !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                throw new IOException("BGZF block does not inflate to its size");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid BGZF block", e);
+        } finally {
+            inflater.end();
+        }
+        var checksum = new CRC32();
+        checksum.update(inflated, 0, size);
+        if ((int) checksum.getValue() != crc) {
+            throw new IOException("BGZF block with wrong CRC32");
+        }
+        return inflated;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,52 @@
+package fasta;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Reads the records of a gzip or BGZF compressed FASTA file while it is decompressed, see {@link CompressedInput},
+ * and encodes them like {@link MappedFASTAReader}. Errors while reading and bases without an observation are thrown
+ * as {@link UncheckedIOException} by {@link #hasNext()} and {@link #next()}.
+ */
+public class CompressedFASTAReader implements EncodedSequenceReader {
+    private final FASTAReader reader;
+    private final ObservationTable observations;
+
+    /**
+     * @param observationMap see {@link MappedFASTAReader}
+     * @param executor       inflates the blocks of BGZF files in parallel, null to inflate them on the reading
+     *                       thread
+     * @param parallelism    number of threads of the executor
+     */
+    public CompressedFASTAReader(Path path, Map<Character, Integer> observationMap, ExecutorService executor,
+            int parallelism) throws IOException {
+        this.observations = new ObservationTable(observationMap);
+        this.reader = new FASTAReader(CompressedInput.newBufferedReader(path, executor, parallelism));
+    }
+
+    @Override
+    public boolean hasNext() {
+        return reader.hasNext();
+    }
+
+    @Override
+    public EncodedSequence next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return observations.encode(reader.next());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,65 @@
+package fasta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens FASTA files that may be gzip compressed, recognized by their first bytes and not by their name. BGZF files
+ * are inflated block by block on the threads of an executor if one is given, other gzip files and BGZF files without
+ * an executor are inflated on the reading thread.
+ */
+class CompressedInput {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    static boolean isGzip(byte[] header, int length) {
+        return length >= 4 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8;
+    }
+
+    static boolean isGzip(Path path) throws IOException {
+        var header = readHeader(path);
+        return isGzip(header, header.length);
+    }
+
+    /**
+     * @param executor inflates the blocks of BGZF files, null to inflate them on the reading thread
+     * @return the decompressed bytes of the file
+     */
+    static InputStream open(Path path, ExecutorService executor, int parallelism) throws IOException {
+        var header = readHeader(path);
+        var in = Files.newInputStream(path);
+        if (executor != null && BGZFInputStream.isBGZF(header, header.length)) {
+            return new BGZFInputStream(new BufferedInputStream(in, BUFFER_SIZE), executor, parallelism);
+        }
+        // reads all members, a BGZF file is a series of gzip members
+        return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Opens the UTF-8 encoded file at path, decompressing it if it is gzip compressed.
+     */
+    static BufferedReader newBufferedReader(Path path, ExecutorService executor, int parallelism)
+            throws IOException {
+        if (!isGzip(path)) {
+            return Files.newBufferedReader(path);
+        }
+        return new BufferedReader(new InputStreamReader(open(path, executor, parallelism),
+                StandardCharsets.UTF_8.newDecoder()), BUFFER_SIZE);
+    }
+
+    private static byte[] readHeader(Path path) throws IOException {
+        try (var in = Files.newInputStream(path)) {
+            var header = new byte[16];
+            var length = in.readNBytes(header, 0, header.length);
+            return Arrays.copyOf(header, length);
+        }
+    }
+}
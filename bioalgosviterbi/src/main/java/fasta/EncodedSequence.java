@@ -0,0 +1,40 @@
+package fasta;
+
+/**
+ * A FASTA record whose bases are already encoded as observations, see {@link MappedFASTAReader}.
+ */
+public class EncodedSequence {
+    private final String id;
+    private final byte[] observations;
+
+    public EncodedSequence(String id, byte[] observations) {
+        this.id = id;
+        this.observations = observations;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the observations, elements of [0, 128), must not be modified
+     */
+    public byte[] getObservations() {
+        return observations;
+    }
+
+    public int getLength() {
+        return observations.length;
+    }
+
+    /**
+     * @return the observations widened to the int array the viterbi algorithms take
+     */
+    public int[] toIntArray() {
+        var widened = new int[observations.length];
+        for (var i = 0; i < observations.length; i++) {
+            widened[i] = observations[i];
+        }
+        return widened;
+    }
+}
@@ -0,0 +1,12 @@
+package fasta;
+
+import java.io.Closeable;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * Reads the records of a FASTA file as encoded observations. Errors while reading are thrown as
+ * {@link UncheckedIOException} by {@link #hasNext()} and {@link #next()}.
+ */
+public interface EncodedSequenceReader extends Iterator<EncodedSequence>, Closeable {
+}
@@ -0,0 +1,318 @@
+package fasta;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Index of the records of a FASTA file in the .fai format of samtools faidx, one line per record with the name, the
+ * number of bases, the offset of the first base, the bases per line and the bytes per line including the line
+ * terminator. With it any record can be read without reading the records before it, see
+ * {@link IndexedFASTAReader}.
+ *
+ * The name of a record is its header up to the first whitespace. Like samtools, only files whose records have lines
+ * of the same length, except for a shorter last line, can be indexed, and the records are numbered in the order of
+ * the file, including records without bases.
+ */
+public class FASTAIndex {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private int size = 0;
+    private String[] names = new String[INITIAL_CAPACITY];
+    private long[] lengths = new long[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] lineBases = new int[INITIAL_CAPACITY];
+    private int[] lineWidths = new int[INITIAL_CAPACITY];
+    // ordinal of the first record of each name
+    private final HashMap<String, Integer> ordinals = new HashMap<>();
+
+    private FASTAIndex() {
+    }
+
+    /**
+     * @return the path samtools expects the index of fasta at, the path of fasta with .fai appended
+     */
+    public static Path indexPath(Path fasta) {
+        return fasta.resolveSibling(fasta.getFileName() + ".fai");
+    }
+
+    /**
+     * Indexes a FASTA file by reading it once.
+     *
+     * @throws IOException if the file is compressed or its lines do not have the same length
+     */
+    public static FASTAIndex build(Path fasta) throws IOException {
+        if (CompressedInput.isGzip(fasta)) {
+            throw new IOException("Compressed FASTA files cannot be indexed: " + fasta);
+        }
+        var index = new FASTAIndex();
+        try (var in = new BufferedInputStream(Files.newInputStream(fasta), BUFFER_SIZE)) {
+            var line = new LineScanner(in);
+            String name = null;
+            long length = 0;
+            long offset = 0;
+            int bases = 0;
+            int width = 0;
+            // set after a line shorter than the first one, which has to be the last line with bases
+            var lastLine = false;
+            while (line.next()) {
+                if (line.isHeader()) {
+                    if (name != null) {
+                        index.add(name, length, offset, bases, width);
+                    }
+                    name = line.name();
+                    length = 0;
+                    offset = line.end();
+                    bases = 0;
+                    width = 0;
+                    lastLine = false;
+                    continue;
+                }
+                if (name == null) {
+                    throw new IOException("Invalid FASTA File");
+                }
+                if (line.bases() == 0) {
+                    // no line with bases may follow an empty line
+                    lastLine = true;
+                    continue;
+                }
+                if (lastLine) {
+                    throw new IOException("Record " + name + " has lines of different length at byte "
+                            + line.start());
+                }
+                if (length == 0) {
+                    bases = line.bases();
+                    width = line.width();
+                } else if (line.bases() > bases
+                        || line.width() > line.bases() && line.width() - line.bases() != width - bases) {
+                    throw new IOException("Record " + name + " has lines of different length at byte "
+                            + line.start());
+                }
+                lastLine = line.bases() < bases;
+                length += line.bases();
+            }
+            if (name != null) {
+                index.add(name, length, offset, bases, width);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Reads an index written by {@link #write(Path)} or samtools faidx.
+     */
+    public static FASTAIndex read(Path fai) throws IOException {
+        var index = new FASTAIndex();
+        for (var line : Files.readAllLines(fai, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            var fields = line.split("\t");
+            if (fields.length < 5) {
+                throw new IOException("Invalid FASTA index line: " + line);
+            }
+            index.add(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+                    Integer.parseInt(fields[4]));
+        }
+        return index;
+    }
+
+    /**
+     * Reads the index next to fasta if it is not older than fasta, else builds it and writes it next to fasta. The
+     * index is written to a temporary file and moved into place, so processes loading the same file concurrently
+     * never read a partly written index.
+     */
+    public static FASTAIndex load(Path fasta) throws IOException {
+        var fai = indexPath(fasta);
+        if (Files.isRegularFile(fai)
+                && Files.getLastModifiedTime(fai).compareTo(Files.getLastModifiedTime(fasta)) >= 0) {
+            return read(fai);
+        }
+        var index = build(fasta);
+        index.write(fai);
+        return index;
+    }
+
+    /**
+     * Writes the index to a temporary file in the directory of fai and atomically moves it to fai.
+     */
+    public void write(Path fai) throws IOException {
+        var directory = fai.toAbsolutePath().getParent();
+        var temporary = Files.createTempFile(directory, fai.getFileName().toString(), ".tmp");
+        try {
+            try (var writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (var i = 0; i < size; i++) {
+                    writer.write(names[i] + "\t" + lengths[i] + "\t" + offsets[i] + "\t" + lineBases[i] + "\t"
+                            + lineWidths[i] + "\n");
+                }
+            }
+            Files.move(temporary, fai, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getName(int ordinal) {
+        return names[ordinal];
+    }
+
+    /**
+     * @return the number of bases of the record
+     */
+    public long getLength(int ordinal) {
+        return lengths[ordinal];
+    }
+
+    /**
+     * @return the file position of the first base of the record
+     */
+    public long getOffset(int ordinal) {
+        return offsets[ordinal];
+    }
+
+    /**
+     * @return the file position after the last base of the record
+     */
+    public long getEnd(int ordinal) {
+        if (lineBases[ordinal] == 0) {
+            return offsets[ordinal];
+        }
+        return offsets[ordinal] + lengths[ordinal] / lineBases[ordinal] * lineWidths[ordinal]
+                + lengths[ordinal] % lineBases[ordinal];
+    }
+
+    /**
+     * @return the ordinal of the first record with name, -1 if there is none
+     */
+    public int indexOf(String name) {
+        return ordinals.getOrDefault(name, -1);
+    }
+
+    private void add(String name, long length, long offset, int bases, int width) {
+        if (size == names.length) {
+            var capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lineBases = Arrays.copyOf(lineBases, capacity);
+            lineWidths = Arrays.copyOf(lineWidths, capacity);
+        }
+        names[size] = name;
+        lengths[size] = length;
+        offsets[size] = offset;
+        lineBases[size] = bases;
+        lineWidths[size] = width;
+        ordinals.putIfAbsent(name, size);
+        size++;
+    }
+
+    /**
+     * Reads the lines of a file byte by byte and keeps their positions, terminated by \n, \r or \r\n.
+     */
+    private static class LineScanner {
+        private final BufferedInputStream in;
+        private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        private long position = 0;
+        private long start;
+        // position after the last byte that is not a line terminator
+        private long contentEnd;
+        private boolean isHeader;
+        private int pending = -1;
+
+        private LineScanner(BufferedInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return false at the end of the file
+         */
+        private boolean next() throws IOException {
+            start = position;
+            var b = read();
+            if (b < 0) {
+                return false;
+            }
+            isHeader = b == '>';
+            header.reset();
+            while (b >= 0 && b != '\n' && b != '\r') {
+                if (isHeader && position - start > 1) {
+                    header.write(b);
+                }
+                b = read();
+            }
+            contentEnd = b < 0 ? position : position - 1;
+            if (b == '\r') {
+                var following = read();
+                if (following != '\n' && following >= 0) {
+                    // belongs to the next line
+                    pending = following;
+                    position--;
+                }
+            }
+            return true;
+        }
+
+        private int read() throws IOException {
+            int b;
+            if (pending >= 0) {
+                b = pending;
+                pending = -1;
+            } else {
+                b = in.read();
+            }
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        private boolean isHeader() {
+            return isHeader;
+        }
+
+        /**
+         * @return the header up to the first whitespace, without the >
+         */
+        private String name() {
+            var text = new String(header.toByteArray(), StandardCharsets.UTF_8);
+            var end = 0;
+            while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+                end++;
+            }
+            return text.substring(0, end);
+        }
+
+        private long start() {
+            return start;
+        }
+
+        /**
+         * @return the position after the line terminator
+         */
+        private long end() {
+            return position;
+        }
+
+        private int bases() {
+            return (int) (contentEnd - start);
+        }
+
+        private int width() {
+            return (int) (position - start);
+        }
+    }
+}
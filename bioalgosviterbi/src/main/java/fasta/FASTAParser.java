@@ -1,36 +1,81 @@
 package fasta;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class FASTAParser {
-    private static final int stringBuilderInitialCapacity = 80;
-
+    /**
+     * Reads all records of a FASTA file into memory, see {@link FASTAReader} for the format. Files of arbitrary size
+     * are better read with {@link #stream(Path)}.
+     */
     public static ArrayList<FASTASequence> parse(Path path) throws IOException {
-        var lines = Files.readAllLines(path);
-        var sequences = new ArrayList<FASTASequence>();
-        Optional<String> id = Optional.empty();
-        StringBuilder stringBuilder = new StringBuilder(stringBuilderInitialCapacity);
-        for (var i = 0; i < lines.size(); i++) {
-            var currLine = lines.get(i);
-            Optional<String> nextline = i+1 >= lines.size() ? Optional.empty() : Optional.of(lines.get(i+1));
-            if (currLine.startsWith(">")) {
-                id = Optional.of(currLine.substring(1)); // skip the >
-                continue;
-            }
-            stringBuilder.append(currLine);
-            if (!nextline.isPresent() || nextline.get().startsWith(">")) {
-                if (!id.isPresent()) {
-                    throw new IOException("Invalid FASTA File");
-                }
-                sequences.add(new FASTASequence(
-                        id.get(), stringBuilder.toString().toCharArray()));
-                stringBuilder = new StringBuilder(stringBuilderInitialCapacity);
-            }
+        try (var reader = new FASTAReader(path)) {
+            var sequences = new ArrayList<FASTASequence>();
+            reader.forEachRemaining(sequences::add);
+            return sequences;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Opens a reader that encodes the records of a FASTA file, either sequentially or in parallel chunks on the
+     * threads of executor, which is only used by the parallel modes. Compressed files cannot be split into chunks,
+     * they are read sequentially and in the parallel modes their BGZF blocks are inflated on the executor.
+     */
+    public static EncodedSequenceReader open(Path path, Map<Character, Integer> observationMap, ReadMode mode,
+            ExecutorService executor, int parallelism) throws IOException {
+        if (CompressedInput.isGzip(path)) {
+            return new CompressedFASTAReader(path, observationMap, mode == ReadMode.SEQUENTIAL ? null : executor,
+                    parallelism);
+        }
+        switch (mode) {
+            case PARALLEL_ORDERED: return new ParallelFASTAReader(path, observationMap, executor, parallelism, true);
+            case PARALLEL_UNORDERED: return new ParallelFASTAReader(path, observationMap, executor, parallelism, false);
+            case SEQUENTIAL:
+            default: return new MappedFASTAReader(path, observationMap);
         }
-        return sequences;
+    }
+
+    /**
+     * Opens a reader that encodes the records with the ordinals in [from, to) of a FASTA file, numbered from 0 in the
+     * order of the file, without reading the records before them. The .fai index next to the file is used or built
+     * and written, see {@link FASTAIndex#load(Path)}. The range may end after the last record, but has to start at
+     * one, so a shard past the end of the file is an error and not silently empty.
+     *
+     * @throws IOException if from is not the ordinal of a record
+     */
+    public static IndexedFASTAReader open(Path path, Map<Character, Integer> observationMap, int from, int to)
+            throws IOException {
+        var index = FASTAIndex.load(path);
+        if (from >= index.size()) {
+            throw new IOException("Record range " + from + "-" + to + " starts after the last of the "
+                    + index.size() + " records of " + path);
+        }
+        return new IndexedFASTAReader(path, index, observationMap, from, Math.min(to, index.size()));
+    }
+
+    /**
+     * Reads the records of a FASTA file lazily, one at a time. The stream has to be closed to close the file.
+     * Errors while reading are thrown as {@link UncheckedIOException}.
+     */
+    public static Stream<FASTASequence> stream(Path path) throws IOException {
+        var reader = new FASTAReader(path);
+        var spliterator = Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 }
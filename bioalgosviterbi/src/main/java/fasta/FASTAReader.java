@@ -0,0 +1,98 @@
+package fasta;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the records of a FASTA file one at a time. Only the record being read and the buffer of the reader are held
+ * in memory, so the heap needed does not depend on the size of the file.
+ *
+ * A record consists of a header line starting with '>' and the lines up to the next header, which are joined to the
+ * sequence. A header without any line after it is skipped, lines before the first header make the file invalid.
+ * Errors while reading are thrown as {@link UncheckedIOException} by {@link #hasNext()} and {@link #next()}.
+ */
+public class FASTAReader implements Iterator<FASTASequence>, Closeable {
+    private static final int stringBuilderInitialCapacity = 80;
+
+    private final BufferedReader reader;
+    // header of the record being read, null before the first header
+    private String id;
+    // the record returned by the next call of next, null if it was not read yet
+    private FASTASequence next;
+    private boolean endOfFile = false;
+
+    /**
+     * Opens the UTF-8 encoded file at path, which is decompressed while it is read if it is gzip or BGZF compressed.
+     */
+    public FASTAReader(Path path) throws IOException {
+        this(CompressedInput.newBufferedReader(path, null, 1));
+    }
+
+    public FASTAReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !endOfFile) {
+            next = readRecord();
+        }
+        return next != null;
+    }
+
+    @Override
+    public FASTASequence next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var record = next;
+        next = null;
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * @return the next record, null at the end of the file
+     */
+    private FASTASequence readRecord() {
+        try {
+            var sequence = new StringBuilder(stringBuilderInitialCapacity);
+            var hasSequenceLine = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(">")) {
+                    var record = hasSequenceLine ? createRecord(sequence) : null;
+                    id = line.substring(1); // skip the >
+                    if (record != null) {
+                        return record;
+                    }
+                    continue;
+                }
+                sequence.append(line);
+                hasSequenceLine = true;
+            }
+            endOfFile = true;
+            return hasSequenceLine ? createRecord(sequence) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FASTASequence createRecord(StringBuilder sequence) throws IOException {
+        if (id == null) {
+            throw new IOException("Invalid FASTA File");
+        }
+        var bases = new char[sequence.length()];
+        sequence.getChars(0, bases.length, bases, 0);
+        return new FASTASequence(id, bases);
+    }
+}
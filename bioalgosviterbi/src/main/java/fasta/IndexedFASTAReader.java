@@ -0,0 +1,101 @@
+package fasta;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads records of a FASTA file by their position in its {@link FASTAIndex}, so reading can start at any record
+ * without reading the records before it. Single records can be fetched by ordinal or name, and the reader returns
+ * the records of the ordinals in [from, to) in the order of the file, skipping records without bases. Errors while
+ * reading are thrown as {@link UncheckedIOException} by {@link #hasNext()} and {@link #next()}.
+ */
+public class IndexedFASTAReader implements EncodedSequenceReader {
+    private final FASTAIndex index;
+    private final MappedFASTAReader file;
+    private final int to;
+    // ordinal of the next record to read
+    private int ordinal;
+
+    /**
+     * @param observationMap see {@link MappedFASTAReader}
+     * @param from           first ordinal to read, records are numbered from 0 in the order of the file
+     * @param to             ordinal after the last one to read, at most the size of the index
+     */
+    public IndexedFASTAReader(Path path, FASTAIndex index, Map<Character, Integer> observationMap, int from, int to)
+            throws IOException {
+        // the range is checked before the file is opened
+        this(index, checkRange(index, from, to), to, new MappedFASTAReader(path, observationMap));
+    }
+
+    IndexedFASTAReader(FASTAIndex index, int from, int to, MappedFASTAReader file) {
+        this.index = index;
+        this.file = file;
+        this.ordinal = checkRange(index, from, to);
+        this.to = to;
+    }
+
+    public IndexedFASTAReader(Path path, FASTAIndex index, Map<Character, Integer> observationMap)
+            throws IOException {
+        this(path, index, observationMap, 0, index.size());
+    }
+
+    /**
+     * @return the record with the ordinal, records are numbered from 0 in the order of the file
+     */
+    public EncodedSequence fetch(int ordinal) throws IOException {
+        return file.readAt(index.getOffset(ordinal), index.getEnd(ordinal), index.getLength(ordinal));
+    }
+
+    /**
+     * @param name the header of the record up to the first whitespace
+     * @return the first record with the name
+     * @throws NoSuchElementException if there is no record with the name
+     */
+    public EncodedSequence fetch(String name) throws IOException {
+        var ordinal = index.indexOf(name);
+        if (ordinal < 0) {
+            throw new NoSuchElementException("No record " + name);
+        }
+        return fetch(ordinal);
+    }
+
+    /**
+     * @return from
+     * @throws IllegalArgumentException if [from, to) is not a range of ordinals of the index
+     */
+    private static int checkRange(FASTAIndex index, int from, int to) {
+        if (from < 0 || from > to || to > index.size()) {
+            throw new IllegalArgumentException("Records " + from + " to " + to + " are not in the index of "
+                    + index.size() + " records");
+        }
+        return from;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (ordinal < to && index.getLength(ordinal) == 0) {
+            ordinal++;
+        }
+        return ordinal < to;
+    }
+
+    @Override
+    public EncodedSequence next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return fetch(ordinal++);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,261 @@
+package fasta;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the records of a FASTA file like {@link FASTAReader}, but encodes the bases straight from the memory mapped
+ * file into observation arrays. A record is scanned twice in the mapped bytes, once to find its end and count its
+ * bases and once to encode them through a table of all 256 byte values into an array of exactly that length. No
+ * lines, strings or char arrays are created for the sequence.
+ *
+ * The file is mapped in windows of at most 1 GB, so files of any size can be read. The mapped pages belong to the
+ * page cache of the operating system and not to the heap. Errors while reading and bases without an observation are
+ * thrown as {@link UncheckedIOException} by {@link #hasNext()} and {@link #next()}.
+ */
+public class MappedFASTAReader implements EncodedSequenceReader {
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+    // records whose header starts at or after end belong to the next range
+    private final long end;
+    private final ObservationTable observations;
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private long mappedEnd = 0;
+    private int mappings = 0;
+    // file position of the next line to read
+    private long position = 0;
+    // header of the record being read, null before the first header
+    private String id;
+    private EncodedSequence next;
+    private boolean endOfRange = false;
+
+    /**
+     * @param observationMap maps the bases to observations in [0, 128), bases have to be single byte characters.
+     *                       Lower case bases are only accepted if they are part of the map.
+     */
+    public MappedFASTAReader(Path path, Map<Character, Integer> observationMap) throws IOException {
+        this(path, observationMap, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedFASTAReader(Path path, Map<Character, Integer> observationMap, int windowSize) throws IOException {
+        this(path, observationMap, 0, Long.MAX_VALUE, windowSize);
+    }
+
+    /**
+     * Reads only the records whose header line starts in [start, end), a record is read to its end even if that is
+     * after end. Adjacent ranges therefore read every record of the file exactly once, see
+     * {@link ParallelFASTAReader}.
+     */
+    MappedFASTAReader(Path path, Map<Character, Integer> observationMap, long start, long end, int windowSize)
+            throws IOException {
+        this.observations = new ObservationTable(observationMap);
+        this.windowSize = windowSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.end = end;
+        if (start > 0) {
+            position = nextHeader(start, Math.min(end, fileSize));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !endOfRange && position < fileSize) {
+            try {
+                next = readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public EncodedSequence next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var record = next;
+        next = null;
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return the next record, null at the end of the file
+     */
+    private EncodedSequence readRecord() throws IOException {
+        var sequenceStart = position;
+        var baseCount = 0L;
+        var hasSequenceLine = false;
+        while (position < fileSize) {
+            var lineEnd = lineEnd(position);
+            if (byteAt(position) == '>') {
+                if (position >= end) {
+                    endOfRange = true;
+                    return hasSequenceLine ? encode(id, sequenceStart, position, baseCount) : null;
+                }
+                if (hasSequenceLine) {
+                    // the header belongs to the next record
+                    return encode(id, sequenceStart, position, baseCount);
+                }
+                id = decode(position + 1, lineEnd);
+                position = nextLine(lineEnd);
+                sequenceStart = position;
+                continue;
+            }
+            baseCount += lineEnd - position;
+            hasSequenceLine = true;
+            position = nextLine(lineEnd);
+        }
+        return hasSequenceLine ? encode(id, sequenceStart, position, baseCount) : null;
+    }
+
+    /**
+     * Reads the record whose bases are between start and end without reading the records before it, see
+     * {@link FASTAIndex}. The id is read from the header line before start.
+     *
+     * @param baseCount the number of bases between start and end
+     */
+    EncodedSequence readAt(long start, long end, long baseCount) throws IOException {
+        // the header line ends before the line terminator in front of start
+        var headerEnd = start;
+        while (headerEnd > 0 && (byteAt(headerEnd - 1) == '\n' || byteAt(headerEnd - 1) == '\r')) {
+            headerEnd--;
+        }
+        var headerStart = headerEnd;
+        while (headerStart > 0 && byteAt(headerStart - 1) != '\n' && byteAt(headerStart - 1) != '\r') {
+            headerStart--;
+        }
+        if (headerStart == headerEnd || byteAt(headerStart) != '>') {
+            throw new IOException("No header before byte " + start + ", the index does not match the file");
+        }
+        return encode(decode(headerStart + 1, headerEnd), start, Math.min(end, fileSize), baseCount);
+    }
+
+    /**
+     * Encodes the bases between start and end, skipping the line terminators.
+     */
+    private EncodedSequence encode(String id, long start, long end, long baseCount) throws IOException {
+        if (id == null) {
+            throw new IOException("Invalid FASTA File");
+        }
+        if (baseCount > Integer.MAX_VALUE - 8) {
+            throw new IOException("Record " + id + " has too many bases for an array");
+        }
+        var encoded = new byte[(int) baseCount];
+        var i = 0;
+        for (var filePosition = start; filePosition < end; filePosition++) {
+            var base = byteAt(filePosition);
+            if (base == '\n' || base == '\r') {
+                continue;
+            }
+            var observation = observations.get(base);
+            if (observation == ObservationTable.NO_OBSERVATION) {
+                throw ObservationTable.unknownBase(id, (char) (base & 0xff));
+            }
+            if (i == encoded.length) {
+                throw new IOException("Record " + id + " has more than " + baseCount + " bases");
+            }
+            encoded[i++] = observation;
+        }
+        if (i < encoded.length) {
+            throw new IOException("Record " + id + " has less than " + baseCount + " bases");
+        }
+        return new EncodedSequence(id, encoded);
+    }
+
+    /**
+     * @return the position of the line terminator of the line starting at start, the file size for the last line
+     * without one
+     */
+    private long lineEnd(long start) throws IOException {
+        var end = start;
+        while (end < fileSize) {
+            var b = byteAt(end);
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return the start of the line after the terminator at lineEnd, like {@link java.io.BufferedReader#readLine()}
+     * a terminator is \n, \r or \r\n
+     */
+    private long nextLine(long lineEnd) throws IOException {
+        if (lineEnd < fileSize && byteAt(lineEnd) == '\r' && lineEnd + 1 < fileSize && byteAt(lineEnd + 1) == '\n') {
+            return lineEnd + 2;
+        }
+        return Math.min(lineEnd + 1, fileSize);
+    }
+
+    /**
+     * Scans the bytes in [position, limit) only, so a range inside a long record does not read to its end.
+     *
+     * @param position a position after the start of the file
+     * @return the start of the first header line in [position, limit), the file size if there is none
+     */
+    private long nextHeader(long position, long limit) throws IOException {
+        var previous = byteAt(position - 1);
+        for (; position < limit; position++) {
+            var b = byteAt(position);
+            if (b == '>' && (previous == '\n' || previous == '\r')) {
+                return position;
+            }
+            previous = b;
+        }
+        return fileSize;
+    }
+
+    /**
+     * @return the position after the last byte mapped so far, the furthest the reader has read
+     */
+    long mappedEnd() {
+        return mappedEnd;
+    }
+
+    private String decode(long start, long end) throws IOException {
+        var bytes = new byte[(int) (end - start)];
+        for (var i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of windows mapped so far
+     */
+    int mappings() {
+        return mappings;
+    }
+
+    private byte byteAt(long filePosition) throws IOException {
+        if (window == null || filePosition < windowStart || filePosition >= windowStart + window.limit()) {
+            // aligned, so that reading backwards from a position maps one window and not one per byte
+            windowStart = filePosition - filePosition % windowSize;
+            mappings++;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                    Math.min(windowSize, fileSize - windowStart));
+            mappedEnd = Math.max(mappedEnd, windowStart + window.limit());
+        }
+        return window.get((int) (filePosition - windowStart));
+    }
+}
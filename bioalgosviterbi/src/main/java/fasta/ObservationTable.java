@@ -0,0 +1,61 @@
+package fasta;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encodes single byte bases as observations through a table of all 256 byte values.
+ */
+class ObservationTable {
+    static final byte NO_OBSERVATION = -1;
+
+    // observations[b & 0xff] is the observation of byte b or NO_OBSERVATION
+    private final byte[] observations = new byte[256];
+
+    /**
+     * @param observationMap maps the bases to observations in [0, 128), bases have to be single byte characters.
+     *                       Lower case bases are only accepted if they are part of the map.
+     */
+    ObservationTable(Map<Character, Integer> observationMap) {
+        Arrays.fill(observations, NO_OBSERVATION);
+        for (var entry : observationMap.entrySet()) {
+            var base = (int) entry.getKey();
+            var observation = entry.getValue();
+            if (base > 0xff || observation < 0 || observation > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Cannot encode " + entry.getKey() + " as " + observation
+                        + " in a byte");
+            }
+            observations[base] = observation.byteValue();
+        }
+    }
+
+    /**
+     * @return the observation of base, NO_OBSERVATION if it has none
+     */
+    byte get(int base) {
+        return observations[base & 0xff];
+    }
+
+    /**
+     * Encodes a record read as characters.
+     *
+     * @throws IOException if a base has no observation
+     */
+    EncodedSequence encode(FASTASequence sequence) throws IOException {
+        var bases = sequence.getSequence();
+        var encoded = new byte[bases.length];
+        for (var i = 0; i < bases.length; i++) {
+            var observation = bases[i] > 0xff ? NO_OBSERVATION : observations[bases[i]];
+            if (observation == NO_OBSERVATION) {
+                throw unknownBase(sequence.getId(), bases[i]);
+            }
+            encoded[i] = observation;
+        }
+        return new EncodedSequence(sequence.getId(), encoded);
+    }
+
+    static IOException unknownBase(String id, char base) {
+        return new IOException("Record " + id + " contains " + base + ", which is no observation");
+    }
+}
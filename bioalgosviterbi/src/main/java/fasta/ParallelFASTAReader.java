@@ -0,0 +1,159 @@
+package fasta;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reads a FASTA file in chunks on the threads of an executor, each chunk with its own {@link MappedFASTAReader}.
+ * The file is split into byte ranges of equal size and a chunk reads the records whose header line starts in its
+ * range, so the ranges are snapped to the record boundaries by the chunks themselves without reading the file
+ * beforehand. A record longer than a range is read completely by the chunk of its header, the chunks it covers are
+ * empty.
+ *
+ * At most two chunks per thread are read ahead of the record returned last, so the memory needed does not depend
+ * on the size of the file. The records are returned in the order of the file or, if ordered is false, chunk by chunk
+ * as soon as a chunk is read. Errors while reading are thrown as {@link UncheckedIOException} by
+ * {@link #hasNext()} and {@link #next()} once the chunk with the error is reached, errors of the threads like an
+ * {@link OutOfMemoryError} are thrown there as they are.
+ */
+public class ParallelFASTAReader implements EncodedSequenceReader {
+    private static final long DEFAULT_CHUNK_SIZE = 1 << 23;
+    private static final int CHUNKS_PER_THREAD = 2;
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    private final Path path;
+    private final Map<Character, Integer> observationMap;
+    private final ExecutorService executor;
+    private final boolean ordered;
+    private final long chunkSize;
+    private final int maxChunksInFlight;
+    private final long fileSize;
+    // chunks are added by the threads of the executor as soon as they are read
+    private final LinkedBlockingQueue<Chunk> readChunks = new LinkedBlockingQueue<>();
+    // chunks that were read before the chunks preceding them, only used if ordered
+    private final HashMap<Integer, Chunk> waitingChunks = new HashMap<>();
+    private int submittedChunks = 0;
+    private int takenChunks = 0;
+    private Iterator<EncodedSequence> records = Collections.emptyIterator();
+    private boolean closed = false;
+
+    /**
+     * @param observationMap see {@link MappedFASTAReader}
+     * @param parallelism    number of threads of the executor, determines how many chunks are read ahead
+     */
+    public ParallelFASTAReader(Path path, Map<Character, Integer> observationMap, ExecutorService executor,
+            int parallelism, boolean ordered) throws IOException {
+        this(path, observationMap, executor, parallelism, ordered, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelFASTAReader(Path path, Map<Character, Integer> observationMap, ExecutorService executor,
+            int parallelism, boolean ordered, long chunkSize) throws IOException {
+        this.path = path;
+        this.observationMap = observationMap;
+        this.executor = executor;
+        this.ordered = ordered;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = Math.max(1, parallelism * CHUNKS_PER_THREAD);
+        this.fileSize = Files.size(path);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!records.hasNext()) {
+            submitChunks();
+            if (takenChunks == submittedChunks) {
+                return false;
+            }
+            var chunk = takeChunk();
+            if (chunk.error instanceof Error) {
+                throw (Error) chunk.error;
+            }
+            if (chunk.error != null) {
+                throw (RuntimeException) chunk.error;
+            }
+            records = chunk.records.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public EncodedSequence next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return records.next();
+    }
+
+    /**
+     * Stops reading ahead, the chunks being read are finished by the executor and discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        records = Collections.emptyIterator();
+    }
+
+    private void submitChunks() {
+        while (!closed && submittedChunks - takenChunks < maxChunksInFlight
+                && (long) submittedChunks * chunkSize < fileSize) {
+            var index = submittedChunks++;
+            executor.execute(() -> readChunks.add(readChunk(index)));
+        }
+    }
+
+    private Chunk takeChunk() {
+        try {
+            if (!ordered) {
+                takenChunks++;
+                return readChunks.take();
+            }
+            while (!waitingChunks.containsKey(takenChunks)) {
+                var chunk = readChunks.take();
+                waitingChunks.put(chunk.index, chunk);
+            }
+            return waitingChunks.remove(takenChunks++);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while reading " + path));
+        }
+    }
+
+    private Chunk readChunk(int index) {
+        var start = index * chunkSize;
+        var records = new ArrayList<EncodedSequence>();
+        try (var reader = new MappedFASTAReader(path, observationMap, start, start + chunkSize, WINDOW_SIZE)) {
+            reader.forEachRemaining(records::add);
+            return new Chunk(index, records, null);
+        } catch (IOException e) {
+            return new Chunk(index, null, new UncheckedIOException(e));
+        } catch (RuntimeException | Error e) {
+            // every submitted chunk has to arrive, else the reading thread waits for it forever
+            return new Chunk(index, null, e);
+        }
+    }
+
+    private static class Chunk {
+        private final int index;
+        private final List<EncodedSequence> records;
+        // a RuntimeException or an Error
+        private final Throwable error;
+
+        private Chunk(int index, List<EncodedSequence> records, Throwable error) {
+            this.index = index;
+            this.records = records;
+            this.error = error;
+        }
+    }
+}
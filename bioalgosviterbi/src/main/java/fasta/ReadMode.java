@@ -0,0 +1,20 @@
+package fasta;
+
+/**
+ * How the records of a test file are read.
+ */
+public enum ReadMode {
+    /**
+     * One record after the other on the calling thread, see {@link MappedFASTAReader}.
+     */
+    SEQUENTIAL,
+    /**
+     * Chunks of the file in parallel, the records are returned in the order of the file, see
+     * {@link ParallelFASTAReader}.
+     */
+    PARALLEL_ORDERED,
+    /**
+     * Chunks of the file in parallel, the records of a chunk are returned as soon as the chunk is read.
+     */
+    PARALLEL_UNORDERED
+}
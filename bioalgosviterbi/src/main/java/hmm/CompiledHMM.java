@@ -0,0 +1,155 @@
+package hmm;
+
+/**
+ * Immutable log space form of an HMM given by a transition and an emission matrix of probabilities. The logarithms
+ * are computed once when the model is compiled, so scoring many observation sequences against the same model only
+ * costs the dynamic programming itself. Transitions with probability 0 are dropped from the predecessor lists, the
+ * recurrence does not visit them at all.
+ *
+ * The matrices passed to the constructor are copied and not modified. An instance can be shared between threads.
+ */
+public final class CompiledHMM {
+    private final int stateCount;
+    private final int alphabetSize;
+    private final int transitionCount;
+
+    // logIncomingTransitions[toState * stateCount + fromState] is the log transition probability from fromState to
+    // toState, all transitions into one state are contiguous
+    private final double[] logIncomingTransitions;
+    // the predecessors of a state are predecessors[predecessorOffsets[state], predecessorOffsets[state + 1]) in
+    // ascending order, predecessorTransitions holds the log transition probabilities at the same positions
+    private final int[] predecessorOffsets;
+    private final int[] predecessors;
+    private final double[] predecessorTransitions;
+    // logEmissions[observation * stateCount + state] is the log emission probability, stored observation major
+    // because the recurrence sweeps all states for one observation
+    private final double[] logEmissions;
+
+    /**
+     * @param transitionMatrix transitionMatrix[j][k] is the probability to go from state j to state k, size must be
+     *                         |States| x |States|
+     * @param emissionMatrix   emissionMatrix[j][o] is the probability to emit observation o in state j, size must be
+     *                         |States| x |EmissionStates|
+     */
+    public CompiledHMM(double[][] transitionMatrix, double[][] emissionMatrix) {
+        this.stateCount = transitionMatrix.length;
+        if (stateCount == 0 || emissionMatrix.length != stateCount || emissionMatrix[0].length == 0) {
+            throw new IllegalArgumentException("Transition matrix of " + stateCount + " rows and emission matrix of "
+                    + emissionMatrix.length + " rows do not describe the same non empty set of states");
+        }
+        this.alphabetSize = emissionMatrix[0].length;
+        for (var state = 0; state < stateCount; state++) {
+            if (transitionMatrix[state].length != stateCount || emissionMatrix[state].length != alphabetSize) {
+                throw new IllegalArgumentException("Row " + state + " of the transition or emission matrix has the "
+                        + "wrong length");
+            }
+        }
+
+        this.logIncomingTransitions = new double[stateCount * stateCount];
+        this.predecessorOffsets = new int[stateCount + 1];
+        var transitionCount = 0;
+        for (var toState = 0; toState < stateCount; toState++) {
+            for (var fromState = 0; fromState < stateCount; fromState++) {
+                var probability = transitionMatrix[fromState][toState];
+                logIncomingTransitions[toState * stateCount + fromState] = Math.log(probability);
+                if (probability != 0) {
+                    transitionCount++;
+                }
+            }
+            predecessorOffsets[toState + 1] = transitionCount;
+        }
+        this.transitionCount = transitionCount;
+
+        this.predecessors = new int[transitionCount];
+        this.predecessorTransitions = new double[transitionCount];
+        var i = 0;
+        for (var toState = 0; toState < stateCount; toState++) {
+            for (var fromState = 0; fromState < stateCount; fromState++) {
+                if (transitionMatrix[fromState][toState] != 0) {
+                    predecessors[i] = fromState;
+                    predecessorTransitions[i] = logIncomingTransitions[toState * stateCount + fromState];
+                    i++;
+                }
+            }
+        }
+
+        this.logEmissions = new double[alphabetSize * stateCount];
+        for (var state = 0; state < stateCount; state++) {
+            for (var observation = 0; observation < alphabetSize; observation++) {
+                logEmissions[observation * stateCount + state] = Math.log(emissionMatrix[state][observation]);
+            }
+        }
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @return the number of different observations, |EmissionStates|
+     */
+    public int getAlphabetSize() {
+        return alphabetSize;
+    }
+
+    /**
+     * @return the number of transitions with a probability other than 0
+     */
+    public int getTransitionCount() {
+        return transitionCount;
+    }
+
+    public double getLogTransition(int fromState, int toState) {
+        return logIncomingTransitions[toState * stateCount + fromState];
+    }
+
+    public double getLogEmission(int state, int observation) {
+        return logEmissions[observation * stateCount + state];
+    }
+
+    /**
+     * Dense log transitions ordered by the target state, the transition from fromState to toState is stored at
+     * toState * |States| + fromState. Impossible transitions are -Infinity.
+     *
+     * @return the log transitions, must not be modified
+     */
+    public double[] getLogIncomingTransitions() {
+        return logIncomingTransitions;
+    }
+
+    /**
+     * The predecessors of a state, i.e. the states with a transition to it, are stored at
+     * [predecessorOffsets[state], predecessorOffsets[state + 1]) of {@link #getPredecessors()} and
+     * {@link #getPredecessorTransitions()}. The array has |States| + 1 elements.
+     *
+     * @return the offsets, must not be modified
+     */
+    public int[] getPredecessorOffsets() {
+        return predecessorOffsets;
+    }
+
+    /**
+     * @return the predecessors of all states in ascending order per state, see {@link #getPredecessorOffsets()},
+     * must not be modified
+     */
+    public int[] getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * @return the log transition probabilities from the predecessors in {@link #getPredecessors()} to their
+     * successors, must not be modified
+     */
+    public double[] getPredecessorTransitions() {
+        return predecessorTransitions;
+    }
+
+    /**
+     * The log emission probability of observation in state is stored at observation * |States| + state.
+     *
+     * @return the log emissions, must not be modified
+     */
+    public double[] getLogEmissions() {
+        return logEmissions;
+    }
+}
@@ -0,0 +1,224 @@
+package kmer;
+
+import fasta.FASTASequence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Set of all k-mers of the training sequences, used to discard test sequences which share too few k-mers with the
+ * training set before any dynamic programming. A k-mer is encoded with 2 bits per base in a long, so k is at most
+ * 31 and the alphabet has at most 4 observations. Gaps of the alignment are skipped, a k-mer never spans a
+ * character outside of the observation map.
+ *
+ * The index can be written to a file next to the results and read again instead of rebuilding it. The file stores a
+ * fingerprint of the training sequences it was built from, so an index of other training data is recognized, see
+ * {@link #isBuiltFrom}. An instance is not modified after it was built and can be shared between threads.
+ */
+public class KmerIndex {
+    public static final int MAX_K = 31;
+    private static final int BITS_PER_BASE = 2;
+    // file format: magic, version, k, fingerprint, number of k-mers, k-mers
+    private static final int MAGIC = 0x4b4d4552;
+    private static final int VERSION = 1;
+    // the set is presized for at most this many k-mers, larger sets grow while they are built
+    private static final int MAX_EXPECTED_KMERS = 1 << 24;
+    // FNV-1a 64 bit
+    private static final long FINGERPRINT_BASIS = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    private final int k;
+    private final long fingerprint;
+    private final LongOpenHashSet kmers;
+
+    private KmerIndex(int k, long fingerprint, LongOpenHashSet kmers) {
+        this.k = k;
+        this.fingerprint = fingerprint;
+        this.kmers = kmers;
+    }
+
+    /**
+     * @param sequences      the training sequences, may be aligned
+     * @param observationMap maps the bases to observations in [0, 4)
+     * @param k              length of the k-mers, in [1, {@link #MAX_K}]
+     */
+    public static KmerIndex build(List<FASTASequence> sequences, char gapSymbol,
+                                  Map<Character, Integer> observationMap, int k) {
+        checkK(k);
+        if (observationMap.size() > 1 << BITS_PER_BASE) {
+            throw new IllegalArgumentException("A k-mer index needs at most " + (1 << BITS_PER_BASE)
+                    + " observations, got " + observationMap.size());
+        }
+        // an upper bound of the distinct k-mers, the set grows if there are more
+        var residueCount = 0L;
+        for (var sequence : sequences) {
+            for (var symbol : sequence.getSequence()) {
+                if (symbol != gapSymbol) {
+                    residueCount++;
+                }
+            }
+        }
+        var kmers = new LongOpenHashSet((int) Math.min(Math.min(residueCount, 1L << BITS_PER_BASE * k),
+                MAX_EXPECTED_KMERS));
+        var kmerMask = mask(k);
+        for (var sequence : sequences) {
+            var kmer = 0L;
+            var valid = 0;
+            for (var symbol : sequence.getSequence()) {
+                if (symbol == gapSymbol) {
+                    continue;
+                }
+                var observation = observationMap.get(symbol);
+                if (observation == null) {
+                    valid = 0;
+                    continue;
+                }
+                kmer = (kmer << BITS_PER_BASE | observation) & kmerMask;
+                if (++valid >= k) {
+                    kmers.add(kmer);
+                }
+            }
+        }
+        return new KmerIndex(k, fingerprint(sequences, gapSymbol, observationMap), kmers);
+    }
+
+    /**
+     * @return whether the index has length k and was built from the same sequences, gap symbol and observation
+     * map, so that building it again would give the same k-mers
+     */
+    public boolean isBuiltFrom(List<FASTASequence> sequences, char gapSymbol, Map<Character, Integer> observationMap,
+                               int k) {
+        return this.k == k && fingerprint == fingerprint(sequences, gapSymbol, observationMap);
+    }
+
+    /**
+     * @return a hash of everything the k-mers are built from
+     */
+    private static long fingerprint(List<FASTASequence> sequences, char gapSymbol,
+                                    Map<Character, Integer> observationMap) {
+        var hash = fingerprint(FINGERPRINT_BASIS, gapSymbol);
+        for (var entry : new TreeMap<>(observationMap).entrySet()) {
+            hash = fingerprint(hash, entry.getKey());
+            hash = fingerprint(hash, entry.getValue());
+        }
+        for (var sequence : sequences) {
+            // the length separates the sequences
+            hash = fingerprint(hash, sequence.getSequence().length);
+            for (var symbol : sequence.getSequence()) {
+                hash = fingerprint(hash, symbol);
+            }
+        }
+        return hash;
+    }
+
+    private static long fingerprint(long hash, int value) {
+        for (var i = 0; i < Integer.BYTES; i++) {
+            hash = (hash ^ (value >>> 8 * i & 0xff)) * FINGERPRINT_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Reads an index written by {@link #write(Path)}.
+     */
+    public static KmerIndex read(Path path) throws IOException {
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            var magic = input.readInt();
+            var version = input.readInt();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException(path + " is not a k-mer index");
+            }
+            var k = input.readInt();
+            var fingerprint = input.readLong();
+            var size = input.readInt();
+            if (k < 1 || k > MAX_K || size < 0) {
+                throw new IOException(path + " is not a valid k-mer index");
+            }
+            var kmers = new LongOpenHashSet(size);
+            for (var i = 0; i < size; i++) {
+                kmers.add(input.readLong());
+            }
+            return new KmerIndex(k, fingerprint, kmers);
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file in the directory of path and atomically moves it to path, so processes
+     * sharing the index file never read a partly written index.
+     */
+    public void write(Path path) throws IOException {
+        var directory = path.toAbsolutePath().getParent();
+        var temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(k);
+                output.writeLong(fingerprint);
+                output.writeInt(kmers.size());
+                for (var kmer : kmers.toArray()) {
+                    output.writeLong(kmer);
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the number of distinct k-mers in the index
+     */
+    public int size() {
+        return kmers.size();
+    }
+
+    /**
+     * @return the number of bytes of the hash table
+     */
+    public long capacityBytes() {
+        return kmers.capacityBytes();
+    }
+
+    /**
+     * Slides a window of k observations over the sequence, updating the 2 bit encoded k-mer with every observation.
+     *
+     * @param observations Sequence of observations, elements of [0, 4)
+     * @return the number of positions whose k-mer is in the index, repeated k-mers are counted every time
+     */
+    public int countSharedKmers(int[] observations) {
+        var kmerMask = mask(k);
+        var kmer = 0L;
+        var shared = 0;
+        for (var i = 0; i < observations.length; i++) {
+            kmer = (kmer << BITS_PER_BASE | observations[i]) & kmerMask;
+            if (i >= k - 1 && kmers.contains(kmer)) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+
+    private static long mask(int k) {
+        return (1L << BITS_PER_BASE * k) - 1;
+    }
+
+    private static void checkK(int k) {
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException("k must be in [1, " + MAX_K + "], got " + k);
+        }
+    }
+}
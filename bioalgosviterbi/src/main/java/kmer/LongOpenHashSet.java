@@ -0,0 +1,109 @@
+package kmer;
+
+import java.util.Arrays;
+
+/**
+ * Set of non negative longs in one primitive array with open addressing and linear probing. Compared to a
+ * HashSet of Long it needs no object per element, a lookup touches one or two cache lines.
+ */
+final class LongOpenHashSet {
+    // marks an empty slot, all elements are >= 0
+    private static final long EMPTY = -1;
+    // the table is grown before it is more than half full, which keeps the probe sequences short
+    private static final int MAX_LOAD_DIVISOR = 2;
+
+    private long[] table;
+    private int mask;
+    private int size = 0;
+
+    /**
+     * @param expectedSize number of elements the set holds without growing
+     */
+    LongOpenHashSet(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(2, expectedSize * MAX_LOAD_DIVISOR - 1)) << 1;
+        this.table = new long[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * @param element a value >= 0
+     * @return true if the element was not in the set before
+     */
+    boolean add(long element) {
+        if (element < 0) {
+            throw new IllegalArgumentException("Only non negative elements can be stored, got " + element);
+        }
+        if ((size + 1) * (long) MAX_LOAD_DIVISOR > table.length) {
+            grow();
+        }
+        var slot = slot(element);
+        while (table[slot] != EMPTY) {
+            if (table[slot] == element) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = element;
+        size++;
+        return true;
+    }
+
+    boolean contains(long element) {
+        var slot = slot(element);
+        while (table[slot] != EMPTY) {
+            if (table[slot] == element) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the elements in no particular order
+     */
+    long[] toArray() {
+        var elements = new long[size];
+        var i = 0;
+        for (var element : table) {
+            if (element != EMPTY) {
+                elements[i++] = element;
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * @return the number of bytes of the table
+     */
+    long capacityBytes() {
+        return Long.BYTES * (long) table.length;
+    }
+
+    private int slot(long element) {
+        // the low bits of a k-mer only depend on its last bases, mix all bits into them (finalizer of MurmurHash3)
+        var hash = element;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) hash & mask;
+    }
+
+    private void grow() {
+        var elements = toArray();
+        table = new long[table.length * 2];
+        mask = table.length - 1;
+        Arrays.fill(table, EMPTY);
+        size = 0;
+        for (var element : elements) {
+            add(element);
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package parameter;
 
+import fasta.ReadMode;
+import phmm.NullModelType;
+import viterbi.Precision;
+import viterbi.Scoring;
+import viterbi.ViterbiMode;
+
 public class Parameter {
     private final String training;
     private final String test;
@@ -8,8 +14,28 @@ public class Parameter {
     private final int transitionPseudocounts;
     private final int deleteDeletePseudocounts;
     private final boolean rocCurve;
+    private final ViterbiMode viterbiMode;
+    private final Precision precision;
+    private final long memoryBudget;
+    private final int parallelism;
+    private final Scoring scoring;
+    private final NullModelType nullModel;
+    private final boolean posteriors;
+    private final String refinementData;
+    private final int refinementIterations;
+    private final double msvThreshold;
+    private final String kmerIndex;
+    private final int kmerLength;
+    private final int kmerMinShared;
+    private final double beamWidth;
+    private final boolean beamValidation;
+    private final int bandWidth;
+    private final int wavefrontLength;
+    private final ReadMode readMode;
+    private final int recordRangeStart;
+    private final int recordRangeEnd;
 
-    public Parameter(String training, String test, String outputFolder, int emissionPseudocounts, int transitionPseudocounts, int deleteDeletePseudocounts, boolean rocCurve) {
+    public Parameter(String training, String test, String outputFolder, int emissionPseudocounts, int transitionPseudocounts, int deleteDeletePseudocounts, boolean rocCurve, ViterbiMode viterbiMode, Precision precision, long memoryBudget, int parallelism, Scoring scoring, NullModelType nullModel, boolean posteriors, String refinementData, int refinementIterations, double msvThreshold, String kmerIndex, int kmerLength, int kmerMinShared, double beamWidth, boolean beamValidation, int bandWidth, int wavefrontLength, ReadMode readMode, int recordRangeStart, int recordRangeEnd) {
         this.training = training;
         this.test = test;
         this.outputFolder = outputFolder;
@@ -17,6 +43,26 @@ public class Parameter {
         this.transitionPseudocounts = transitionPseudocounts;
         this.deleteDeletePseudocounts = deleteDeletePseudocounts;
         this.rocCurve = rocCurve;
+        this.viterbiMode = viterbiMode;
+        this.precision = precision;
+        this.memoryBudget = memoryBudget;
+        this.parallelism = parallelism;
+        this.scoring = scoring;
+        this.nullModel = nullModel;
+        this.posteriors = posteriors;
+        this.refinementData = refinementData;
+        this.refinementIterations = refinementIterations;
+        this.msvThreshold = msvThreshold;
+        this.kmerIndex = kmerIndex;
+        this.kmerLength = kmerLength;
+        this.kmerMinShared = kmerMinShared;
+        this.beamWidth = beamWidth;
+        this.beamValidation = beamValidation;
+        this.bandWidth = bandWidth;
+        this.wavefrontLength = wavefrontLength;
+        this.readMode = readMode;
+        this.recordRangeStart = recordRangeStart;
+        this.recordRangeEnd = recordRangeEnd;
     }
 
     /**
@@ -68,4 +114,145 @@ public class Parameter {
         return deleteDeletePseudocounts;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return the viterbiMode
+     */
+    public ViterbiMode getViterbiMode() {
+        return viterbiMode;
+    }
+
+    /**
+     * @return the precision
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return the memoryBudget in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the scoring
+     */
+    public Scoring getScoring() {
+        return scoring;
+    }
+
+    /**
+     * @return the nullModel
+     */
+    public NullModelType getNullModel() {
+        return nullModel;
+    }
+
+    /**
+     * @return the posteriors
+     */
+    public boolean isPosteriors() {
+        return posteriors;
+    }
+
+    /**
+     * @return the refinementData, empty if the model is not refined
+     */
+    public String getRefinementData() {
+        return refinementData;
+    }
+
+    /**
+     * @return the refinementIterations
+     */
+    public int getRefinementIterations() {
+        return refinementIterations;
+    }
+
+    /**
+     * @return the msvThreshold in bits, NaN if the MSV filter is off
+     */
+    public double getMsvThreshold() {
+        return msvThreshold;
+    }
+
+    /**
+     * @return the path of the kmerIndex file, empty if the k-mer filter is off
+     */
+    public String getKmerIndex() {
+        return kmerIndex;
+    }
+
+    /**
+     * @return the kmerLength
+     */
+    public int getKmerLength() {
+        return kmerLength;
+    }
+
+    /**
+     * @return the kmerMinShared
+     */
+    public int getKmerMinShared() {
+        return kmerMinShared;
+    }
+
+    /**
+     * @return the beamWidth in log probability, NaN if the viterbi calculation is exact
+     */
+    public double getBeamWidth() {
+        return beamWidth;
+    }
+
+    /**
+     * @return the beamValidation
+     */
+    public boolean isBeamValidation() {
+        return beamValidation;
+    }
+
+    /**
+     * @return the initial bandWidth in nodes, negative if the viterbi calculation is not banded
+     */
+    public int getBandWidth() {
+        return bandWidth;
+    }
+
+    /**
+     * @return the minimum sequence length from which the viterbi matrix of a single sequence is calculated in
+     * parallel tiles, negative if it never is
+     */
+    public int getWavefrontLength() {
+        return wavefrontLength;
+    }
+
+    /**
+     * @return whether the test files are read sequentially or in parallel chunks
+     */
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    /**
+     * @return the ordinal of the first record of each test file that is calculated, negative if all records are
+     */
+    public int getRecordRangeStart() {
+        return recordRangeStart;
+    }
+
+    /**
+     * @return the ordinal after the last record of each test file that is calculated
+     */
+    public int getRecordRangeEnd() {
+        return recordRangeEnd;
+    }
+
+}
@@ -0,0 +1,112 @@
+package phmm;
+
+import fasta.FASTASequence;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Background model against which the scores of a profile HMM are compared. Every observation is emitted
+ * independently with a fixed background frequency and the sequence length follows a geometric distribution whose
+ * mean is the length of the scored sequence (p1 = L / (L + 1), as in HMMER).
+ *
+ * Dividing the probability of a sequence under the profile HMM by its probability under the null model cancels the
+ * roughly linear decrease of log probabilities with the sequence length, so the resulting log odds scores of long
+ * and short sequences are comparable.
+ */
+public class NullModel {
+    private static final double LOG_2 = Math.log(2);
+
+    private final double[] logFrequencies;
+
+    /**
+     * @param frequencies background frequency of every observation, normalized to sum 1
+     */
+    public NullModel(double[] frequencies) {
+        var sum = 0.;
+        for (var frequency : frequencies) {
+            if (frequency < 0) {
+                throw new IllegalArgumentException("Background frequencies cannot be negative");
+            }
+            sum += frequency;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("Background frequencies cannot all be 0");
+        }
+        this.logFrequencies = new double[frequencies.length];
+        for (var i = 0; i < frequencies.length; i++) {
+            logFrequencies[i] = Math.log(frequencies[i] / sum);
+        }
+    }
+
+    /**
+     * @return a null model in which all observations are equally likely
+     */
+    public static NullModel uniform(int observationStatesCount) {
+        var frequencies = new double[observationStatesCount];
+        Arrays.fill(frequencies, 1);
+        return new NullModel(frequencies);
+    }
+
+    /**
+     * Creates a null model with the observation frequencies of the training sequences. Gaps and characters which are
+     * not part of observationMap are ignored.
+     *
+     * @param pseudocount added to the count of every observation
+     */
+    public static NullModel fromSequences(List<FASTASequence> sequences, char gapSymbol,
+                                          Map<Character, Integer> observationMap, double pseudocount) {
+        var frequencies = new double[observationMap.size()];
+        Arrays.fill(frequencies, pseudocount);
+        for (var sequence : sequences) {
+            for (var symbol : sequence.getSequence()) {
+                var observation = observationMap.get(symbol);
+                if (symbol != gapSymbol && observation != null) {
+                    frequencies[observation]++;
+                }
+            }
+        }
+        return new NullModel(frequencies);
+    }
+
+    /**
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @return the log probability of the observations under the null model
+     */
+    public double logProbability(int[] observations) {
+        var logProbability = lengthLogProbability(observations.length);
+        for (var observation : observations) {
+            logProbability += logFrequencies[observation];
+        }
+        return logProbability;
+    }
+
+    /**
+     * @return the log probability of the geometric length distribution to produce length observations, the part
+     * of {@link #logProbability(int[])} which does not depend on the observations themselves
+     */
+    public double lengthLogProbability(int length) {
+        if (length == 0) {
+            // p1 = 0, the empty sequence has probability 1
+            return 0;
+        }
+        return length * Math.log(length / (length + 1.)) + Math.log(1. / (length + 1));
+    }
+
+    /**
+     * @return the log background frequency of observation
+     */
+    public double logFrequency(int observation) {
+        return logFrequencies[observation];
+    }
+
+    /**
+     * @param logProbability log probability of the observations under the profile HMM, of the viterbi path or
+     *                       summed over all paths
+     * @return the log odds score in bits, positive if the observations are more likely under the profile HMM
+     */
+    public double bitScore(double logProbability, int[] observations) {
+        return (logProbability - logProbability(observations)) / LOG_2;
+    }
+}
@@ -0,0 +1,19 @@
+package phmm;
+
+/**
+ * Background frequencies of the {@link NullModel} the scores are compared with.
+ */
+public enum NullModelType {
+    /**
+     * No null model, the raw log probabilities are reported.
+     */
+    NONE,
+    /**
+     * All observations are equally likely.
+     */
+    UNIFORM,
+    /**
+     * The observation frequencies of the training sequences.
+     */
+    TRAINING
+}
@@ -6,8 +6,36 @@ import util.Util;
 import java.util.*;
 
 public class ProfileHMM {
+    /**
+     * Every state of a profile HMM has at most three predecessors: the match, insert and delete state of the
+     * preceding node (in this order).
+     */
+    public static final int MAX_PREDECESSORS = 3;
+    /**
+     * Every state of a profile HMM has at most three successors: the match, insert and delete state of the
+     * following node (in this order). The insert state of a node follows the match, insert and delete state of the
+     * same node.
+     */
+    public static final int MAX_SUCCESSORS = 3;
+    /**
+     * Quantized log probabilities are stored in units of 1/100 bit, i.e. round(log probability * QUANTIZATION_SCALE).
+     */
+    public static final double QUANTIZATION_SCALE = 100 / Math.log(2);
+    /**
+     * Quantized value of log(0). All other quantized log probabilities are in [-32767, 0].
+     */
+    public static final short QUANTIZED_NEGATIVE_INFINITY = Short.MIN_VALUE;
+
+    // null if the model only keeps the compact transitions
     private double[][] transitionMatrix;
+    // transitions[state * MAX_SUCCESSORS + i] is the transition from state to its i-th successor
+    private double[] transitions;
     private double[][] emissionMatrix;
+    // reduced precision copies of transitions and emissionMatrix, created on first use
+    private float[] floatTransitions;
+    private float[][] floatEmissionMatrix;
+    private short[] quantizedTransitions;
+    private short[][] quantizedEmissionMatrix;
 
     final private char gapSymbol;
     final private double emissionPseudocount;
@@ -25,6 +53,9 @@ public class ProfileHMM {
 
     private int stateCount;
 
+    private int[] predecessorTable;
+    private int[] successorTable;
+
     private boolean appliedPCAndNormalized = false;
 
     public ProfileHMM(List<FASTASequence> sequences,
@@ -34,6 +65,23 @@ public class ProfileHMM {
                       double transitionPseudocount,
                       double deleteDeletePseudocount,
                       double matchThreshold) {
+        this(sequences, gapSymbol, observationMap, emissionPseudocount, transitionPseudocount, deleteDeletePseudocount,
+                matchThreshold, false);
+    }
+
+    /**
+     * @param compactTransitions if true, only the at most three transitions per state are stored instead of the
+     *                           dense |States| x |States| transition matrix. The model memory then grows linearly
+     *                           with the number of match columns instead of quadratically.
+     */
+    public ProfileHMM(List<FASTASequence> sequences,
+                      char gapSymbol,
+                      Map<Character, Integer> observationMap,
+                      double emissionPseudocount,
+                      double transitionPseudocount,
+                      double deleteDeletePseudocount,
+                      double matchThreshold,
+                      boolean compactTransitions) {
         if (sequences.size() == 0 || observationMap.size() == 0) {
             throw new IllegalArgumentException("Input sequences and observationMap cannot be empty");
         } else if (emissionPseudocount <= 0 || transitionPseudocount <= 0 || deleteDeletePseudocount <= 0) {
@@ -52,21 +100,207 @@ public class ProfileHMM {
         var matchColumns = getMatchColumns(sequences, matchThreshold);
 
         calcStateBorders(matchColumns.size());
+        calcPredecessorTable();
+        calcSuccessorTable();
         calcEmissionMatrix(sequences, observationMap, matchColumns.clone());
-        calcTransitionMatrix(sequences, matchColumns);
+        calcTransitionMatrix(sequences, matchColumns, compactTransitions);
 
-        Util.toLog(transitionMatrix);
+        if (!compactTransitions) {
+            Util.toLog(transitionMatrix);
+        }
+        Util.toLog(transitions);
         Util.toLog(emissionMatrix);
     }
 
+    /**
+     * Copies the structure of model, the parameters are left to the caller.
+     */
+    private ProfileHMM(ProfileHMM model) {
+        this.gapSymbol = model.gapSymbol;
+        this.emissionPseudocount = model.emissionPseudocount;
+        this.transitionPseudocount = model.transitionPseudocount;
+        this.deleteDeletePseudocount = model.deleteDeletePseudocount;
+        this.observationStatesCount = model.observationStatesCount;
+        this.columnCount = model.columnCount;
+        this.beginMatch = model.beginMatch;
+        this.endMatch = model.endMatch;
+        this.firstInsert = model.firstInsert;
+        this.lastInsert = model.lastInsert;
+        this.firstDelete = model.firstDelete;
+        this.lastDelete = model.lastDelete;
+        this.stateCount = model.stateCount;
+        // both tables are never modified
+        this.predecessorTable = model.predecessorTable;
+        this.successorTable = model.successorTable;
+    }
+
+    /**
+     * Creates a model with the same states whose parameters are estimated from expected counts, e.g. the E-step of
+     * Baum-Welch. The pseudocounts of this model are added before normalizing, exactly as for the counts of the
+     * training alignment. The model keeps dense or compact transitions like this one.
+     *
+     * @param transitionCounts expected number of transitions from state to its i-th successor at
+     *                         state * MAX_SUCCESSORS + i, the layout of {@link #getTransitions()}
+     * @param emissionCounts   expected number of emissions of observation by state at
+     *                         state * |EmissionStates| + observation for all states up to lastInsert
+     * @return the new model, this model is not modified
+     */
+    public ProfileHMM reestimate(double[] transitionCounts, double[] emissionCounts) {
+        if (transitionCounts.length != stateCount * MAX_SUCCESSORS
+                || emissionCounts.length != (lastInsert + 1) * observationStatesCount) {
+            throw new IllegalArgumentException("Expected counts do not match the states of the model");
+        }
+        var model = new ProfileHMM(this);
+
+        model.emissionMatrix = new double[lastInsert + 1][observationStatesCount];
+        // the begin and end state do not emit, their rows stay 0 like in a model of an alignment
+        for (var state = beginMatch + 1; state <= lastInsert; state++) {
+            if (state != endMatch) {
+                System.arraycopy(emissionCounts, state * observationStatesCount, model.emissionMatrix[state], 0,
+                        observationStatesCount);
+            }
+        }
+        model.applyPseudocountAndNormalizeToEmissionMatrix();
+
+        model.transitions = new double[stateCount * MAX_SUCCESSORS];
+        if (transitionMatrix != null) {
+            model.transitionMatrix = new double[stateCount][stateCount];
+        }
+        for (var fromState = 0; fromState < stateCount; fromState++) {
+            if (fromState == endMatch) // has no transitions
+                continue;
+            for (var i = 0; i < MAX_SUCCESSORS; i++) {
+                var toState = successorTable[fromState * MAX_SUCCESSORS + i];
+                if (toState >= 0) {
+                    model.countTransitions(fromState, toState, transitionCounts[fromState * MAX_SUCCESSORS + i]);
+                }
+            }
+        }
+        model.applyPseudcountAndNormalizeToTransitionMatrix();
+
+        if (model.transitionMatrix != null) {
+            Util.toLog(model.transitionMatrix);
+        }
+        Util.toLog(model.transitions);
+        Util.toLog(model.emissionMatrix);
+        return model;
+    }
+
+    /**
+     * For models with compact transitions the dense matrix is created on every call, callers that only need single
+     * transitions should use {@link #getTransitions()} instead.
+     *
+     * @return the dense log transition matrix, transitionMatrix[j][k] being the transition from state j to state k
+     */
     public double[][] getTransitionMatrix() {
-        return transitionMatrix;
+        if (transitionMatrix != null) {
+            return transitionMatrix;
+        }
+        var denseTransitionMatrix = new double[stateCount][stateCount];
+        for (var fromState = 0; fromState < stateCount; fromState++) {
+            Arrays.fill(denseTransitionMatrix[fromState], Double.NEGATIVE_INFINITY);
+            for (var i = 0; i < MAX_SUCCESSORS; i++) {
+                var toState = successorTable[fromState * MAX_SUCCESSORS + i];
+                if (toState >= 0) {
+                    denseTransitionMatrix[fromState][toState] = transitions[fromState * MAX_SUCCESSORS + i];
+                }
+            }
+        }
+        return denseTransitionMatrix;
+    }
+
+    /**
+     * Compact form of the log transition matrix. The transition from a state to its i-th successor (see
+     * {@link #getSuccessorTable()}) is stored at state * MAX_SUCCESSORS + i, missing successors are -Infinity.
+     * Available for dense and compact models.
+     *
+     * @return the compact log transitions, must not be modified
+     */
+    public double[] getTransitions() {
+        return transitions;
+    }
+
+    public boolean hasCompactTransitions() {
+        return transitionMatrix == null;
     }
 
     public double[][] getEmissionMatrix() {
         return emissionMatrix;
     }
 
+    /**
+     * @return {@link #getTransitions()} in single precision, must not be modified
+     */
+    public synchronized float[] getFloatTransitions() {
+        if (floatTransitions == null) {
+            floatTransitions = new float[transitions.length];
+            for (var i = 0; i < transitions.length; i++) {
+                floatTransitions[i] = (float) transitions[i];
+            }
+        }
+        return floatTransitions;
+    }
+
+    /**
+     * @return {@link #getEmissionMatrix()} in single precision, must not be modified
+     */
+    public synchronized float[][] getFloatEmissionMatrix() {
+        if (floatEmissionMatrix == null) {
+            floatEmissionMatrix = new float[emissionMatrix.length][];
+            for (var state = 0; state < emissionMatrix.length; state++) {
+                floatEmissionMatrix[state] = new float[emissionMatrix[state].length];
+                for (var observation = 0; observation < emissionMatrix[state].length; observation++) {
+                    floatEmissionMatrix[state][observation] = (float) emissionMatrix[state][observation];
+                }
+            }
+        }
+        return floatEmissionMatrix;
+    }
+
+    /**
+     * @return {@link #getTransitions()} quantized with {@link #quantize(double)}, must not be modified
+     */
+    public synchronized short[] getQuantizedTransitions() {
+        if (quantizedTransitions == null) {
+            quantizedTransitions = new short[transitions.length];
+            for (var i = 0; i < transitions.length; i++) {
+                quantizedTransitions[i] = quantize(transitions[i]);
+            }
+        }
+        return quantizedTransitions;
+    }
+
+    /**
+     * @return {@link #getEmissionMatrix()} quantized with {@link #quantize(double)}, must not be modified
+     */
+    public synchronized short[][] getQuantizedEmissionMatrix() {
+        if (quantizedEmissionMatrix == null) {
+            quantizedEmissionMatrix = new short[emissionMatrix.length][];
+            for (var state = 0; state < emissionMatrix.length; state++) {
+                quantizedEmissionMatrix[state] = new short[emissionMatrix[state].length];
+                for (var observation = 0; observation < emissionMatrix[state].length; observation++) {
+                    quantizedEmissionMatrix[state][observation] = quantize(emissionMatrix[state][observation]);
+                }
+            }
+        }
+        return quantizedEmissionMatrix;
+    }
+
+    /**
+     * Converts a log probability to a scaled 16 bit integer. The rounding error is at most 0.5 / QUANTIZATION_SCALE,
+     * log probabilities below -32767 / QUANTIZATION_SCALE (about -227) are clamped.
+     *
+     * @param logProbability a log probability <= 0
+     * @return the quantized log probability or {@link #QUANTIZED_NEGATIVE_INFINITY} for log(0)
+     */
+    public static short quantize(double logProbability) {
+        if (logProbability == Double.NEGATIVE_INFINITY) {
+            return QUANTIZED_NEGATIVE_INFINITY;
+        }
+        var scaled = Math.min(0, Math.round(logProbability * QUANTIZATION_SCALE));
+        return (short) Math.max(QUANTIZED_NEGATIVE_INFINITY + 1, scaled);
+    }
+
     public int getBeginMatch() {
         return beginMatch;
     }
@@ -95,6 +329,42 @@ public class ProfileHMM {
         return stateCount;
     }
 
+    /**
+     * Flat primitive version of {@link #getPossiblePredecessorIndeces(int)}. The predecessors of a state are stored
+     * at [state * MAX_PREDECESSORS, (state + 1) * MAX_PREDECESSORS) in the same order as returned by
+     * getPossiblePredecessorIndeces, missing predecessors are marked with -1. The begin state has no predecessors.
+     *
+     * @return the predecessor table, must not be modified
+     */
+    public int[] getPredecessorTable() {
+        return predecessorTable;
+    }
+
+    /**
+     * Flat primitive version of {@link #getPossibleSuccessorIndeces(int)}. The successors of a state are stored
+     * at [state * MAX_SUCCESSORS, (state + 1) * MAX_SUCCESSORS) ordered by their kind (match, insert, delete),
+     * missing successors are marked with -1. The end state has no successors.
+     *
+     * @return the successor table, must not be modified
+     */
+    public int[] getSuccessorTable() {
+        return successorTable;
+    }
+
+    /**
+     * @return the index of state within the successor list of any of its predecessors, 0 for match, 1 for insert
+     * and 2 for delete states
+     */
+    public int successorSlot(int state) {
+        if (state <= endMatch) {
+            return 0;
+        } else if (state <= lastInsert) {
+            return 1;
+        } else {
+            return 2;
+        }
+    }
+
     public int stateToColum(int state) {
         if (state < 0 || state > lastDelete) {
             throw new IllegalArgumentException("Can not call stateToColum with < 0 or > lastDelete");
@@ -176,7 +446,7 @@ public class ProfileHMM {
             }
         } else if (index >= firstDelete){
             successors.add(index - lastInsert +1); // match
-            successors.add(index - insertCount); // insert
+            successors.add(index - insertCount + 1); // insert of the same node
             if (index < lastDelete) {
                 successors.add(index+1);    // delete
             }
@@ -242,6 +512,28 @@ public class ProfileHMM {
         stateCount = lastDelete +1;
     }
 
+    private void calcPredecessorTable() {
+        predecessorTable = new int[stateCount * MAX_PREDECESSORS];
+        Arrays.fill(predecessorTable, -1);
+        // skip begin state, it has no predecessors
+        for (var state = 1; state < stateCount; state++) {
+            var predecessors = getPossiblePredecessorIndeces(state);
+            for (var i = 0; i < predecessors.size(); i++) {
+                predecessorTable[state * MAX_PREDECESSORS + i] = predecessors.get(i);
+            }
+        }
+    }
+
+    private void calcSuccessorTable() {
+        successorTable = new int[stateCount * MAX_SUCCESSORS];
+        Arrays.fill(successorTable, -1);
+        for (var state = 0; state < stateCount; state++) {
+            for (int successor : getPossibleSuccessorIndeces(state)) {
+                successorTable[state * MAX_SUCCESSORS + successorSlot(successor)] = successor;
+            }
+        }
+    }
+
    private void calcEmissionMatrix(List<FASTASequence> sequences,
                                    Map<Character, Integer> observationMap,
                                    Deque<Integer> matchColumns) {
@@ -275,6 +567,10 @@ public class ProfileHMM {
             }
         }
 
+        applyPseudocountAndNormalizeToEmissionMatrix();
+    }
+
+    private void applyPseudocountAndNormalizeToEmissionMatrix() {
         // skip begin state row
         for (var i=1; i<emissionMatrix.length; i++) {
             if (i == endMatch)
@@ -287,8 +583,13 @@ public class ProfileHMM {
         }
     }
 
-    private void calcTransitionMatrix(List<FASTASequence> sequences, Deque<Integer> matchColumns) {
-        transitionMatrix = new double[stateCount][stateCount];
+    private void calcTransitionMatrix(List<FASTASequence> sequences,
+                                      Deque<Integer> matchColumns,
+                                      boolean compactTransitions) {
+        transitions = new double[stateCount * MAX_SUCCESSORS];
+        if (!compactTransitions) {
+            transitionMatrix = new double[stateCount][stateCount];
+        }
 
         Optional<Integer> previousMatchColumn = Optional.empty();
         Optional<Integer> currentMatchColumn = Optional.empty();
@@ -321,7 +622,7 @@ public class ProfileHMM {
                      currState += firstDelete - 1;      // deletes start in column 1
                 }
 
-                transitionMatrix[prevState][currState]++;
+                countTransition(prevState, currState);
             }
         }
 
@@ -333,12 +634,28 @@ public class ProfileHMM {
                     seq,
                     currentMatchColumn ,
                     profileColumn);
-            transitionMatrix[prevState][endMatch]++;
+            countTransition(prevState, endMatch);
         }
 
         applyPseudcountAndNormalizeToTransitionMatrix();
     }
 
+    private void countTransition(int fromState, int toState) {
+        countTransitions(fromState, toState, 1);
+    }
+
+    private void countTransitions(int fromState, int toState, double count) {
+        if (transitionMatrix != null) {
+            transitionMatrix[fromState][toState] += count;
+            return;
+        }
+        var slot = successorSlot(toState);
+        if (successorTable[fromState * MAX_SUCCESSORS + slot] != toState) {
+            throw new IllegalStateException("No transition from state " + fromState + " to state " + toState);
+        }
+        transitions[fromState * MAX_SUCCESSORS + slot] += count;
+    }
+
     private int getPreviousState(int index,
                                  char[] sequence,
                                  Optional<Integer> previousMatchColumnFromIndex,
@@ -372,6 +689,10 @@ public class ProfileHMM {
         if (this.appliedPCAndNormalized) {
             throw new IllegalStateException("Can not call applyPseudcountAndNormalizeToTransitionMatrix twice!");
         }
+        if (transitionMatrix == null) {
+            applyPseudocountAndNormalizeToTransitions();
+            return;
+        }
         for(var fromState=0; fromState < transitionMatrix.length; fromState++) {
             for (int toState : getPossibleSuccessorIndeces(fromState)) {
                 if (stateIsDelete(fromState) && stateIsDelete(toState)) {
@@ -389,6 +710,38 @@ public class ProfileHMM {
                 transitionMatrix[fromState][toState] /= rowSum;
             }
         }
+        // keep the compact form in sync, the viterbi engines only work on it
+        for (var fromState = 0; fromState < stateCount; fromState++) {
+            for (var i = 0; i < MAX_SUCCESSORS; i++) {
+                var toState = successorTable[fromState * MAX_SUCCESSORS + i];
+                if (toState >= 0) {
+                    transitions[fromState * MAX_SUCCESSORS + i] = transitionMatrix[fromState][toState];
+                }
+            }
+        }
+    }
+
+    private void applyPseudocountAndNormalizeToTransitions() {
+        for (var fromState = 0; fromState < stateCount; fromState++) {
+            if (fromState == endMatch) // has no transitions
+                continue;
+            var offset = fromState * MAX_SUCCESSORS;
+            for (var i = 0; i < MAX_SUCCESSORS; i++) {
+                var toState = successorTable[offset + i];
+                if (toState < 0) {
+                    continue;
+                }
+                if (stateIsDelete(fromState) && stateIsDelete(toState)) {
+                    transitions[offset + i] += deleteDeletePseudocount;
+                } else {
+                    transitions[offset + i] += transitionPseudocount;
+                }
+            }
+            var rowSum = Arrays.stream(transitions, offset, offset + MAX_SUCCESSORS).sum();
+            for (var i = 0; i < MAX_SUCCESSORS; i++) {
+                transitions[offset + i] /= rowSum;
+            }
+        }
     }
 
 
@@ -0,0 +1,295 @@
+package scheduler;
+
+import viterbi.ViterbiWorkspace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs jobs in parallel as long as their memory fits into a fixed budget.
+ *
+ * Every running job gets a {@link ViterbiWorkspace} of a pool of at most parallelism workspaces, which keep their
+ * buffers for the next jobs. The budget covers the buffers of all workspaces of the pool, busy or idle, plus the
+ * memory the running jobs allocate outside of their workspace and the memory the results of finished jobs hold until
+ * all jobs of a run are finished. Jobs are admitted largest first. If the largest
+ * pending job does not fit, smaller ones which still fit are started next to the running ones, and idle workspaces
+ * are emptied if that makes a job fit. A job larger than the whole budget is only started when nothing else runs.
+ *
+ * A job failing with an {@link OutOfMemoryError} is repeated once when it can run alone, if it fails again its result
+ * is null.
+ */
+public class MemoryBudgetScheduler implements AutoCloseable {
+    /**
+     * A unit of work whose memory requirement is known in advance.
+     *
+     * @param <T> type of the result
+     */
+    public interface Job<T> {
+        /**
+         * The jobs of one scheduler are expected to request the same kind of buffers, so that a workspace grows by
+         * at most the difference between this and its current capacity.
+         *
+         * @return the size of the workspace buffers the job needs, see {@link ViterbiWorkspace#capacityBytes()}
+         */
+        long workspaceBytes();
+
+        /**
+         * @return the memory the job allocates outside of the workspace while it runs
+         */
+        long transientBytes();
+
+        /**
+         * @return the memory the job keeps after it finished, e.g. in its result, until the run of all jobs returns
+         */
+        default long retainedBytes() {
+            return 0;
+        }
+
+        T run(ViterbiWorkspace workspace);
+    }
+
+    private final long memoryBudget;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition finished = lock.newCondition();
+    // guarded by lock
+    private final List<ViterbiWorkspace> idleWorkspaces = new ArrayList<>();
+    private int runningCount = 0;
+    // capacity of all workspaces plus the reservations of the running jobs
+    private long reservedBytes = 0;
+    private long peakReservedBytes = 0;
+    // retained bytes of the finished jobs of the current run, released when the run returns
+    private long retainedBytes = 0;
+
+    /**
+     * @param memoryBudget maximum number of bytes reserved by running jobs and the workspace pool at any time
+     * @param parallelism  maximum number of jobs running at the same time
+     */
+    public MemoryBudgetScheduler(long memoryBudget, int parallelism) {
+        if (memoryBudget <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Memory budget and parallelism must be positive");
+        }
+        this.memoryBudget = memoryBudget;
+        this.parallelism = parallelism;
+        var threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            var thread = new Thread(runnable, "viterbi-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs all jobs and waits for them.
+     *
+     * @return the results in the order of jobs, null for jobs which failed with an OutOfMemoryError
+     * @throws RuntimeException the first exception other than OutOfMemoryError thrown by a job
+     */
+    public <T> List<T> run(List<? extends Job<T>> jobs) throws InterruptedException {
+        var tasks = new ArrayList<Task<T>>();
+        for (var i = 0; i < jobs.size(); i++) {
+            tasks.add(new Task<>(i, jobs.get(i)));
+        }
+        // largest first, small jobs fill up the remaining budget
+        tasks.sort(Comparator.comparingLong((Task<T> task) -> task.bytes()).reversed());
+
+        var results = new ArrayList<T>(jobs.size());
+        for (var i = 0; i < jobs.size(); i++) {
+            results.add(null);
+        }
+        RuntimeException failure = null;
+
+        lock.lock();
+        try {
+            while (!tasks.isEmpty() || runningCount > 0) {
+                if (failure == null && !tasks.isEmpty() && startNext(tasks, results)) {
+                    continue;
+                }
+                finished.await();
+                for (var i = 0; i < tasks.size(); i++) {
+                    if (tasks.get(i).failure != null && failure == null) {
+                        failure = tasks.get(i).failure;
+                    }
+                }
+                tasks.removeIf(task -> task.failure != null);
+                if (failure != null && runningCount == 0) {
+                    throw failure;
+                }
+            }
+        } finally {
+            reservedBytes -= retainedBytes;
+            retainedBytes = 0;
+            lock.unlock();
+        }
+        return results;
+    }
+
+    /**
+     * @return the highest number of bytes reserved at any time, at most the budget unless a single job exceeded it
+     */
+    public long getPeakReservedBytes() {
+        lock.lock();
+        try {
+            return peakReservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Starts the first task which fits into the budget. Must be called with the lock held.
+     *
+     * @return false if no task could be started
+     */
+    private <T> boolean startNext(List<Task<T>> tasks, List<T> results) {
+        if (runningCount == parallelism) {
+            return false;
+        }
+        for (var i = 0; i < tasks.size(); i++) {
+            var task = tasks.get(i);
+            if (task.exclusive && runningCount > 0) {
+                // no new jobs until the retry has the memory to itself
+                return false;
+            }
+            var workspace = takeWorkspace(task.job.workspaceBytes());
+            var reservation = Math.max(0, task.job.workspaceBytes() - workspace.capacityBytes())
+                    + task.job.transientBytes() + task.job.retainedBytes();
+            if (task.exclusive) {
+                freeIdleWorkspaces(Long.MAX_VALUE);
+            } else if (reservedBytes + reservation > memoryBudget
+                    && reservedBytes - idleBytes() + reservation <= memoryBudget) {
+                freeIdleWorkspaces(reservedBytes + reservation - memoryBudget);
+            }
+            // a job larger than the budget gets it for itself
+            if (reservedBytes + reservation <= memoryBudget || runningCount == 0) {
+                tasks.remove(i);
+                start(task, workspace, reservation, tasks, results);
+                return true;
+            }
+            idleWorkspaces.add(workspace);
+        }
+        return false;
+    }
+
+    /**
+     * @return the idle workspace which has to grow least for a job, the smallest of them on ties, or a new
+     * workspace if none is idle
+     */
+    private ViterbiWorkspace takeWorkspace(long bytes) {
+        ViterbiWorkspace best = null;
+        for (var workspace : idleWorkspaces) {
+            if (best == null || growth(workspace, bytes) < growth(best, bytes)
+                    || growth(workspace, bytes) == growth(best, bytes)
+                    && workspace.capacityBytes() < best.capacityBytes()) {
+                best = workspace;
+            }
+        }
+        if (best == null) {
+            return new ViterbiWorkspace();
+        }
+        idleWorkspaces.remove(best);
+        return best;
+    }
+
+    private static long growth(ViterbiWorkspace workspace, long bytes) {
+        return Math.max(0, bytes - workspace.capacityBytes());
+    }
+
+    private long idleBytes() {
+        var bytes = 0L;
+        for (var workspace : idleWorkspaces) {
+            bytes += workspace.capacityBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Empties idle workspaces, largest first, until at least bytes are released or none is left.
+     */
+    private void freeIdleWorkspaces(long bytes) {
+        idleWorkspaces.sort(Comparator.comparingLong(ViterbiWorkspace::capacityBytes).reversed());
+        for (var workspace : idleWorkspaces) {
+            if (bytes <= 0) {
+                return;
+            }
+            var capacity = workspace.capacityBytes();
+            workspace.shrink();
+            reservedBytes -= capacity;
+            bytes -= capacity;
+        }
+    }
+
+    private <T> void start(Task<T> task, ViterbiWorkspace workspace, long reservation, List<Task<T>> tasks,
+                           List<T> results) {
+        var capacityBefore = workspace.capacityBytes();
+        reservedBytes += reservation;
+        peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+        runningCount++;
+        executor.execute(() -> {
+            T result = null;
+            var outOfMemory = false;
+            RuntimeException failure = null;
+            try {
+                result = task.job.run(workspace);
+            } catch (OutOfMemoryError e) {
+                workspace.shrink();
+                outOfMemory = true;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            lock.lock();
+            try {
+                runningCount--;
+                // replace the estimate by the real capacity of the workspace
+                reservedBytes += workspace.capacityBytes() - capacityBefore - reservation;
+                idleWorkspaces.add(workspace);
+                if (failure != null) {
+                    task.failure = failure;
+                    tasks.add(task);
+                } else if (outOfMemory && !task.exclusive) {
+                    task.exclusive = true;
+                    tasks.add(0, task);
+                } else if (!outOfMemory) {
+                    results.set(task.index, result);
+                    // stays reserved until the run returns
+                    reservedBytes += task.job.retainedBytes();
+                    retainedBytes += task.job.retainedBytes();
+                }
+                // a job out of memory even when running alone keeps the result null, the caller reports it
+                finished.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    private static class Task<T> {
+        private final int index;
+        private final Job<T> job;
+        // guarded by the lock of the scheduler
+        private boolean exclusive = false;
+        private RuntimeException failure;
+
+        Task(int index, Job<T> job) {
+            this.index = index;
+            this.job = job;
+        }
+
+        long bytes() {
+            return job.workspaceBytes() + job.transientBytes();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package training;
+
+import phmm.ProfileHMM;
+import viterbi.ProfileForward;
+import viterbi.ViterbiWorkspace;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static phmm.ProfileHMM.MAX_SUCCESSORS;
+
+/**
+ * Baum-Welch (expectation maximization) refinement of the parameters of a profile HMM from unaligned sequences.
+ *
+ * The E-step runs {@link ProfileForward#calcExpectedCounts} for every sequence. The sequences are split into about
+ * four ranges per thread which run as fork-join tasks, every range accumulates its expected counts in its own
+ * primitive arrays and the ranges are added up pairwise when the tasks join. The M-step is
+ * {@link ProfileHMM#reestimate(double[], double[])}, it adds the pseudocounts of the model.
+ *
+ * Training stops when the log likelihood of all sequences improves by at most tolerance * |log likelihood| or
+ * after maxIterations re-estimations. Because the forward sums are approximated, the log likelihood may drop by a
+ * tiny amount close to convergence, the better model is kept in that case.
+ *
+ * The order in which the counts are added only depends on the number of sequences and the parallelism, so the
+ * result is reproducible for the same parallelism.
+ */
+public class BaumWelch {
+    // ranges per thread, more ranges balance sequences of different length better
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final int maxIterations;
+    private final double tolerance;
+    private final int parallelism;
+
+    /**
+     * @param maxIterations maximum number of re-estimations
+     * @param tolerance     training stops when the log likelihood improves by at most this fraction
+     * @param parallelism   number of threads of the E-step
+     */
+    public BaumWelch(int maxIterations, double tolerance, int parallelism) {
+        if (maxIterations < 0 || tolerance < 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Iterations and tolerance must not be negative, parallelism must be "
+                    + "positive");
+        }
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param model     the model to start from, e.g. estimated from an alignment, it is not modified
+     * @param sequences unaligned observation sequences, elements of [0, |EmissionStates|). Empty sequences are
+     *                  ignored.
+     * @return the refined model, model itself if no re-estimation improved the log likelihood
+     */
+    public ProfileHMM train(ProfileHMM model, List<int[]> sequences) {
+        return refine(model, sequences).getModel();
+    }
+
+    /**
+     * Same as {@link #train(ProfileHMM, List)}, but also returns the log likelihoods the training computed anyway.
+     */
+    public Result refine(ProfileHMM model, List<int[]> sequences) {
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            // the checkpoint buffers are kept per thread over all iterations
+            var workspaces = ThreadLocal.withInitial(ViterbiWorkspace::new);
+            var counts = expectation(pool, workspaces, model, sequences, true);
+            var initialLogLikelihood = counts.logLikelihood;
+            var iterations = 0;
+            while (iterations < maxIterations) {
+                var refined = model.reestimate(counts.transitionCounts, counts.emissionCounts);
+                var refinedCounts = expectation(pool, workspaces, refined, sequences, true);
+                if (refinedCounts.logLikelihood < counts.logLikelihood) {
+                    break;
+                }
+                var improvement = refinedCounts.logLikelihood - counts.logLikelihood;
+                model = refined;
+                counts = refinedCounts;
+                iterations++;
+                if (improvement <= tolerance * Math.abs(counts.logLikelihood)) {
+                    break;
+                }
+            }
+            return new Result(model, initialLogLikelihood, counts.logLikelihood, iterations);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the summed forward log probabilities of the sequences, calculated with the parallelism of this instance
+     */
+    public double logLikelihood(ProfileHMM model, List<int[]> sequences) {
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            return expectation(pool, ThreadLocal.withInitial(ViterbiWorkspace::new), model, sequences, false)
+                    .logLikelihood;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private ExpectedCounts expectation(ForkJoinPool pool, ThreadLocal<ViterbiWorkspace> workspaces, ProfileHMM model,
+                                       List<int[]> sequences, boolean countsNeeded) {
+        var rangeSize = Math.max(1, (sequences.size() + TASKS_PER_THREAD * parallelism - 1)
+                / (TASKS_PER_THREAD * parallelism));
+        var task = new ExpectationTask(new ProfileForward(model), model, sequences, 0, sequences.size(), rangeSize,
+                workspaces, countsNeeded);
+        return pool.invoke(task);
+    }
+
+    /**
+     * The model of a training and the log likelihood of the sequences before and after it.
+     */
+    public static class Result {
+        private final ProfileHMM model;
+        private final double initialLogLikelihood;
+        private final double logLikelihood;
+        private final int iterations;
+
+        Result(ProfileHMM model, double initialLogLikelihood, double logLikelihood, int iterations) {
+            this.model = model;
+            this.initialLogLikelihood = initialLogLikelihood;
+            this.logLikelihood = logLikelihood;
+            this.iterations = iterations;
+        }
+
+        public ProfileHMM getModel() {
+            return model;
+        }
+
+        /**
+         * @return the log likelihood of the sequences under the model training started from
+         */
+        public double getInitialLogLikelihood() {
+            return initialLogLikelihood;
+        }
+
+        /**
+         * @return the log likelihood of the sequences under the refined model
+         */
+        public double getLogLikelihood() {
+            return logLikelihood;
+        }
+
+        /**
+         * @return the number of re-estimations that were kept
+         */
+        public int getIterations() {
+            return iterations;
+        }
+    }
+
+    /**
+     * Expected counts and log likelihood of a range of sequences.
+     */
+    private static class ExpectedCounts {
+        private final double[] transitionCounts;
+        private final double[] emissionCounts;
+        private double logLikelihood = 0;
+
+        ExpectedCounts(ProfileHMM model, boolean countsNeeded) {
+            var emittingStateCount = model.getLastInsert() + 1;
+            var observationStatesCount = model.getEmissionMatrix()[0].length;
+            this.transitionCounts = new double[countsNeeded ? model.getStateCount() * MAX_SUCCESSORS : 0];
+            this.emissionCounts = new double[countsNeeded ? emittingStateCount * observationStatesCount : 0];
+        }
+
+        void add(ExpectedCounts other) {
+            for (var i = 0; i < transitionCounts.length; i++) {
+                transitionCounts[i] += other.transitionCounts[i];
+            }
+            for (var i = 0; i < emissionCounts.length; i++) {
+                emissionCounts[i] += other.emissionCounts[i];
+            }
+            logLikelihood += other.logLikelihood;
+        }
+    }
+
+    private static class ExpectationTask extends RecursiveTask<ExpectedCounts> {
+        private static final long serialVersionUID = 1L;
+
+        private final ProfileForward profileForward;
+        private final ProfileHMM model;
+        private final List<int[]> sequences;
+        private final int start;
+        private final int end;
+        private final int rangeSize;
+        private final ThreadLocal<ViterbiWorkspace> workspaces;
+        private final boolean countsNeeded;
+
+        ExpectationTask(ProfileForward profileForward, ProfileHMM model, List<int[]> sequences, int start, int end,
+                        int rangeSize, ThreadLocal<ViterbiWorkspace> workspaces, boolean countsNeeded) {
+            this.profileForward = profileForward;
+            this.model = model;
+            this.sequences = sequences;
+            this.start = start;
+            this.end = end;
+            this.rangeSize = rangeSize;
+            this.workspaces = workspaces;
+            this.countsNeeded = countsNeeded;
+        }
+
+        @Override
+        protected ExpectedCounts compute() {
+            if (end - start <= rangeSize) {
+                return computeRange();
+            }
+            var middle = start + (end - start) / 2;
+            var left = new ExpectationTask(profileForward, model, sequences, start, middle, rangeSize, workspaces,
+                    countsNeeded);
+            var right = new ExpectationTask(profileForward, model, sequences, middle, end, rangeSize, workspaces,
+                    countsNeeded);
+            left.fork();
+            var rightCounts = right.compute();
+            var leftCounts = left.join();
+            leftCounts.add(rightCounts);
+            return leftCounts;
+        }
+
+        private ExpectedCounts computeRange() {
+            var counts = new ExpectedCounts(model, countsNeeded);
+            var workspace = workspaces.get();
+            for (var i = start; i < end; i++) {
+                var observations = sequences.get(i);
+                if (observations.length == 0) {
+                    continue;
+                }
+                var logProbability = countsNeeded
+                        ? profileForward.calcExpectedCounts(observations, counts.transitionCounts,
+                                counts.emissionCounts, workspace)
+                        : profileForward.calcScore(observations, workspace);
+                // a sequence the model can not produce has no counts and would make the likelihood -Infinity
+                if (logProbability != Double.NEGATIVE_INFINITY) {
+                    counts.logLikelihood += logProbability;
+                }
+            }
+            return counts;
+        }
+    }
+}
@@ -18,6 +18,19 @@ public class Util {
         return matrix;
     }
 
+    /**
+     * Transforms the provided array by an element wise natural logarithm in place.
+     *
+     * @param array array that should be transformed.
+     * @return the transformed array.
+     */
+    public static double[] toLog(double[] array) {
+        for (int i = 0; i < array.length; i++) {
+            array[i] = Math.log(array[i]);
+        }
+        return array;
+    }
+
     public static HashMap<Character, Integer> createObersavtionMap() {
         var observationMap = new HashMap<Character, Integer>();
         observationMap.put('A', 0);
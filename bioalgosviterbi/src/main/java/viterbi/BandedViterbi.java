@@ -0,0 +1,447 @@
+package viterbi;
+
+import phmm.ProfileHMM;
+
+import java.util.Arrays;
+
+import static phmm.ProfileHMM.MAX_PREDECESSORS;
+
+/**
+ * Viterbi algorithm for profile HMMs restricted to a band around the diagonal between sequence position and model
+ * node. Sequences which align almost collinearly to the model have their optimal path close to this diagonal, so
+ * only the cells of the nodes within bandWidth of it are calculated and backtracked, which takes
+ * O(|Observations| * bandWidth) time and memory instead of O(|Observations| * |States|).
+ *
+ * The diagonal runs from the begin state to the end state through anchors: k-mers of the sequence which occur
+ * exactly once in the consensus of the model (the most likely observation of every match state). Of all anchors
+ * the chain which is increasing in sequence position and node and collects the most anchors with the least shift
+ * of the diagonal is used, before the first and after the last anchor the diagonal advances one node per
+ * observation. Without anchors it is a straight line. The first and the last column always reach down to the begin
+ * and up to the end of the model, so that fragments of the modelled sequence can delete the nodes before and after
+ * them.
+ *
+ * If the path touches the edge of the band, a path outside of the band could be better, so the band is doubled and
+ * the sequence calculated again until the path stays inside or the band covers the whole model. A band covering the
+ * whole model gives the same log probability as {@link ProfileViterbi#calc(int[])}, the traceback looks up every
+ * state in the column in which it was calculated like {@link ProfileViterbi#calcBeam(int[], double)}.
+ *
+ * An instance only holds the immutable model tables and can be shared between threads.
+ */
+public class BandedViterbi {
+    /**
+     * Length of the k-mers used as anchors.
+     */
+    public static final int ANCHOR_LENGTH = 12;
+    private static final int BITS_PER_BASE = 2;
+    // a k-mer is stored in the upper, its first node in the lower 32 bits of an anchor
+    private static final int NODE_BITS = 32;
+    // anchors a chain loses for every node by which the diagonal shifts between two of its runs
+    private static final int SHIFT_COST = 1;
+    // number of preceding runs a run can be chained to, bounds the chaining to linear time
+    private static final int MAX_CHAIN_LOOKBACK = 64;
+    // the cells of a node within a column: match, insert and delete
+    private static final int MATCH = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+    private static final int KINDS = 3;
+
+    private final int matchCount;
+    // nodes 0 (begin state and first insert state) to matchCount
+    private final int nodeCount;
+    private final int endMatch;
+    private final int firstInsert;
+    private final int lastInsert;
+    private final int firstDelete;
+    private final int emittingStateCount;
+    private final int[] predecessors;
+    private final double[] predecessorTransitions;
+    private final double[] emissions;
+    // the consensus k-mers occurring exactly once, k-mer << NODE_BITS | first node, sorted
+    private final long[] anchors;
+
+    public BandedViterbi(ProfileHMM profileHMM) {
+        this.endMatch = profileHMM.getEndMatch();
+        this.matchCount = endMatch - 1;
+        this.nodeCount = matchCount + 1;
+        this.firstInsert = profileHMM.getFirstInsert();
+        this.lastInsert = profileHMM.getLastInsert();
+        this.firstDelete = profileHMM.getFirstDelete();
+        this.emittingStateCount = lastInsert + 1;
+        this.predecessors = profileHMM.getPredecessorTable();
+        this.predecessorTransitions = ProfileTables.predecessorTransitions(profileHMM);
+        this.emissions = ProfileTables.emissions(profileHMM);
+        this.anchors = consensusAnchors(profileHMM.getEmissionMatrix());
+    }
+
+    private long[] consensusAnchors(double[][] emissionMatrix) {
+        if (emissionMatrix[0].length > 1 << BITS_PER_BASE || matchCount < ANCHOR_LENGTH) {
+            return new long[0];
+        }
+        var kmerMask = (1L << BITS_PER_BASE * ANCHOR_LENGTH) - 1;
+        var kmers = new long[matchCount - ANCHOR_LENGTH + 1];
+        var kmer = 0L;
+        for (var node = 1; node <= matchCount; node++) {
+            var consensus = 0;
+            for (var observation = 1; observation < emissionMatrix[node].length; observation++) {
+                if (emissionMatrix[node][observation] > emissionMatrix[node][consensus]) {
+                    consensus = observation;
+                }
+            }
+            kmer = (kmer << BITS_PER_BASE | consensus) & kmerMask;
+            if (node >= ANCHOR_LENGTH) {
+                var firstNode = node - ANCHOR_LENGTH + 1;
+                kmers[firstNode - 1] = kmer << NODE_BITS | firstNode;
+            }
+        }
+        Arrays.sort(kmers);
+
+        // repeated k-mers do not tell where the sequence is
+        var unique = 0;
+        for (var i = 0; i < kmers.length; i++) {
+            var repeated = i > 0 && kmers[i - 1] >>> NODE_BITS == kmers[i] >>> NODE_BITS
+                    || i + 1 < kmers.length && kmers[i + 1] >>> NODE_BITS == kmers[i] >>> NODE_BITS;
+            if (!repeated) {
+                kmers[unique++] = kmers[i];
+            }
+        }
+        return Arrays.copyOf(kmers, unique);
+    }
+
+    /**
+     * Calculates the viterbi path and its log probability within a band around the diagonal, widening the band
+     * until the path does not touch its edge.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @param bandWidth    number of nodes on each side of the diagonal which are calculated at first, >= 0
+     * @return the viterbi path from begin to end state and its log probability, an empty path and -Infinity if the
+     * end state is not reachable
+     */
+    public ViterbiResult calc(int[] observations, int bandWidth) {
+        return calc(observations, bandWidth, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calc(int[], int)} with the buffers of workspace.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public ViterbiResult calc(int[] observations, int bandWidth, ViterbiWorkspace workspace) {
+        if (bandWidth < 0) {
+            throw new IllegalArgumentException("The band width must be >= 0, got " + bandWidth);
+        }
+        workspace.checkMemoryPressure();
+        var diagonal = diagonal(observations);
+        var width = bandWidth;
+        while (true) {
+            var result = calcBand(observations, diagonal, width, workspace);
+            if (result != null) {
+                return result;
+            }
+            width = Math.max(1, 2 * width);
+        }
+    }
+
+    /**
+     * @return the node of the diagonal in every column from 0 to |Observations|
+     */
+    private int[] diagonal(int[] observations) {
+        var observationCount = observations.length;
+        var diagonal = new int[observationCount + 1];
+        if (observationCount == 0) {
+            return diagonal;
+        }
+
+        // anchors as column of their first observation and node of their first match state
+        var anchorColumns = new int[observationCount];
+        var anchorNodes = new int[observationCount];
+        var anchorCount = 0;
+        if (anchors.length > 0) {
+            var kmerMask = (1L << BITS_PER_BASE * ANCHOR_LENGTH) - 1;
+            var kmer = 0L;
+            for (var i = 0; i < observationCount; i++) {
+                kmer = (kmer << BITS_PER_BASE | observations[i]) & kmerMask;
+                if (i < ANCHOR_LENGTH - 1) {
+                    continue;
+                }
+                // the first node is >= 1, so the search never hits an entry and returns -(insertion point) - 1
+                var insertionPoint = -Arrays.binarySearch(anchors, kmer << NODE_BITS) - 1;
+                if (insertionPoint < anchors.length && anchors[insertionPoint] >>> NODE_BITS == kmer) {
+                    anchorColumns[anchorCount] = i - ANCHOR_LENGTH + 2;
+                    anchorNodes[anchorCount] = (int) anchors[insertionPoint];
+                    anchorCount++;
+                }
+            }
+        }
+
+        // consecutive anchors on the same diagonal form a run
+        var runStarts = new int[anchorCount];
+        var runLengths = new int[anchorCount];
+        var runCount = 0;
+        for (var anchor = 0; anchor < anchorCount; anchor++) {
+            if (runCount > 0 && anchorColumns[anchor] == anchorColumns[anchor - 1] + 1
+                    && anchorNodes[anchor] == anchorNodes[anchor - 1] + 1) {
+                runLengths[runCount - 1]++;
+            } else {
+                runStarts[runCount] = anchor;
+                runLengths[runCount++] = 1;
+            }
+        }
+
+        // the runs are chained like the seeds of minimap2: a chain collects as many anchors as possible, but every
+        // node by which the diagonal shifts between two runs costs SHIFT_COST anchors, so single anchors off the
+        // diagonal of the others do not bend it
+        var chainScores = new int[runCount];
+        var chainPredecessors = new int[runCount];
+        var bestRun = -1;
+        for (var run = 0; run < runCount; run++) {
+            var firstColumn = anchorColumns[runStarts[run]];
+            var firstNode = anchorNodes[runStarts[run]];
+            chainScores[run] = runLengths[run];
+            chainPredecessors[run] = -1;
+            for (var previous = Math.max(0, run - MAX_CHAIN_LOOKBACK); previous < run; previous++) {
+                var lastAnchor = runStarts[previous] + runLengths[previous] - 1;
+                if (anchorColumns[lastAnchor] >= firstColumn || anchorNodes[lastAnchor] >= firstNode) {
+                    continue;
+                }
+                var shift = Math.abs(firstNode - firstColumn - anchorNodes[lastAnchor] + anchorColumns[lastAnchor]);
+                var score = chainScores[previous] + runLengths[run] - SHIFT_COST * shift;
+                if (score > chainScores[run]) {
+                    chainScores[run] = score;
+                    chainPredecessors[run] = previous;
+                }
+            }
+            if (bestRun < 0 || chainScores[run] > chainScores[bestRun]) {
+                bestRun = run;
+            }
+        }
+
+        if (bestRun < 0) {
+            interpolate(diagonal, 0, 0, observationCount, matchCount);
+            return diagonal;
+        }
+        // before the first and after the last anchor the sequence follows the model one node per observation, the
+        // remaining nodes are deleted at the beginning and at the end
+        var run = bestRun;
+        var lastAnchor = runStarts[run] + runLengths[run] - 1;
+        for (var column = anchorColumns[lastAnchor]; column <= observationCount; column++) {
+            diagonal[column] = Math.min(matchCount, anchorNodes[lastAnchor] + column - anchorColumns[lastAnchor]);
+        }
+        while (true) {
+            var firstAnchor = runStarts[run];
+            interpolate(diagonal, anchorColumns[firstAnchor], anchorNodes[firstAnchor], anchorColumns[lastAnchor],
+                    anchorNodes[lastAnchor]);
+            var previous = chainPredecessors[run];
+            if (previous < 0) {
+                for (var column = 0; column <= anchorColumns[firstAnchor]; column++) {
+                    diagonal[column] = Math.max(0, anchorNodes[firstAnchor] - anchorColumns[firstAnchor] + column);
+                }
+                break;
+            }
+            lastAnchor = runStarts[previous] + runLengths[previous] - 1;
+            interpolate(diagonal, anchorColumns[lastAnchor], anchorNodes[lastAnchor], anchorColumns[firstAnchor],
+                    anchorNodes[firstAnchor]);
+            run = previous;
+        }
+        return diagonal;
+    }
+
+    /**
+     * Sets the diagonal of the columns from firstColumn to lastColumn to the rounded nodes on the straight line
+     * between the two points.
+     */
+    private static void interpolate(int[] diagonal, int firstColumn, int firstNode, int lastColumn, int lastNode) {
+        var columns = lastColumn - firstColumn;
+        if (columns == 0) {
+            diagonal[firstColumn] = firstNode;
+            return;
+        }
+        for (var column = firstColumn; column <= lastColumn; column++) {
+            var offset = (lastNode - firstNode) * (long) (column - firstColumn);
+            diagonal[column] = (int) ((firstNode * (long) columns + offset + columns / 2) / columns);
+        }
+    }
+
+    /**
+     * @return the result or null if the path touches the edge of a band that does not cover the whole model
+     */
+    private ViterbiResult calcBand(int[] observations, int[] diagonal, int width, ViterbiWorkspace workspace) {
+        var observationCount = observations.length;
+        var wholeModel = width >= matchCount;
+
+        // first node, last node and first cell of every column
+        var bands = workspace.bands(KINDS * (observationCount + 1));
+        var cellCount = 0;
+        for (var column = 0; column <= observationCount; column++) {
+            // column 0 only holds the begin state, the first and the last column hold the deletes at the beginning
+            // and at the end of the model
+            var first = column <= 1 ? 0 : Math.max(0, diagonal[column] - width);
+            var last = column == 0 ? 0 : column == observationCount ? matchCount
+                    : Math.min(matchCount, diagonal[column] + width);
+            bands[KINDS * column] = first;
+            bands[KINDS * column + 1] = last;
+            bands[KINDS * column + 2] = cellCount;
+            cellCount += KINDS * (last - first + 1);
+        }
+        var traceback = workspace.traceback((cellCount + PackedTraceback.CELLS_PER_WORD - 1)
+                / PackedTraceback.CELLS_PER_WORD);
+
+        // viterbi variables of the nodes of the band at kind * nodeCount + node
+        var previous = workspace.previousColumn(KINDS * nodeCount);
+        var current = workspace.currentColumn(KINDS * nodeCount);
+        previous[MATCH * nodeCount] = 0;
+        previous[INSERT * nodeCount] = Double.NEGATIVE_INFINITY;
+        previous[DELETE * nodeCount] = Double.NEGATIVE_INFINITY;
+
+        for (var column = 1; column <= observationCount; column++) {
+            var previousFirst = bands[KINDS * (column - 1)];
+            var previousLast = bands[KINDS * (column - 1) + 1];
+            var first = bands[KINDS * column];
+            var last = bands[KINDS * column + 1];
+            var cell = bands[KINDS * column + 2];
+            var emissionOffset = observations[column - 1] * emittingStateCount;
+            // D(0) does not exist
+            current[DELETE * nodeCount] = Double.NEGATIVE_INFINITY;
+
+            for (var node = first; node <= last; node++, cell += KINDS) {
+                // M(node) follows node - 1 of the previous column, the begin state is only reachable in column 0
+                if (node == 0) {
+                    current[MATCH * nodeCount] = Double.NEGATIVE_INFINITY;
+                } else {
+                    current[MATCH * nodeCount + node] = best(node, emissions[emissionOffset + node],
+                            value(previous, MATCH, node - 1, previousFirst, previousLast),
+                            value(previous, INSERT, node - 1, previousFirst, previousLast),
+                            value(previous, DELETE, node - 1, previousFirst, previousLast), traceback, cell + MATCH);
+                }
+
+                // I(node) follows node of the previous column
+                var insert = firstInsert + node;
+                current[INSERT * nodeCount + node] = best(insert, emissions[emissionOffset + insert],
+                        value(previous, MATCH, node, previousFirst, previousLast),
+                        value(previous, INSERT, node, previousFirst, previousLast),
+                        value(previous, DELETE, node, previousFirst, previousLast), traceback, cell + INSERT);
+
+                // D(node) follows node - 1 of this column, which was calculated just before
+                if (node > 0) {
+                    current[DELETE * nodeCount + node] = best(firstDelete + node - 1, 0,
+                            value(current, MATCH, node - 1, first, last),
+                            value(current, INSERT, node - 1, first, last),
+                            value(current, DELETE, node - 1, first, last), traceback, cell + DELETE);
+                }
+            }
+
+            var swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        // termination from the last node of the last column
+        var first = bands[KINDS * observationCount];
+        var last = bands[KINDS * observationCount + 1];
+        var tableIdx = endMatch * MAX_PREDECESSORS;
+        var endSlot = 0;
+        var maxProbability = value(previous, MATCH, matchCount, first, last) + predecessorTransitions[tableIdx];
+        var score = value(previous, INSERT, matchCount, first, last) + predecessorTransitions[tableIdx + 1];
+        if (score >= maxProbability) {
+            maxProbability = score;
+            endSlot = 1;
+        }
+        if (predecessors[tableIdx + 2] >= 0) {
+            score = value(previous, DELETE, matchCount, first, last) + predecessorTransitions[tableIdx + 2];
+            if (score >= maxProbability) {
+                maxProbability = score;
+                endSlot = 2;
+            }
+        }
+        if (maxProbability == Double.NEGATIVE_INFINITY) {
+            return wholeModel ? new ViterbiResult(new int[0], Double.NEGATIVE_INFINITY) : null;
+        }
+
+        var path = new int[observationCount + 2 * nodeCount + 1];
+        var length = 0;
+        path[length++] = endMatch;
+        path[length++] = predecessors[tableIdx + endSlot];
+        var column = observationCount;
+        while (path[length - 1] != 0) {
+            var state = path[length - 1];
+            var kind = state <= endMatch ? MATCH : state <= lastInsert ? INSERT : DELETE;
+            var node = kind == MATCH ? state : kind == INSERT ? state - firstInsert : state - firstDelete + 1;
+            first = bands[KINDS * column];
+            last = bands[KINDS * column + 1];
+            if (!wholeModel && (node == first && first > 0 || node == last && last < matchCount)) {
+                return null;
+            }
+            var cell = bands[KINDS * column + 2] + KINDS * (node - first) + kind;
+            path[length++] = predecessors[state * MAX_PREDECESSORS + slot(traceback, cell)];
+            if (kind != DELETE) {
+                // the predecessors of match and insert states are in the previous column
+                column--;
+            }
+        }
+
+        var reversed = new int[length];
+        for (var i = 0; i < length; i++) {
+            reversed[i] = path[length - i - 1];
+        }
+        return new ViterbiResult(reversed, maxProbability);
+    }
+
+    private double value(double[] column, int kind, int node, int first, int last) {
+        return node < first || node > last ? Double.NEGATIVE_INFINITY : column[kind * nodeCount + node];
+    }
+
+    /**
+     * Calculates the viterbi variable of state from the ones of its three predecessors like
+     * {@link ProfileViterbi#calc(int[])} and stores the index of the best one in cell of traceback.
+     */
+    private double best(int state, double emission, double fromMatch, double fromInsert, double fromDelete,
+                        long[] traceback, int cell) {
+        var tableIdx = state * MAX_PREDECESSORS;
+        var slot = 0;
+        var max = emission + fromMatch + predecessorTransitions[tableIdx];
+        var score = emission + fromInsert + predecessorTransitions[tableIdx + 1];
+        if (score >= max) {
+            max = score;
+            slot = 1;
+        }
+        if (predecessors[tableIdx + 2] >= 0) {
+            score = emission + fromDelete + predecessorTransitions[tableIdx + 2];
+            if (score >= max) {
+                max = score;
+                slot = 2;
+            }
+        }
+        var word = cell / PackedTraceback.CELLS_PER_WORD;
+        var shift = (cell % PackedTraceback.CELLS_PER_WORD) * 2;
+        traceback[word] = (traceback[word] & ~(3L << shift)) | ((long) slot << shift);
+        return max;
+    }
+
+    private static int slot(long[] traceback, int cell) {
+        return (int) (traceback[cell / PackedTraceback.CELLS_PER_WORD]
+                >>> ((cell % PackedTraceback.CELLS_PER_WORD) * 2)) & 3;
+    }
+
+    /**
+     * Upper bound of the workspace buffers {@link #calc(int[], int, ViterbiWorkspace)} uses, reached if the band
+     * has to be widened to the whole model. The band of bandWidth nodes alone needs
+     * (2 * bandWidth + 1) / |Nodes| of the traceback.
+     *
+     * @return the number of bytes
+     */
+    public long workspaceBytes(int observationCount) {
+        var cellCount = (long) KINDS * nodeCount * observationCount + KINDS;
+        return 2L * Double.BYTES * KINDS * nodeCount + (long) Integer.BYTES * KINDS * (observationCount + 1)
+                + Long.BYTES * ((cellCount + PackedTraceback.CELLS_PER_WORD - 1) / PackedTraceback.CELLS_PER_WORD);
+    }
+
+    /**
+     * Upper bound of the memory {@link #calc(int[], int, ViterbiWorkspace)} allocates outside of the workspace: the
+     * diagonal, the anchors and the path.
+     *
+     * @return the number of bytes
+     */
+    public long transientBytes(int observationCount) {
+        var maxPathLength = (long) observationCount + 2 * nodeCount + 1;
+        return (long) Integer.BYTES * (5L * observationCount + 1 + 2 * maxPathLength);
+    }
+}
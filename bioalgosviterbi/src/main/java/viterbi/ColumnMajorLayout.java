@@ -0,0 +1,40 @@
+package viterbi;
+
+/**
+ * All states of a column are stored next to each other in the order of their indices, a column sweep reads the
+ * array sequentially.
+ */
+public final class ColumnMajorLayout implements ViterbiLayout {
+    private final int stateCount;
+    private final int columnCount;
+
+    public ColumnMajorLayout(int stateCount, int columnCount) {
+        this.stateCount = stateCount;
+        this.columnCount = columnCount;
+    }
+
+    @Override
+    public int size() {
+        return stateCount * columnCount;
+    }
+
+    @Override
+    public int columnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public int stateCount() {
+        return stateCount;
+    }
+
+    @Override
+    public int columnOffset(int column) {
+        return column * stateCount;
+    }
+
+    @Override
+    public int stateOffset(int state) {
+        return state;
+    }
+}
@@ -0,0 +1,56 @@
+package viterbi;
+
+import phmm.ProfileHMM;
+
+/**
+ * Column major layout for profile HMMs in which the match, insert and delete state of a node form one block of three
+ * consecutive elements: M(k) is stored at 3k, I(k) at 3k + 1 and D(k) at 3k + 2 within the column. All predecessors
+ * of a state lie in its own or the preceding block, so the recurrence reads a column sequentially instead of jumping
+ * between the match, insert and delete region of the state indices. The unused slots D(0), I(m+1) and D(m+1) stay
+ * empty.
+ */
+public final class InterleavedProfileLayout implements ViterbiLayout {
+    private static final int STATES_PER_NODE = 3;
+
+    private final int stateCount;
+    private final int columnCount;
+    private final int columnStride;
+    // stateOffsets[state] is the offset of state within a column
+    private final int[] stateOffsets;
+
+    public InterleavedProfileLayout(ProfileHMM profileHMM, int columnCount) {
+        this.stateCount = profileHMM.getStateCount();
+        this.columnCount = columnCount;
+        this.columnStride = STATES_PER_NODE * (profileHMM.getEndMatch() + 1);
+        this.stateOffsets = new int[stateCount];
+        for (var state = 0; state < stateCount; state++) {
+            var node = profileHMM.stateToColum(state);
+            stateOffsets[state] = STATES_PER_NODE * node + profileHMM.successorSlot(state);
+        }
+    }
+
+    @Override
+    public int size() {
+        return columnStride * columnCount;
+    }
+
+    @Override
+    public int columnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public int stateCount() {
+        return stateCount;
+    }
+
+    @Override
+    public int columnOffset(int column) {
+        return column * columnStride;
+    }
+
+    @Override
+    public int stateOffset(int state) {
+        return stateOffsets[state];
+    }
+}
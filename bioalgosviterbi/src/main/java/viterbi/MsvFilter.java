@@ -0,0 +1,114 @@
+package viterbi;
+
+import phmm.NullModel;
+import phmm.ProfileHMM;
+
+import java.util.Arrays;
+
+/**
+ * Ungapped multi segment viterbi (MSV) filter as in HMMER. It only uses the match state emissions of the profile
+ * HMM, as log odds against a null model, and finds the best combination of ungapped local alignments (diagonals)
+ * of the sequence to the match states, joined by unaligned stretches. Inserts and deletes are not modelled, so one
+ * cell costs an addition and two maxima instead of the three states with three predecessors each of
+ * {@link ProfileViterbi}.
+ *
+ * The score is a cheap estimate of how well a sequence fits the model: sequences far below any useful score can
+ * be dropped before the full viterbi calculation, while related sequences have at least one good diagonal and
+ * pass.
+ *
+ * The transitions follow the multihit local configuration of HMMER: a diagonal starts at any match state with
+ * probability 2 / (m (m + 1)) and ends anywhere, after a diagonal the sequence ends or another diagonal follows
+ * with probability 1/2 each, and the unaligned residues before, between and after the diagonals cost
+ * log(L / (L + 3)) each.
+ *
+ * An instance only holds the immutable score table and can be shared between threads.
+ */
+public class MsvFilter {
+    private static final double LOG_2 = Math.log(2);
+    // probability to continue with another diagonal or to end after a diagonal
+    private static final double LOG_HALF = Math.log(0.5);
+
+    private final int matchCount;
+    // scores[observation * matchCount + k - 1] is the log odds of match state k to emit observation
+    private final double[] scores;
+    // log probability to start a diagonal at one specific match state
+    private final double entry;
+    private final NullModel nullModel;
+
+    /**
+     * @param nullModel background the match emissions are compared to, also subtracted from the score
+     */
+    public MsvFilter(ProfileHMM profileHMM, NullModel nullModel) {
+        this.matchCount = profileHMM.getEndMatch() - 1;
+        this.nullModel = nullModel;
+        var emissionMatrix = profileHMM.getEmissionMatrix();
+        var observationStatesCount = emissionMatrix[0].length;
+        this.scores = new double[observationStatesCount * matchCount];
+        for (var observation = 0; observation < observationStatesCount; observation++) {
+            for (var k = 1; k <= matchCount; k++) {
+                scores[observation * matchCount + k - 1] = emissionMatrix[k][observation]
+                        - nullModel.logFrequency(observation);
+            }
+        }
+        this.entry = Math.log(2. / (matchCount * (matchCount + 1.)));
+    }
+
+    /**
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @return the MSV score in bits against the null model, -Infinity for the empty sequence or a model without
+     * match states
+     */
+    public double calcScore(int[] observations) {
+        return calcScore(observations, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calcScore(int[])}, but the diagonals are kept in the buffers of workspace.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public double calcScore(int[] observations, ViterbiWorkspace workspace) {
+        workspace.checkMemoryPressure();
+        if (matchCount == 0) {
+            // no diagonal to align to
+            return Double.NEGATIVE_INFINITY;
+        }
+        var length = observations.length;
+        var loop = Math.log(length / (length + 3.));
+        var move = Math.log(3. / (length + 3.));
+        var previous = workspace.previousColumn(matchCount);
+        var current = workspace.currentColumn(matchCount);
+        Arrays.fill(previous, 0, matchCount, Double.NEGATIVE_INFINITY);
+
+        // unaligned residues before (n), between (j) and after (c) the diagonals
+        var n = 0.;
+        var j = Double.NEGATIVE_INFINITY;
+        var c = Double.NEGATIVE_INFINITY;
+        for (var observation : observations) {
+            var begin = Math.max(n, j) + move + entry;
+            var offset = observation * matchCount;
+            current[0] = begin + scores[offset];
+            var best = current[0];
+            // a diagonal either continues from the previous match state or starts here
+            for (var k = 1; k < matchCount; k++) {
+                current[k] = Math.max(previous[k - 1], begin) + scores[offset + k];
+                best = Math.max(best, current[k]);
+            }
+            j = Math.max(j + loop, best + LOG_HALF);
+            c = Math.max(c + loop, best + LOG_HALF);
+            n += loop;
+
+            var swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return (c + move - nullModel.lengthLogProbability(length)) / LOG_2;
+    }
+
+    /**
+     * @return the number of bytes of the workspace buffers {@link #calcScore(int[], ViterbiWorkspace)} uses
+     */
+    public long workspaceBytes() {
+        return 2L * Double.BYTES * matchCount;
+    }
+}
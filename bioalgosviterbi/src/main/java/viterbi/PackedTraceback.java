@@ -0,0 +1,69 @@
+package viterbi;
+
+/**
+ * Backtracking information of a profile HMM viterbi matrix packed into 2 bits per cell.
+ * Every state of a profile HMM has at most three predecessors, so instead of the predecessor state only its index
+ * within the predecessor list (see {@link phmm.ProfileHMM#getPredecessorTable()}) is stored.
+ *
+ * The cells are stored column major, 32 cells per long. Every column starts at a new word, so a column can be written
+ * word by word without touching its neighbours.
+ */
+final class PackedTraceback {
+    static final int CELLS_PER_WORD = 32;
+
+    private final int wordsPerColumn;
+    private final long[] words;
+
+    PackedTraceback(int stateCount, int columnCount) {
+        this(stateCount, columnCount, new long[size(stateCount, columnCount)]);
+    }
+
+    /**
+     * @param words buffer of at least size(stateCount, columnCount) words, its content is irrelevant because every
+     *              cell is written before it is read
+     */
+    PackedTraceback(int stateCount, int columnCount, long[] words) {
+        if (words.length < size(stateCount, columnCount)) {
+            throw new IllegalArgumentException("Buffer too small for " + columnCount + " columns");
+        }
+        this.wordsPerColumn = wordsPerColumn(stateCount);
+        this.words = words;
+    }
+
+    static int wordsPerColumn(int stateCount) {
+        return (stateCount + CELLS_PER_WORD - 1) / CELLS_PER_WORD;
+    }
+
+    /**
+     * @return the number of words needed for columnCount columns
+     */
+    static int size(int stateCount, int columnCount) {
+        return wordsPerColumn(stateCount) * columnCount;
+    }
+
+    /**
+     * @return the backing array, cell (column, state) is stored in word wordOffset(column) + state / 32 at bit
+     * 2 * (state % 32)
+     */
+    long[] words() {
+        return words;
+    }
+
+    int wordOffset(int column) {
+        return column * wordsPerColumn;
+    }
+
+    void set(int column, int state, int slot) {
+        var word = wordOffset(column) + state / CELLS_PER_WORD;
+        var shift = (state % CELLS_PER_WORD) * 2;
+        words[word] = (words[word] & ~(3L << shift)) | ((long) slot << shift);
+    }
+
+    /**
+     * @return the index of the best predecessor of state in column within the predecessor list of state
+     */
+    int slot(int column, int state) {
+        var word = words[wordOffset(column) + state / CELLS_PER_WORD];
+        return (int) (word >>> ((state % CELLS_PER_WORD) * 2)) & 3;
+    }
+}
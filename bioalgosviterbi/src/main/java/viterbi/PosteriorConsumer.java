@@ -0,0 +1,23 @@
+package viterbi;
+
+import java.io.IOException;
+
+/**
+ * Receives the posterior decoding of a sequence one residue at a time, see
+ * {@link ProfileForward#calcPosteriors(int[], PosteriorConsumer)}.
+ */
+@FunctionalInterface
+public interface PosteriorConsumer {
+    /**
+     * @param position   index of the residue in the sequence, called in ascending order
+     * @param state      the match or insert state which most likely emitted the residue, -1 if the sequence is
+     *                   impossible under the model
+     * @param confidence posterior probability of state
+     * @param match      posterior probability that any match state emitted the residue
+     * @param insert     posterior probability that any insert state emitted the residue
+     * @param delete     expected number of delete states between this residue and the next one
+     * @throws IOException if the posteriors can not be written
+     */
+    void accept(int position, int state, double confidence, double match, double insert, double delete)
+            throws IOException;
+}
@@ -0,0 +1,58 @@
+package viterbi;
+
+import phmm.ProfileHMM;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Writes posterior decodings as tab separated text while they are calculated, nothing but the current line is kept
+ * in memory. Every sequence starts with a line >id, followed by one line per residue
+ * <pre>
+ * position  residue  state  confidence  match  insert  delete
+ * </pre>
+ * with the 1-based position, the decoded state (M1, I4, ...), its posterior probability, the posterior probabilities
+ * of any match and any insert state and the expected number of deletes after the residue. The sequence ends with a
+ * line // followed by its forward log probability.
+ */
+public class PosteriorWriter implements PosteriorConsumer {
+    private final Writer writer;
+    private final ProfileHMM profileHMM;
+    private char[] residues;
+
+    /**
+     * @param writer     destination of the text, should be buffered
+     * @param profileHMM the model the posteriors are calculated with
+     */
+    public PosteriorWriter(Writer writer, ProfileHMM profileHMM) {
+        this.writer = writer;
+        this.profileHMM = profileHMM;
+    }
+
+    /**
+     * Starts a new sequence, its residues follow through {@link #accept}.
+     */
+    public void beginSequence(String id, char[] residues) throws IOException {
+        this.residues = residues;
+        writer.write(">" + id + "\n");
+    }
+
+    @Override
+    public void accept(int position, int state, double confidence, double match, double insert, double delete)
+            throws IOException {
+        writer.write(String.format(Locale.ROOT, "%d\t%c\t%s\t%.4f\t%.4f\t%.4f\t%.4f\n", position + 1,
+                residues[position], stateName(state), confidence, match, insert, delete));
+    }
+
+    public void endSequence(double logProbability) throws IOException {
+        writer.write("//\t" + logProbability + "\n");
+    }
+
+    private String stateName(int state) {
+        if (state < 0) {
+            return "-";
+        }
+        return (profileHMM.stateIsMatch(state) ? "M" : "I") + profileHMM.stateToColum(state);
+    }
+}
@@ -0,0 +1,29 @@
+package viterbi;
+
+/**
+ * Number format of the viterbi variables when only the score is calculated (see
+ * {@link ProfileViterbi#calcScore(int[], Precision)}). Lower precisions shrink the two columns of the recurrence and
+ * fit more states into one SIMD register, the reported log probabilities stay comparable within the tolerances
+ * below. L is the number of observations and m the number of match states, a viterbi path consists of L emissions
+ * and at most L + m + 1 transitions.
+ */
+public enum Precision {
+    /**
+     * Exact, the same score as {@link ProfileViterbi#calcScore(int[])}.
+     */
+    DOUBLE,
+    /**
+     * Single precision floats. Converting a log probability and adding it to a path score each have a relative error
+     * of at most 2^-24, so the score differs from the double score by less than (2 * L + m + 1) * 2^-23 * |score|.
+     * In practice the rounding errors largely cancel out and the difference is orders of magnitude smaller.
+     */
+    FLOAT,
+    /**
+     * 16 bit integers in units of 1/100 bit (see {@link phmm.ProfileHMM#QUANTIZATION_SCALE}). Every column is stored
+     * relative to its maximum, states more than 32767 units (about 227 in natural log) below it saturate. Each of
+     * the transitions and emissions on the path is rounded by at most 0.5 units, so the score differs from the
+     * double score by less than (2 * L + m + 1) * 0.0035. The recurrence detects when a saturated state
+     * could have influenced the result and then repeats the calculation in double precision.
+     */
+    SHORT
+}
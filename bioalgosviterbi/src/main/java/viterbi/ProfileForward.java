@@ -0,0 +1,439 @@
+package viterbi;
+
+import phmm.ProfileHMM;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static phmm.ProfileHMM.MAX_PREDECESSORS;
+import static phmm.ProfileHMM.MAX_SUCCESSORS;
+
+/**
+ * Forward algorithm for profile HMMs, calculates the log probability of a sequence summed over all paths through
+ * the model instead of only the best one. It runs over the same flat tables and workspace columns as the score only
+ * variant of {@link ProfileViterbi}, so it costs about as much as one more viterbi pass.
+ *
+ * The sum of two log probabilities is approximated with a table of log(1 + exp(-d)) instead of calling Math.log
+ * and Math.exp per cell. Every such sum deviates by at most {@link #MAX_LOG_SUM_ERROR} from the exact value and a
+ * cell sums up at most three predecessors. The error of the score therefore stays below
+ * 2 * (L + m + 1) * MAX_LOG_SUM_ERROR for L observations and m match states, the number of cells on the longest
+ * path through the model.
+ *
+ * {@link #calcPosteriors(int[], PosteriorConsumer)} combines the forward with the backward variables to the
+ * posterior probability of every state to emit a residue.
+ *
+ * An instance only holds the immutable model tables and can be shared between threads.
+ */
+public class ProfileForward {
+    /**
+     * Number of entries of the log sum table per unit of difference (in natural log).
+     */
+    static final int LOG_SUM_SCALE = 1000;
+    /**
+     * Differences of at least this size do not change the larger value by more than log(1 + exp(-16)) ~ 1.1e-7.
+     */
+    static final int LOG_SUM_RANGE = 16;
+    /**
+     * Maximum deviation of {@link #logSum(double, double)} from log(exp(a) + exp(b)). The table entries are taken at
+     * the centers of their intervals and the slope of log(1 + exp(-d)) is at most 1/2.
+     */
+    public static final double MAX_LOG_SUM_ERROR = 0.25 / LOG_SUM_SCALE;
+    // LOG_SUM_TABLE[i] = log(1 + exp(-d)) for d in [i / LOG_SUM_SCALE, (i + 1) / LOG_SUM_SCALE)
+    private static final double[] LOG_SUM_TABLE = new double[LOG_SUM_RANGE * LOG_SUM_SCALE];
+    // posteriors below exp(-40) ~ 4e-18 are treated as 0
+    private static final double MIN_LOG_POSTERIOR = -40;
+
+    static {
+        for (var i = 0; i < LOG_SUM_TABLE.length; i++) {
+            LOG_SUM_TABLE[i] = Math.log1p(Math.exp(-(i + 0.5) / LOG_SUM_SCALE));
+        }
+    }
+
+    private final int stateCount;
+    private final int beginMatch;
+    private final int endMatch;
+    private final int lastInsert;
+    private final int firstDelete;
+    private final int emittingStateCount;
+
+    // see ProfileTables
+    private final int[] predecessors;
+    private final double[] predecessorTransitions;
+    private final double[] emissions;
+    // successors[state * MAX_SUCCESSORS + i] is the i-th successor of state or -1 and successorTransitions the log
+    // transition probability to it, see ProfileHMM.getSuccessorTable()
+    private final int[] successors;
+    private final double[] successorTransitions;
+
+    public ProfileForward(ProfileHMM profileHMM) {
+        this.stateCount = profileHMM.getStateCount();
+        this.beginMatch = profileHMM.getBeginMatch();
+        this.endMatch = profileHMM.getEndMatch();
+        this.lastInsert = profileHMM.getLastInsert();
+        this.firstDelete = profileHMM.getFirstDelete();
+        this.emittingStateCount = lastInsert + 1;
+        this.predecessors = profileHMM.getPredecessorTable();
+        this.predecessorTransitions = ProfileTables.predecessorTransitions(profileHMM);
+        this.emissions = ProfileTables.emissions(profileHMM);
+        this.successors = profileHMM.getSuccessorTable();
+        this.successorTransitions = profileHMM.getTransitions();
+    }
+
+    /**
+     * Approximates log(exp(a) + exp(b)) within {@link #MAX_LOG_SUM_ERROR}.
+     */
+    static double logSum(double a, double b) {
+        var max = Math.max(a, b);
+        // NaN if both are -Infinity and Infinity if one is, both fall through to max
+        var difference = Math.abs(a - b);
+        return difference < LOG_SUM_RANGE ? max + LOG_SUM_TABLE[(int) (difference * LOG_SUM_SCALE)] : max;
+    }
+
+    /**
+     * Calculates the log probability of the observations summed over all paths from the begin to the end state.
+     * Two columns are kept, so the memory requirement is O(|States|) independent of the sequence length.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @return the forward log probability, at least the log probability of the viterbi path
+     */
+    public double calcScore(int[] observations) {
+        return calcScore(observations, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calcScore(int[])}, but the columns are kept in the buffers of workspace.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public double calcScore(int[] observations, ViterbiWorkspace workspace) {
+        workspace.checkMemoryPressure();
+        var previous = workspace.previousColumn(stateCount);
+        var current = workspace.currentColumn(stateCount);
+        Arrays.fill(previous, 0, stateCount, Double.NEGATIVE_INFINITY);
+        previous[beginMatch] = 0;
+
+        for (var observation : observations) {
+            calcColumn(observation, previous, current);
+            var swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return sumPredecessors(endMatch, previous);
+    }
+
+    /**
+     * Size of the workspace buffers {@link #calcScore(int[], ViterbiWorkspace)} uses, independent of the sequence.
+     *
+     * @return the number of bytes
+     */
+    public long workspaceBytes() {
+        return 2L * Double.BYTES * stateCount;
+    }
+
+    /**
+     * Posterior decoding: calculates for every residue the probability of each match and insert state to have
+     * emitted it, given the whole sequence, and passes the result to consumer residue by residue in ascending order.
+     *
+     * The backward variables are calculated first and only every sqrt(L)-th column is kept, the columns between
+     * are recalculated segment by segment while the forward variables are swept from the first to the last residue.
+     * The memory requirement is O(|States| * sqrt(L)) and the posteriors of a residue are never stored.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @param consumer     receives the posteriors of every residue
+     * @return the forward log probability of the observations
+     * @throws IOException if the consumer throws it
+     */
+    public double calcPosteriors(int[] observations, PosteriorConsumer consumer) throws IOException {
+        return calcPosteriors(observations, consumer, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calcPosteriors(int[], PosteriorConsumer)}, but all columns are kept in the buffers of
+     * workspace.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public double calcPosteriors(int[] observations, PosteriorConsumer consumer, ViterbiWorkspace workspace)
+            throws IOException {
+        return sweep(observations, workspace, (column, previous, forward, backward, backwardOffset, logProbability) ->
+                acceptPosteriors(column, forward, backward, backwardOffset, logProbability, consumer));
+    }
+
+    /**
+     * E-step of Baum-Welch: adds the expected number of times each transition and emission is used by the paths
+     * of the observations, weighted by their posterior probability, to the counts. Works column by column like
+     * {@link #calcPosteriors(int[], PosteriorConsumer, ViterbiWorkspace)} and needs the same memory.
+     *
+     * @param transitionCounts expected transitions from state to its i-th successor are added at
+     *                         state * MAX_SUCCESSORS + i, see {@link ProfileHMM#reestimate(double[], double[])}
+     * @param emissionCounts   expected emissions of observation by state are added at
+     *                         state * |EmissionStates| + observation
+     * @param workspace        buffers to use, must not be used by another thread at the same time
+     * @return the forward log probability of the observations, the counts are not changed if it is -Infinity
+     */
+    public double calcExpectedCounts(int[] observations, double[] transitionCounts, double[] emissionCounts,
+                                     ViterbiWorkspace workspace) {
+        return sweep(observations, workspace, (column, previous, forward, backward, backwardOffset, logProbability) -> {
+            if (logProbability != Double.NEGATIVE_INFINITY) {
+                countColumn(observations, column, previous, forward, backward, backwardOffset, logProbability,
+                        transitionCounts, emissionCounts);
+            }
+        });
+    }
+
+    /**
+     * Receives the forward and backward variables of one column, see {@link #sweep}.
+     *
+     * @param <E> exception the visitor may throw
+     */
+    @FunctionalInterface
+    private interface ColumnVisitor<E extends Exception> {
+        /**
+         * @param column         index of the column, in ascending order from 1 to the number of observations
+         * @param previous       the forward variables of column - 1
+         * @param forward        the forward variables of column
+         * @param backward       holds the backward variables of column at backwardOffset
+         * @param logProbability the log probability of the observations
+         */
+        void visit(int column, double[] previous, double[] forward, double[] backward, int backwardOffset,
+                   double logProbability) throws E;
+    }
+
+    /**
+     * Forward-Backward with checkpoints: the backward variables are calculated first and only every sqrt(L)-th
+     * column is kept, the columns between are recalculated segment by segment while the forward variables are
+     * swept from the first to the last residue.
+     *
+     * @return the log probability of the observations
+     */
+    private <E extends Exception> double sweep(int[] observations, ViterbiWorkspace workspace,
+                                               ColumnVisitor<E> visitor) throws E {
+        workspace.checkMemoryPressure();
+        var observationCount = observations.length;
+        var segmentLength = posteriorSegmentLength(observationCount);
+        // checkpoint i holds the backward variables of column (i + 1) * segmentLength
+        var checkpoints = workspace.checkpoints(observationCount / segmentLength * stateCount);
+        var next = workspace.previousColumn(stateCount);
+        var current = workspace.currentColumn(stateCount);
+
+        for (var column = observationCount; column >= 0; column--) {
+            calcBackwardColumn(observations, column, next, current);
+            if (column % segmentLength == 0 && column > 0) {
+                System.arraycopy(current, 0, checkpoints, (column / segmentLength - 1) * stateCount, stateCount);
+            }
+            var swap = next;
+            next = current;
+            current = swap;
+        }
+        // the begin state in column 0 sums up all paths
+        var logProbability = next[beginMatch];
+
+        // column (column - segmentStart) holds the backward variables of column, one more for the end of the segment
+        var backward = workspace.segmentColumns((segmentLength + 1) * stateCount);
+        var previous = workspace.previousColumn(stateCount);
+        current = workspace.currentColumn(stateCount);
+        Arrays.fill(previous, 0, stateCount, Double.NEGATIVE_INFINITY);
+        previous[beginMatch] = 0;
+
+        for (var segmentStart = 0; segmentStart <= observationCount; segmentStart += segmentLength) {
+            var segmentEnd = Math.min(segmentStart + segmentLength, observationCount + 1);
+            if (segmentEnd <= observationCount) {
+                System.arraycopy(checkpoints, (segmentEnd / segmentLength - 1) * stateCount, backward,
+                        segmentLength * stateCount, stateCount);
+            }
+            for (var column = segmentEnd - 1; column >= segmentStart; column--) {
+                // the last column of the sequence does not read the following one
+                var nextOffset = Math.min(column + 1 - segmentStart, segmentLength) * stateCount;
+                calcBackwardColumn(observations, column, backward, nextOffset, backward,
+                        (column - segmentStart) * stateCount);
+            }
+            for (var column = Math.max(segmentStart, 1); column < segmentEnd; column++) {
+                calcColumn(observations[column - 1], previous, current);
+                var swap = previous;
+                previous = current;
+                current = swap;
+                visitor.visit(column, current, previous, backward, (column - segmentStart) * stateCount,
+                        logProbability);
+            }
+        }
+        return logProbability;
+    }
+
+    /**
+     * Size of the workspace buffers {@link #calcPosteriors(int[], PosteriorConsumer, ViterbiWorkspace)} uses.
+     *
+     * @return the number of bytes
+     */
+    public long posteriorWorkspaceBytes(int observationCount) {
+        var segmentLength = posteriorSegmentLength(observationCount);
+        var columns = 2L + observationCount / segmentLength + segmentLength + 1;
+        return Double.BYTES * columns * stateCount;
+    }
+
+    private static int posteriorSegmentLength(int observationCount) {
+        return Math.max(1, (int) Math.ceil(Math.sqrt(observationCount + 1)));
+    }
+
+    private void calcBackwardColumn(int[] observations, int column, double[] next, double[] current) {
+        calcBackwardColumn(observations, column, next, 0, current, 0);
+    }
+
+    /**
+     * Calculates the backward variables of one column, the log probability to emit the remaining observations and
+     * reach the end state from every state. Delete states lead to states of the same column, so they are swept
+     * from the last to the first and before the match and insert states.
+     *
+     * @param column index of the column, the observations of the following columns are still to be emitted
+     * @param next   holds the backward variables of column + 1 at nextOffset, not read for the last column
+     */
+    private void calcBackwardColumn(int[] observations, int column, double[] next, int nextOffset, double[] current,
+                                    int currentOffset) {
+        var last = column == observations.length;
+        var emissionOffset = last ? 0 : observations[column] * emittingStateCount;
+        for (var state = stateCount - 1; state >= firstDelete; state--) {
+            current[currentOffset + state] = sumSuccessors(state, last, emissionOffset, next, nextOffset, current,
+                    currentOffset);
+        }
+        for (var state = lastInsert; state >= beginMatch; state--) {
+            current[currentOffset + state] = sumSuccessors(state, last, emissionOffset, next, nextOffset, current,
+                    currentOffset);
+        }
+    }
+
+    /**
+     * @return the log of the summed probabilities to emit the remaining observations from the successors of state
+     */
+    private double sumSuccessors(int state, boolean last, int emissionOffset, double[] next, int nextOffset,
+                                 double[] current, int currentOffset) {
+        var sum = Double.NEGATIVE_INFINITY;
+        for (var i = 0; i < MAX_SUCCESSORS; i++) {
+            var tableIdx = state * MAX_SUCCESSORS + i;
+            var successor = successors[tableIdx];
+            // the forward recurrence only enters the begin state in column 0, where it computes no delete states
+            if (successor < 0 || state == beginMatch && successor >= firstDelete) {
+                continue;
+            }
+            double score;
+            if (successor == endMatch) {
+                score = last ? successorTransitions[tableIdx] : Double.NEGATIVE_INFINITY;
+            } else if (successor <= lastInsert) {
+                score = last ? Double.NEGATIVE_INFINITY : successorTransitions[tableIdx]
+                        + emissions[emissionOffset + successor] + next[nextOffset + successor];
+            } else {
+                score = successorTransitions[tableIdx] + current[currentOffset + successor];
+            }
+            sum = logSum(sum, score);
+        }
+        return sum;
+    }
+
+    private void acceptPosteriors(int column, double[] forward, double[] backward, int backwardOffset,
+                                  double logProbability, PosteriorConsumer consumer) throws IOException {
+        var bestState = -1;
+        var confidence = 0.;
+        var match = 0.;
+        var insert = 0.;
+        var delete = 0.;
+        for (var state = beginMatch + 1; state < stateCount; state++) {
+            var logPosterior = forward[state] + backward[backwardOffset + state] - logProbability;
+            // Math.exp is by far the most expensive operation here, skip the states far off the alignment
+            if (!(logPosterior > MIN_LOG_POSTERIOR)) {
+                continue;
+            }
+            var posterior = Math.exp(logPosterior);
+            if (state <= endMatch) {
+                match += posterior;
+            } else if (state <= lastInsert) {
+                insert += posterior;
+            } else {
+                delete += posterior;
+            }
+            if (state <= lastInsert && posterior > confidence) {
+                bestState = state;
+                confidence = posterior;
+            }
+        }
+        consumer.accept(column - 1, bestState, confidence, match, insert, delete);
+    }
+
+    /**
+     * Adds the posterior probabilities of the transitions into the states of column and of the emissions of its
+     * observation to the counts.
+     */
+    private void countColumn(int[] observations, int column, double[] previous, double[] forward, double[] backward,
+                             int backwardOffset, double logProbability, double[] transitionCounts,
+                             double[] emissionCounts) {
+        var observation = observations[column - 1];
+        var emissionOffset = observation * emittingStateCount;
+        var observationStatesCount = emissions.length / emittingStateCount;
+        for (var state = beginMatch + 1; state < stateCount; state++) {
+            // the end state is only entered after the last column
+            if (state == endMatch) {
+                continue;
+            }
+            var emitting = state <= lastInsert;
+            var logPosterior = backward[backwardOffset + state] - logProbability;
+            if (!(forward[state] + logPosterior > MIN_LOG_POSTERIOR)) {
+                continue;
+            }
+            if (emitting) {
+                emissionCounts[state * observationStatesCount + observation] +=
+                        Math.exp(forward[state] + logPosterior);
+                logPosterior += emissions[emissionOffset + state];
+            }
+            // emitting states are entered from the previous column, silent ones from the same column
+            countTransitions(state, emitting ? previous : forward, logPosterior, transitionCounts);
+        }
+        if (column == observations.length) {
+            countTransitions(endMatch, forward, -logProbability, transitionCounts);
+        }
+    }
+
+    /**
+     * Adds exp(column[predecessor] + transition + logPosterior) for every predecessor of state to the count of its
+     * transition to state.
+     */
+    private void countTransitions(int state, double[] column, double logPosterior, double[] transitionCounts) {
+        var slot = state <= endMatch ? 0 : state <= lastInsert ? 1 : 2;
+        for (var i = 0; i < MAX_PREDECESSORS; i++) {
+            var tableIdx = state * MAX_PREDECESSORS + i;
+            var predecessor = predecessors[tableIdx];
+            if (predecessor < 0) {
+                continue;
+            }
+            var logCount = column[predecessor] + predecessorTransitions[tableIdx] + logPosterior;
+            if (logCount > MIN_LOG_POSTERIOR) {
+                transitionCounts[predecessor * MAX_SUCCESSORS + slot] += Math.exp(logCount);
+            }
+        }
+    }
+
+    private void calcColumn(int observation, double[] previous, double[] current) {
+        // the begin state is only reachable in column 0
+        current[beginMatch] = Double.NEGATIVE_INFINITY;
+        var emissionOffset = observation * emittingStateCount;
+
+        // match and insert states consume an observation, their predecessors are in the previous column
+        for (var state = 1; state <= lastInsert; state++) {
+            current[state] = emissions[emissionOffset + state] + sumPredecessors(state, previous);
+        }
+        // delete states are silent, their predecessors are in the current column
+        for (var state = firstDelete; state < stateCount; state++) {
+            current[state] = sumPredecessors(state, current);
+        }
+    }
+
+    /**
+     * @return the log of the summed probabilities to reach state from its predecessors in column
+     */
+    private double sumPredecessors(int state, double[] column) {
+        var tableIdx = state * MAX_PREDECESSORS;
+        var sum = logSum(column[predecessors[tableIdx]] + predecessorTransitions[tableIdx],
+                column[predecessors[tableIdx + 1]] + predecessorTransitions[tableIdx + 1]);
+        var predecessor = predecessors[tableIdx + 2];
+        if (predecessor >= 0) {
+            sum = logSum(sum, column[predecessor] + predecessorTransitions[tableIdx + 2]);
+        }
+        return sum;
+    }
+}
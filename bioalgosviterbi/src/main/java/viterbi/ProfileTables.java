@@ -0,0 +1,54 @@
+package viterbi;
+
+import phmm.ProfileHMM;
+
+import java.util.Arrays;
+
+import static phmm.ProfileHMM.MAX_PREDECESSORS;
+import static phmm.ProfileHMM.MAX_SUCCESSORS;
+
+/**
+ * Flat primitive tables of a profile HMM in the form the column recurrences of {@link ProfileViterbi} and
+ * {@link ProfileForward} read them.
+ */
+final class ProfileTables {
+    private ProfileTables() {
+    }
+
+    /**
+     * @return the log transition probability from the i-th predecessor of state (see
+     * {@link ProfileHMM#getPredecessorTable()}) to state at state * MAX_PREDECESSORS + i, -Infinity for missing
+     * predecessors
+     */
+    static double[] predecessorTransitions(ProfileHMM profileHMM) {
+        var logTransitions = profileHMM.getTransitions();
+        var predecessors = profileHMM.getPredecessorTable();
+        var predecessorTransitions = new double[predecessors.length];
+        Arrays.fill(predecessorTransitions, Double.NEGATIVE_INFINITY);
+        for (var i = 0; i < predecessors.length; i++) {
+            if (predecessors[i] >= 0) {
+                var state = i / MAX_PREDECESSORS;
+                predecessorTransitions[i] = logTransitions[predecessors[i] * MAX_SUCCESSORS + profileHMM.successorSlot(state)];
+            }
+        }
+        return predecessorTransitions;
+    }
+
+    /**
+     * @return the log emission probability of observation in state at observation * (lastInsert + 1) + state for
+     * all match and insert states, stored observation major because the recurrence sweeps all states for one
+     * observation
+     */
+    static double[] emissions(ProfileHMM profileHMM) {
+        var logEmissionMatrix = profileHMM.getEmissionMatrix();
+        var emittingStateCount = profileHMM.getLastInsert() + 1;
+        var observationStatesCount = logEmissionMatrix[0].length;
+        var emissions = new double[observationStatesCount * emittingStateCount];
+        for (var state = 0; state < emittingStateCount; state++) {
+            for (var observation = 0; observation < observationStatesCount; observation++) {
+                emissions[observation * emittingStateCount + state] = logEmissionMatrix[state][observation];
+            }
+        }
+        return emissions;
+    }
+}
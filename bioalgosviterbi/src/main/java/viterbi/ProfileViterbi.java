@@ -0,0 +1,1373 @@
+package viterbi;
+
+import phmm.ProfileHMM;
+
+import java.util.Arrays;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static phmm.ProfileHMM.MAX_PREDECESSORS;
+import static phmm.ProfileHMM.MAX_SUCCESSORS;
+import static phmm.ProfileHMM.QUANTIZATION_SCALE;
+import static phmm.ProfileHMM.QUANTIZED_NEGATIVE_INFINITY;
+
+/**
+ * Viterbi algorithm for profile HMMs which exploits their fixed match/insert/delete topology.
+ * Every state has at most three predecessors, so the model is flattened once into primitive tables and the
+ * recurrence runs over flat arrays without allocating anything per cell.
+ * The results are identical to the ones of {@link Viterbi#calc(int[], ProfileHMM)} for every {@link ViterbiKernel}.
+ *
+ * An instance only holds the immutable model tables and can be shared between threads.
+ */
+public class ProfileViterbi {
+    // log(0) in the quantized tables and columns widened to int, low enough that the sum of three of them still is
+    // below any finite score and high enough that it does not overflow
+    private static final int WIDE_NEGATIVE_INFINITY = -(1 << 29);
+    // sums at or below this contain log(0)
+    private static final int NEGATIVE_INFINITY_LIMIT = WIDE_NEGATIVE_INFINITY / 2;
+    // value of quantized states which are more than 32767 units below the maximum of the previous column
+    private static final short SATURATED = QUANTIZED_NEGATIVE_INFINITY + 1;
+    /**
+     * Height and width of the tiles of {@link #calcWavefront(int[], ForkJoinPool)}. A tile of 256 x 256 cells is large
+     * enough to hide the cost of a task and small enough to keep its part of the column in the L1 cache.
+     */
+    public static final int WAVEFRONT_TILE_NODES = 256;
+    public static final int WAVEFRONT_TILE_COLUMNS = 256;
+
+    private final int stateCount;
+    private final int beginMatch;
+    private final int endMatch;
+    private final int lastInsert;
+    private final int firstDelete;
+    private final int firstInsert;
+    private final int emittingStateCount;
+    private final ViterbiKernel kernel;
+
+    // predecessors[state * MAX_PREDECESSORS + i] is the i-th predecessor of state or -1
+    private final int[] predecessors;
+    // successors[state * MAX_SUCCESSORS + i] is the successor of state of kind i (match, insert, delete) or -1
+    private final int[] successors;
+    // predecessorTransitions[state * MAX_PREDECESSORS + i] is the log transition probability from the i-th
+    // predecessor of state to state
+    private final double[] predecessorTransitions;
+    // the same transitions split by the kind of the predecessor, indexed by state, for the vectorized kernel
+    private final double[] fromMatchTransitions;
+    private final double[] fromInsertTransitions;
+    private final double[] fromDeleteTransitions;
+    // emissions[observation * emittingStateCount + state] is the log emission probability
+    private final double[] emissions;
+    // the tables of the vectorized kernel in single precision for Precision.FLOAT
+    private final float[] floatFromMatchTransitions;
+    private final float[] floatFromInsertTransitions;
+    private final float[] floatFromDeleteTransitions;
+    private final float[] floatEmissions;
+    // and quantized for Precision.SHORT, widened to int with log(0) mapped to WIDE_NEGATIVE_INFINITY
+    private final int[] quantizedFromMatchTransitions;
+    private final int[] quantizedFromInsertTransitions;
+    private final int[] quantizedFromDeleteTransitions;
+    private final int[] quantizedEmissions;
+
+    public ProfileViterbi(ProfileHMM profileHMM) {
+        this(profileHMM, ViterbiKernel.select());
+    }
+
+    public ProfileViterbi(ProfileHMM profileHMM, ViterbiKernel kernel) {
+        this.stateCount = profileHMM.getStateCount();
+        this.beginMatch = profileHMM.getBeginMatch();
+        this.endMatch = profileHMM.getEndMatch();
+        this.firstInsert = profileHMM.getFirstInsert();
+        this.lastInsert = profileHMM.getLastInsert();
+        this.firstDelete = profileHMM.getFirstDelete();
+        this.emittingStateCount = lastInsert + 1;
+        this.predecessors = profileHMM.getPredecessorTable();
+        this.successors = profileHMM.getSuccessorTable();
+        this.kernel = kernel;
+
+        this.predecessorTransitions = ProfileTables.predecessorTransitions(profileHMM);
+        this.fromMatchTransitions = new double[stateCount];
+        this.fromInsertTransitions = new double[stateCount];
+        this.fromDeleteTransitions = new double[stateCount];
+        for (var state = 0; state < stateCount; state++) {
+            fromMatchTransitions[state] = predecessorTransitions[state * MAX_PREDECESSORS];
+            fromInsertTransitions[state] = predecessorTransitions[state * MAX_PREDECESSORS + 1];
+            fromDeleteTransitions[state] = predecessorTransitions[state * MAX_PREDECESSORS + 2];
+        }
+
+        this.emissions = ProfileTables.emissions(profileHMM);
+
+        var floatTransitions = profileHMM.getFloatTransitions();
+        var floatEmissionMatrix = profileHMM.getFloatEmissionMatrix();
+        var quantizedTransitions = profileHMM.getQuantizedTransitions();
+        var quantizedEmissionMatrix = profileHMM.getQuantizedEmissionMatrix();
+        this.floatFromMatchTransitions = new float[stateCount];
+        this.floatFromInsertTransitions = new float[stateCount];
+        this.floatFromDeleteTransitions = new float[stateCount];
+        this.quantizedFromMatchTransitions = new int[stateCount];
+        this.quantizedFromInsertTransitions = new int[stateCount];
+        this.quantizedFromDeleteTransitions = new int[stateCount];
+        for (var state = 0; state < stateCount; state++) {
+            var slot = profileHMM.successorSlot(state);
+            var tableIdx = state * MAX_PREDECESSORS;
+            var floatFrom = new float[MAX_PREDECESSORS];
+            var quantizedFrom = new int[MAX_PREDECESSORS];
+            for (var i = 0; i < MAX_PREDECESSORS; i++) {
+                var predecessor = predecessors[tableIdx + i];
+                floatFrom[i] = predecessor < 0 ? Float.NEGATIVE_INFINITY
+                        : floatTransitions[predecessor * MAX_SUCCESSORS + slot];
+                quantizedFrom[i] = predecessor < 0 ? WIDE_NEGATIVE_INFINITY
+                        : widen(quantizedTransitions[predecessor * MAX_SUCCESSORS + slot]);
+            }
+            floatFromMatchTransitions[state] = floatFrom[0];
+            floatFromInsertTransitions[state] = floatFrom[1];
+            floatFromDeleteTransitions[state] = floatFrom[2];
+            quantizedFromMatchTransitions[state] = quantizedFrom[0];
+            quantizedFromInsertTransitions[state] = quantizedFrom[1];
+            quantizedFromDeleteTransitions[state] = quantizedFrom[2];
+        }
+        var observationStatesCount = emissions.length / emittingStateCount;
+        this.floatEmissions = new float[emissions.length];
+        this.quantizedEmissions = new int[emissions.length];
+        for (var state = 0; state < emittingStateCount; state++) {
+            for (var observation = 0; observation < observationStatesCount; observation++) {
+                floatEmissions[observation * emittingStateCount + state] = floatEmissionMatrix[state][observation];
+                quantizedEmissions[observation * emittingStateCount + state] =
+                        widen(quantizedEmissionMatrix[state][observation]);
+            }
+        }
+    }
+
+    /**
+     * Calculates the viterbi path and its log probability with the given algorithm variant.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @param mode         the variant to use, all variants return the same result apart from
+     *                     {@link ViterbiMode#SCORE_ONLY} which returns an empty path
+     * @return the viterbi path from begin to end state and its log probability
+     */
+    public ViterbiResult calc(int[] observations, ViterbiMode mode) {
+        return calc(observations, mode, Precision.DOUBLE);
+    }
+
+    /**
+     * Calculates the viterbi path and its log probability with the given algorithm variant.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @param mode         the variant to use, all variants return the same result apart from
+     *                     {@link ViterbiMode#SCORE_ONLY} which returns an empty path
+     * @param precision    number format used by {@link ViterbiMode#SCORE_ONLY}, the other variants always calculate
+     *                     in double precision
+     * @return the viterbi path from begin to end state and its log probability
+     */
+    public ViterbiResult calc(int[] observations, ViterbiMode mode, Precision precision) {
+        return calc(observations, mode, precision, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calc(int[], ViterbiMode, Precision)}, but the viterbi variables and the backtracking
+     * information are kept in the buffers of workspace instead of newly allocated ones.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public ViterbiResult calc(int[] observations, ViterbiMode mode, Precision precision, ViterbiWorkspace workspace) {
+        workspace.checkMemoryPressure();
+        switch (mode) {
+            case CHECKPOINTED:
+                return calcCheckpointed(observations, workspace);
+            case SCORE_ONLY:
+                var score = calcScore(observations, precision, workspace);
+                return new ViterbiResult(new int[0], score);
+            case FULL:
+            default:
+                return calc(observations, workspace);
+        }
+    }
+
+    /**
+     * Calculates the viterbi path and its log probability for a sequence of observations.
+     * The backtracking information of all |States| x |Observations| cells is kept in memory, packed into 2 bits
+     * per cell.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @return the viterbi path from begin to end state and its log probability
+     */
+    public ViterbiResult calc(int[] observations) {
+        return calc(observations, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calc(int[])} with the buffers of workspace.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public ViterbiResult calc(int[] observations, ViterbiWorkspace workspace) {
+        workspace.checkMemoryPressure();
+        var observationCount = observations.length;
+        // column 0 is the begin column and column L+1 holds the end state
+        var columnCount = observationCount + 2;
+        var backtrack = new PackedTraceback(stateCount, columnCount,
+                workspace.traceback(PackedTraceback.size(stateCount, columnCount)));
+        var previous = initialColumn(workspace.previousColumn(stateCount));
+        var current = workspace.currentColumn(stateCount);
+        var slots = workspace.slots(stateCount);
+
+        for (var column = 1; column <= observationCount; column++) {
+            calcColumn(observations[column - 1], previous, current, backtrack.words(), backtrack.wordOffset(column),
+                    slots);
+            var swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        // termination, previous now holds the last observation column
+        var endSlot = terminationSlot(previous);
+        var maxProbability = terminationScore(previous, endSlot);
+        backtrack.set(observationCount + 1, endMatch, endSlot);
+
+        var path = reconstructOptimalPath(observationCount, backtrack);
+        return new ViterbiResult(path, maxProbability);
+    }
+
+    /**
+     * Calculates the same result as {@link #calc(int[])} but only keeps every sqrt(L)-th column of the forward pass
+     * as checkpoint. The traceback recomputes one segment between two checkpoints at a time, so the memory
+     * requirement drops from O(|States| * L) to O(|States| * sqrt(L)) at the cost of a second forward pass.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @return the viterbi path from begin to end state and its log probability
+     */
+    public ViterbiResult calcCheckpointed(int[] observations) {
+        return calcCheckpointed(observations, new ViterbiWorkspace());
+    }
+
+    private ViterbiResult calcCheckpointed(int[] observations, ViterbiWorkspace workspace) {
+        var observationCount = observations.length;
+        var segmentLength = Math.max(1, (int) Math.ceil(Math.sqrt(observationCount)));
+        // checkpoint i holds column i * segmentLength
+        var checkpoints = workspace.checkpoints((observationCount / segmentLength + 1) * stateCount);
+        var previous = initialColumn(workspace.previousColumn(stateCount));
+        var current = workspace.currentColumn(stateCount);
+        System.arraycopy(previous, 0, checkpoints, 0, stateCount);
+
+        for (var column = 1; column <= observationCount; column++) {
+            calcColumn(observations[column - 1], previous, current, null, 0, null);
+            var swap = previous;
+            previous = current;
+            current = swap;
+            if (column % segmentLength == 0) {
+                System.arraycopy(previous, 0, checkpoints, column / segmentLength * stateCount, stateCount);
+            }
+        }
+
+        var endSlot = terminationSlot(previous);
+        var maxProbability = terminationScore(previous, endSlot);
+
+        var path = new ReversePath(observationCount + 2);
+        path.add(endMatch);
+        path.add(predecessors[endMatch * MAX_PREDECESSORS + endSlot]);
+
+        var observation = observationCount;
+        // column (column - segmentStart - 1) holds column of the current segment
+        var segmentBacktrack = new PackedTraceback(stateCount, segmentLength,
+                workspace.traceback(PackedTraceback.size(stateCount, segmentLength)));
+        var slots = workspace.slots(stateCount);
+
+        while (observation > 0) {
+            var segmentStart = (observation - 1) / segmentLength * segmentLength;
+            System.arraycopy(checkpoints, segmentStart / segmentLength * stateCount, previous, 0, stateCount);
+            for (var column = segmentStart + 1; column <= observation; column++) {
+                calcColumn(observations[column - 1], previous, current, segmentBacktrack.words(),
+                        segmentBacktrack.wordOffset(column - segmentStart - 1), slots);
+                var swap = previous;
+                previous = current;
+                current = swap;
+            }
+
+            while (observation > segmentStart) {
+                var prevState = predecessor(segmentBacktrack, observation - segmentStart - 1, path.last());
+                path.add(prevState);
+                if (prevState <= lastInsert) {
+                    observation--;
+                }
+            }
+        }
+
+        return new ViterbiResult(path.toArray(), maxProbability);
+    }
+
+    /**
+     * Approximates {@link #calc(int[])} for screening: after every column only the states whose viterbi variable is
+     * at most beam below the best state of the column stay active, all others are treated as unreachable. The next
+     * column only calculates the successors of the active states, so the work per column follows the number of
+     * active states instead of |States|. If a pruned state lies on the optimal path the result is a worse path with
+     * a lower log probability, with an infinite beam the log probability is identical to the one of
+     * {@link #calc(int[])}.
+     *
+     * The traceback only visits cells which were calculated: a delete state entered from a match or insert state
+     * is looked up in the column of that state. The path therefore equals the one of {@link #calc(int[])} if it
+     * contains no delete states, otherwise an unpruned run with an infinite beam is the reference.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @param beam         distance in log probability to the best state of a column up to which states are kept,
+     *                     >= 0
+     * @return the best path from begin to end state through states which were never pruned and its log
+     * probability, an empty path and -Infinity if no active state reaches the end state
+     */
+    public ViterbiResult calcBeam(int[] observations, double beam) {
+        return calcBeam(observations, beam, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calcBeam(int[], double)} with the buffers of workspace.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public ViterbiResult calcBeam(int[] observations, double beam, ViterbiWorkspace workspace) {
+        if (!(beam >= 0)) {
+            throw new IllegalArgumentException("The beam must be >= 0, got " + beam);
+        }
+        workspace.checkMemoryPressure();
+        var observationCount = observations.length;
+        var columnCount = observationCount + 1;
+        // cells of inactive states are not written, the traceback never reads them
+        var backtrack = new PackedTraceback(stateCount, columnCount,
+                workspace.traceback(PackedTraceback.size(stateCount, columnCount)));
+        // inactive states are -Infinity in both columns
+        var previous = initialColumn(workspace.previousColumn(stateCount));
+        var current = workspace.currentColumn(stateCount);
+        Arrays.fill(current, 0, stateCount, Double.NEGATIVE_INFINITY);
+
+        // the active states of the previous and of the current column, the delete states to calculate in the
+        // current column and for every state the last column in which it was calculated
+        var lists = workspace.activeStates(4 * stateCount);
+        var previousActive = 0;
+        var currentActive = stateCount;
+        var deleteCandidates = 2 * stateCount;
+        var calculatedIn = 3 * stateCount;
+        Arrays.fill(lists, calculatedIn, calculatedIn + stateCount, -1);
+        lists[previousActive] = beginMatch;
+        var previousCount = 1;
+        var currentCount = 0;
+
+        for (var column = 1; column <= observationCount; column++) {
+            // current still holds the active states of two columns ago
+            for (var i = 0; i < currentCount; i++) {
+                current[lists[currentActive + i]] = Double.NEGATIVE_INFINITY;
+            }
+            currentCount = 0;
+
+            // match and insert successors of the active states, the end state is only entered at termination
+            var emissionOffset = observations[column - 1] * emittingStateCount;
+            var max = Double.NEGATIVE_INFINITY;
+            for (var i = 0; i < previousCount; i++) {
+                var active = lists[previousActive + i];
+                for (var kind = 0; kind < 2; kind++) {
+                    var state = successors[active * MAX_SUCCESSORS + kind];
+                    if (state < 0 || state == endMatch || lists[calculatedIn + state] == column) {
+                        continue;
+                    }
+                    lists[calculatedIn + state] = column;
+                    var score = bestPredecessor(state, previous, emissions[emissionOffset + state], backtrack,
+                            column);
+                    current[state] = score;
+                    lists[currentActive + currentCount++] = state;
+                    max = Math.max(max, score);
+                }
+            }
+
+            // silent states never score higher than their predecessors, so the maximum of the column is known
+            var threshold = max - beam;
+            var kept = 0;
+            var deleteCount = 0;
+            for (var i = 0; i < currentCount; i++) {
+                var state = lists[currentActive + i];
+                if (current[state] > Double.NEGATIVE_INFINITY && current[state] >= threshold) {
+                    lists[currentActive + kept++] = state;
+                    var delete = successors[state * MAX_SUCCESSORS + 2];
+                    if (delete >= 0 && lists[calculatedIn + delete] != column) {
+                        lists[calculatedIn + delete] = column;
+                        lists[deleteCandidates + deleteCount++] = delete;
+                    }
+                } else {
+                    current[state] = Double.NEGATIVE_INFINITY;
+                }
+            }
+            currentCount = kept;
+
+            // delete states in ascending order, D(k) may follow D(k-1) of the same column
+            Arrays.sort(lists, deleteCandidates, deleteCandidates + deleteCount);
+            var next = 0;
+            var chained = -1;
+            while (next < deleteCount || chained >= 0) {
+                int state;
+                if (chained >= 0 && (next == deleteCount || chained <= lists[deleteCandidates + next])) {
+                    state = chained;
+                    if (next < deleteCount && lists[deleteCandidates + next] == chained) {
+                        next++;
+                    }
+                } else {
+                    state = lists[deleteCandidates + next++];
+                }
+                chained = -1;
+                var score = bestPredecessor(state, current, 0, backtrack, column);
+                if (score > Double.NEGATIVE_INFINITY && score >= threshold) {
+                    current[state] = score;
+                    lists[currentActive + currentCount++] = state;
+                    chained = successors[state * MAX_SUCCESSORS + 2];
+                }
+            }
+
+            var swap = previous;
+            previous = current;
+            current = swap;
+            var swapOffset = previousActive;
+            previousActive = currentActive;
+            currentActive = swapOffset;
+            var swapCount = previousCount;
+            previousCount = currentCount;
+            currentCount = swapCount;
+        }
+
+        var endSlot = terminationSlot(previous);
+        var maxProbability = terminationScore(previous, endSlot);
+        if (maxProbability == Double.NEGATIVE_INFINITY) {
+            return new ViterbiResult(new int[0], Double.NEGATIVE_INFINITY);
+        }
+
+        var path = new ReversePath(observationCount + 2);
+        path.add(endMatch);
+        path.add(predecessors[endMatch * MAX_PREDECESSORS + endSlot]);
+        var column = observationCount;
+        while (path.last() != beginMatch) {
+            var state = path.last();
+            path.add(predecessors[state * MAX_PREDECESSORS + backtrack.slot(column, state)]);
+            if (state <= lastInsert) {
+                // the predecessors of match and insert states are in the previous column
+                column--;
+            }
+        }
+        return new ViterbiResult(path.toArray(), maxProbability);
+    }
+
+    /**
+     * Calculates the viterbi variable of one state like {@link #calcColumnScalar} and stores its best predecessor.
+     *
+     * @param column          the column holding the predecessors, the previous one for match and insert states and
+     *                        the current one for delete states
+     * @param emission        log emission probability of the observation of the column, 0 for delete states
+     * @param backtrackColumn the column of state in backtrack
+     */
+    private double bestPredecessor(int state, double[] column, double emission, PackedTraceback backtrack,
+                                   int backtrackColumn) {
+        var tableIdx = state * MAX_PREDECESSORS;
+        var slot = 0;
+        var max = emission + column[predecessors[tableIdx]] + predecessorTransitions[tableIdx];
+        var score = emission + column[predecessors[tableIdx + 1]] + predecessorTransitions[tableIdx + 1];
+        if (score >= max) {
+            max = score;
+            slot = 1;
+        }
+        var predecessor = predecessors[tableIdx + 2];
+        if (predecessor >= 0) {
+            score = emission + column[predecessor] + predecessorTransitions[tableIdx + 2];
+            if (score >= max) {
+                max = score;
+                slot = 2;
+            }
+        }
+        backtrack.set(backtrackColumn, state, slot);
+        return max;
+    }
+
+    /**
+     * Calculates the same result as {@link #calc(int[])}, but splits the matrix into tiles of
+     * {@link #WAVEFRONT_TILE_NODES} nodes x {@link #WAVEFRONT_TILE_COLUMNS} columns which are calculated in parallel
+     * on pool. A cell only depends on the cells of the node before it and of the column before it, so a tile can
+     * start as soon as the tile above it and the tile left of it are done, and all tiles of an anti-diagonal run at
+     * the same time. Pays off for single long sequences, many sequences are better calculated one per thread.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @param pool         the threads to calculate the tiles with
+     * @return the viterbi path from begin to end state and its log probability
+     */
+    public ViterbiResult calcWavefront(int[] observations, ForkJoinPool pool) {
+        return calcWavefront(observations, pool, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calcWavefront(int[], ForkJoinPool)} with the buffers of workspace.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public ViterbiResult calcWavefront(int[] observations, ForkJoinPool pool, ViterbiWorkspace workspace) {
+        return calcWavefront(observations, pool, workspace, WAVEFRONT_TILE_NODES, WAVEFRONT_TILE_COLUMNS);
+    }
+
+    ViterbiResult calcWavefront(int[] observations, ForkJoinPool pool, ViterbiWorkspace workspace, int tileNodes,
+                                int tileColumns) {
+        if (tileNodes <= 0 || tileColumns <= 0) {
+            throw new IllegalArgumentException("Tiles must not be empty");
+        }
+        workspace.checkMemoryPressure();
+        var observationCount = observations.length;
+        var columnCount = observationCount + 2;
+        var backtrack = new PackedTraceback(stateCount, columnCount,
+                workspace.traceback(PackedTraceback.size(stateCount, columnCount)));
+        // every node block keeps its own part of the column up to date
+        var column = initialColumn(workspace.previousColumn(stateCount));
+
+        if (observationCount > 0) {
+            var nodeBlocks = (endMatch + tileNodes - 1) / tileNodes;
+            var columnBlocks = (observationCount + tileColumns - 1) / tileColumns;
+            var edges = workspace.wavefrontEdges(wavefrontEdgesLength(observationCount, tileNodes));
+            var wavefront = new Wavefront(observations, column, backtrack, edges, tileNodes, tileColumns, nodeBlocks,
+                    columnBlocks);
+            pool.invoke(new WavefrontRoot(wavefront));
+        }
+
+        var endSlot = terminationSlot(column);
+        var maxProbability = terminationScore(column, endSlot);
+        backtrack.set(observationCount + 1, endMatch, endSlot);
+
+        var path = reconstructOptimalPath(observationCount, backtrack);
+        return new ViterbiResult(path, maxProbability);
+    }
+
+    /**
+     * @return the number of doubles of the match, insert and delete variables of the last node of every node block
+     * but the last one, for the columns 0 to L
+     */
+    private int wavefrontEdgesLength(int observationCount, int tileNodes) {
+        var nodeBlocks = (endMatch + tileNodes - 1) / tileNodes;
+        return 3 * (nodeBlocks - 1) * (observationCount + 1);
+    }
+
+    /**
+     * The state of one wavefront calculation shared by its tiles. Tiles of the same node block or of the same column
+     * block never run at the same time, so a tile owns its nodes of the column and its columns of the traceback
+     * (every column starts at a new word) and only the edges are shared between running tiles.
+     */
+    private final class Wavefront {
+        private final int[] observations;
+        // the viterbi variables of the last column calculated by every node block
+        private final double[] column;
+        private final PackedTraceback backtrack;
+        // edges[((block * 3 + kind) * (L + 1)) + column] is the match, insert or delete variable of the last node
+        // of block in column
+        private final double[] edges;
+        private final int tileNodes;
+        private final int tileColumns;
+        private final int nodeBlocks;
+        private final int columnBlocks;
+        // the number of unfinished tiles above and left of every tile
+        private final AtomicIntegerArray pendingTiles;
+
+        Wavefront(int[] observations, double[] column, PackedTraceback backtrack, double[] edges, int tileNodes,
+                  int tileColumns, int nodeBlocks, int columnBlocks) {
+            this.observations = observations;
+            this.column = column;
+            this.backtrack = backtrack;
+            this.edges = edges;
+            this.tileNodes = tileNodes;
+            this.tileColumns = tileColumns;
+            this.nodeBlocks = nodeBlocks;
+            this.columnBlocks = columnBlocks;
+            this.pendingTiles = new AtomicIntegerArray(nodeBlocks * columnBlocks);
+            for (var nodeBlock = 0; nodeBlock < nodeBlocks; nodeBlock++) {
+                for (var columnBlock = 0; columnBlock < columnBlocks; columnBlock++) {
+                    pendingTiles.set(nodeBlock * columnBlocks + columnBlock,
+                            (nodeBlock > 0 ? 1 : 0) + (columnBlock > 0 ? 1 : 0));
+                }
+            }
+            for (var nodeBlock = 0; nodeBlock < nodeBlocks - 1; nodeBlock++) {
+                var node = (nodeBlock + 1) * tileNodes - 1;
+                edges[edgeIndex(nodeBlock, 0, 0)] = column[node];
+                edges[edgeIndex(nodeBlock, 1, 0)] = column[firstInsert + node];
+                edges[edgeIndex(nodeBlock, 2, 0)] = node > 0 ? column[firstDelete + node - 1]
+                        : Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        int tileCount() {
+            return nodeBlocks * columnBlocks;
+        }
+
+        private int edgeIndex(int nodeBlock, int kind, int column) {
+            return (nodeBlock * 3 + kind) * (observations.length + 1) + column;
+        }
+
+        /**
+         * Marks one of the two tiles a tile waits for as finished.
+         *
+         * @return true if the tile can start now
+         */
+        boolean release(int nodeBlock, int columnBlock) {
+            return nodeBlock < nodeBlocks && columnBlock < columnBlocks
+                    && pendingTiles.decrementAndGet(nodeBlock * columnBlocks + columnBlock) == 0;
+        }
+
+        /**
+         * Calculates the nodes of nodeBlock in the columns of columnBlock with the recurrence of
+         * {@link #calcColumnScalar}, summing the candidates in the same order so that the results are bit identical.
+         * The nodes are updated in place, the variables of node k-1 in the previous column are saved before they
+         * are overwritten.
+         */
+        void calcTile(int nodeBlock, int columnBlock) {
+            var firstNode = nodeBlock * tileNodes;
+            var lastNode = Math.min(firstNode + tileNodes, endMatch) - 1;
+            var firstColumn = columnBlock * tileColumns + 1;
+            var lastColumn = Math.min(firstColumn + tileColumns - 1, observations.length);
+            for (var col = firstColumn; col <= lastColumn; col++) {
+                var emissionOffset = observations[col - 1] * emittingStateCount;
+                // node firstNode - 1 in the previous and in this column
+                var diagonalMatch = Double.NEGATIVE_INFINITY;
+                var diagonalInsert = Double.NEGATIVE_INFINITY;
+                var diagonalDelete = Double.NEGATIVE_INFINITY;
+                var leftMatch = Double.NEGATIVE_INFINITY;
+                var leftInsert = Double.NEGATIVE_INFINITY;
+                var leftDelete = Double.NEGATIVE_INFINITY;
+                if (nodeBlock > 0) {
+                    diagonalMatch = edges[edgeIndex(nodeBlock - 1, 0, col - 1)];
+                    diagonalInsert = edges[edgeIndex(nodeBlock - 1, 1, col - 1)];
+                    diagonalDelete = edges[edgeIndex(nodeBlock - 1, 2, col - 1)];
+                    leftMatch = edges[edgeIndex(nodeBlock - 1, 0, col)];
+                    leftInsert = edges[edgeIndex(nodeBlock - 1, 1, col)];
+                    leftDelete = edges[edgeIndex(nodeBlock - 1, 2, col)];
+                }
+                for (var node = firstNode; node <= lastNode; node++) {
+                    var insertState = firstInsert + node;
+                    var deleteState = firstDelete + node - 1;
+                    var previousMatch = column[node];
+                    var previousInsert = column[insertState];
+                    var previousDelete = node > 0 ? column[deleteState] : Double.NEGATIVE_INFINITY;
+
+                    // match, the begin state is only reachable in column 0
+                    var match = Double.NEGATIVE_INFINITY;
+                    if (node > 0) {
+                        var emission = emissions[emissionOffset + node];
+                        var slot = 0;
+                        match = emission + diagonalMatch + fromMatchTransitions[node];
+                        var score = emission + diagonalInsert + fromInsertTransitions[node];
+                        if (score >= match) {
+                            match = score;
+                            slot = 1;
+                        }
+                        if (node > 1) {
+                            score = emission + diagonalDelete + fromDeleteTransitions[node];
+                            if (score >= match) {
+                                match = score;
+                                slot = 2;
+                            }
+                        }
+                        backtrack.set(col, node, slot);
+                    }
+
+                    // insert
+                    var emission = emissions[emissionOffset + insertState];
+                    var slot = 0;
+                    var insert = emission + previousMatch + fromMatchTransitions[insertState];
+                    var score = emission + previousInsert + fromInsertTransitions[insertState];
+                    if (score >= insert) {
+                        insert = score;
+                        slot = 1;
+                    }
+                    if (node > 0) {
+                        score = emission + previousDelete + fromDeleteTransitions[insertState];
+                        if (score >= insert) {
+                            insert = score;
+                            slot = 2;
+                        }
+                    }
+                    backtrack.set(col, insertState, slot);
+
+                    // delete, its predecessors are in this column
+                    var delete = Double.NEGATIVE_INFINITY;
+                    if (node > 0) {
+                        slot = 0;
+                        delete = leftMatch + fromMatchTransitions[deleteState];
+                        score = leftInsert + fromInsertTransitions[deleteState];
+                        if (score >= delete) {
+                            delete = score;
+                            slot = 1;
+                        }
+                        if (node > 1) {
+                            score = leftDelete + fromDeleteTransitions[deleteState];
+                            if (score >= delete) {
+                                delete = score;
+                                slot = 2;
+                            }
+                        }
+                        backtrack.set(col, deleteState, slot);
+                        column[deleteState] = delete;
+                    }
+                    column[node] = match;
+                    column[insertState] = insert;
+
+                    diagonalMatch = previousMatch;
+                    diagonalInsert = previousInsert;
+                    diagonalDelete = previousDelete;
+                    leftMatch = match;
+                    leftInsert = insert;
+                    leftDelete = delete;
+                }
+                if (nodeBlock < nodeBlocks - 1) {
+                    edges[edgeIndex(nodeBlock, 0, col)] = leftMatch;
+                    edges[edgeIndex(nodeBlock, 1, col)] = leftInsert;
+                    edges[edgeIndex(nodeBlock, 2, col)] = leftDelete;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the top left tile and completes when all tiles are done.
+     */
+    private static final class WavefrontRoot extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Wavefront wavefront;
+
+        WavefrontRoot(Wavefront wavefront) {
+            this.wavefront = wavefront;
+        }
+
+        @Override
+        public void compute() {
+            // every tile but the last one decrements the count, the last one completes the root
+            setPendingCount(wavefront.tileCount() - 1);
+            new WavefrontTile(this, wavefront, 0, 0).fork();
+        }
+    }
+
+    private static final class WavefrontTile extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Wavefront wavefront;
+        private final int nodeBlock;
+        private final int columnBlock;
+
+        WavefrontTile(CountedCompleter<?> root, Wavefront wavefront, int nodeBlock, int columnBlock) {
+            super(root);
+            this.wavefront = wavefront;
+            this.nodeBlock = nodeBlock;
+            this.columnBlock = columnBlock;
+        }
+
+        @Override
+        public void compute() {
+            wavefront.calcTile(nodeBlock, columnBlock);
+            if (wavefront.release(nodeBlock + 1, columnBlock)) {
+                new WavefrontTile(getCompleter(), wavefront, nodeBlock + 1, columnBlock).fork();
+            }
+            if (wavefront.release(nodeBlock, columnBlock + 1)) {
+                new WavefrontTile(getCompleter(), wavefront, nodeBlock, columnBlock + 1).fork();
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * Calculates only the log probability of the viterbi path. Two columns are kept and no backtracking
+     * information is stored, so the memory requirement is O(|States|) independent of the sequence length.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @return the log probability of the viterbi path
+     */
+    public double calcScore(int[] observations) {
+        return calcScore(observations, new ViterbiWorkspace());
+    }
+
+    private double calcScore(int[] observations, ViterbiWorkspace workspace) {
+        var previous = initialColumn(workspace.previousColumn(stateCount));
+        var current = workspace.currentColumn(stateCount);
+
+        for (var observation : observations) {
+            calcColumn(observation, previous, current, null, 0, null);
+            var swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return terminationScore(previous, terminationSlot(previous));
+    }
+
+    /**
+     * Calculates only the log probability of the viterbi path like {@link #calcScore(int[])}, but with the viterbi
+     * variables in the given number format. See {@link Precision} for the deviation from the exact score.
+     *
+     * @param observations Sequence of observations, elements of [0, |EmissionStates|)
+     * @param precision    the number format of the viterbi variables
+     * @return the (approximate) log probability of the viterbi path
+     */
+    public double calcScore(int[] observations, Precision precision) {
+        return calcScore(observations, precision, new ViterbiWorkspace());
+    }
+
+    private double calcScore(int[] observations, Precision precision, ViterbiWorkspace workspace) {
+        switch (precision) {
+            case FLOAT:
+                return calcScoreFloat(observations, workspace);
+            case SHORT:
+                var score = calcScoreQuantized(observations, workspace);
+                // a saturated state could have been part of the viterbi path, this rare fallback allocates its
+                // double columns outside of the workspace
+                return Double.isNaN(score) ? calcScore(observations) : score;
+            case DOUBLE:
+            default:
+                return calcScore(observations, workspace);
+        }
+    }
+
+    private double calcScoreFloat(int[] observations, ViterbiWorkspace workspace) {
+        var previous = workspace.previousFloatColumn(stateCount);
+        Arrays.fill(previous, 0, stateCount, Float.NEGATIVE_INFINITY);
+        previous[beginMatch] = 0;
+        var current = workspace.currentFloatColumn(stateCount);
+
+        for (var observation : observations) {
+            calcColumnFloat(observation, previous, current);
+            var swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        var tableIdx = endMatch * MAX_PREDECESSORS;
+        var fromMatch = previous[predecessors[tableIdx]] + floatFromMatchTransitions[endMatch];
+        var fromInsert = previous[predecessors[tableIdx + 1]] + floatFromInsertTransitions[endMatch];
+        var fromDelete = previous[predecessors[tableIdx + 2]] + floatFromDeleteTransitions[endMatch];
+        return Math.max(Math.max(fromMatch, fromInsert), fromDelete);
+    }
+
+    /**
+     * Same passes as {@link #calcColumnVectorized} without backtracking information. The delete transition into M(1)
+     * and I(0) is -Infinity, so they need no special case.
+     */
+    private void calcColumnFloat(int observation, float[] previous, float[] current) {
+        current[beginMatch] = Float.NEGATIVE_INFINITY;
+        var emissionOffset = observation * emittingStateCount;
+
+        for (var state = 1; state <= endMatch; state++) {
+            var emission = floatEmissions[emissionOffset + state];
+            var fromMatch = emission + previous[state - 1] + floatFromMatchTransitions[state];
+            var fromInsert = emission + previous[firstInsert + state - 1] + floatFromInsertTransitions[state];
+            var fromDelete = emission + previous[firstDelete + state - 2] + floatFromDeleteTransitions[state];
+            current[state] = Math.max(Math.max(fromMatch, fromInsert), fromDelete);
+        }
+        for (var state = firstInsert; state <= lastInsert; state++) {
+            var node = state - firstInsert;
+            var emission = floatEmissions[emissionOffset + state];
+            var fromMatch = emission + previous[node] + floatFromMatchTransitions[state];
+            var fromInsert = emission + previous[state] + floatFromInsertTransitions[state];
+            var fromDelete = emission + previous[firstDelete + node - 1] + floatFromDeleteTransitions[state];
+            current[state] = Math.max(Math.max(fromMatch, fromInsert), fromDelete);
+        }
+        for (var state = firstDelete; state < stateCount; state++) {
+            var node = state - firstDelete + 1;
+            var fromMatch = current[node - 1] + floatFromMatchTransitions[state];
+            var fromInsert = current[firstInsert + node - 1] + floatFromInsertTransitions[state];
+            current[state] = Math.max(fromMatch, fromInsert);
+        }
+        for (var state = firstDelete + 1; state < stateCount; state++) {
+            current[state] = Math.max(current[state], current[state - 1] + floatFromDeleteTransitions[state]);
+        }
+    }
+
+    /**
+     * Calculates the score with quantized viterbi variables. The columns are stored as short relative to the sum of
+     * the maxima of all previous columns, which is kept separately as long. Values below SATURATED are clamped to
+     * it, so they are only an upper bound of the real value. Such inexact values propagate: a state is inexact if
+     * the best candidate of an inexact predecessor is better than the best candidate of an exact one. States far
+     * below the viterbi path become inexact all the time without influencing the score, only an inexact end state
+     * means that the score could differ from the one calculated without saturation.
+     *
+     * @return the log probability of the viterbi path or NaN if a saturated state could have influenced it
+     */
+    double calcScoreQuantized(int[] observations) {
+        return calcScoreQuantized(observations, new ViterbiWorkspace());
+    }
+
+    private double calcScoreQuantized(int[] observations, ViterbiWorkspace workspace) {
+        var previous = workspace.previousShortColumn(stateCount);
+        Arrays.fill(previous, 0, stateCount, QUANTIZED_NEGATIVE_INFINITY);
+        previous[beginMatch] = 0;
+        var current = workspace.currentShortColumn(stateCount);
+        // 1 for inexact states
+        var previousInexact = workspace.previousInexact(stateCount);
+        Arrays.fill(previousInexact, 0, stateCount, (byte) 0);
+        var currentInexact = workspace.currentInexact(stateCount);
+        // the maximum of previous, subtracted from all states of current
+        var shift = 0;
+        // real value of a state = offset + its quantized value
+        var offset = 0L;
+
+        for (var observation : observations) {
+            offset += shift;
+            shift = calcColumnQuantized(observation, shift, previous, previousInexact, current, currentInexact);
+            if (shift == QUANTIZED_NEGATIVE_INFINITY) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            var swap = previous;
+            previous = current;
+            current = swap;
+            var swapInexact = previousInexact;
+            previousInexact = currentInexact;
+            currentInexact = swapInexact;
+        }
+
+        var tableIdx = endMatch * MAX_PREDECESSORS;
+        var fromTransitions = new int[]{quantizedFromMatchTransitions[endMatch],
+                quantizedFromInsertTransitions[endMatch], quantizedFromDeleteTransitions[endMatch]};
+        var max = WIDE_NEGATIVE_INFINITY;
+        var exactMax = WIDE_NEGATIVE_INFINITY;
+        for (var i = 0; i < MAX_PREDECESSORS; i++) {
+            var predecessor = predecessors[tableIdx + i];
+            if (predecessor >= 0) {
+                var score = widen(previous[predecessor]) + fromTransitions[i];
+                max = Math.max(max, score);
+                exactMax = Math.max(exactMax, previousInexact[predecessor] == 0 ? score : WIDE_NEGATIVE_INFINITY);
+            }
+        }
+        if (max <= NEGATIVE_INFINITY_LIMIT) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        if (max > exactMax) {
+            return Double.NaN;
+        }
+        return (offset + max) / QUANTIZATION_SCALE;
+    }
+
+    /**
+     * Calculates the quantized viterbi variables of one column in the passes of {@link #calcColumnFloat}, the
+     * delete states in one sequential pass.
+     *
+     * @param shift the maximum of previous, subtracted from every state of current
+     * @return the maximum of current or QUANTIZED_NEGATIVE_INFINITY if no state is reachable
+     */
+    private short calcColumnQuantized(int observation, int shift, short[] previous, byte[] previousInexact,
+                                      short[] current, byte[] currentInexact) {
+        current[beginMatch] = QUANTIZED_NEGATIVE_INFINITY;
+        currentInexact[beginMatch] = 0;
+        var emissionOffset = observation * emittingStateCount;
+        short columnMax = QUANTIZED_NEGATIVE_INFINITY;
+
+        for (var state = 1; state <= endMatch; state++) {
+            var fromMatch = widen(previous[state - 1]) + quantizedFromMatchTransitions[state];
+            var fromInsert = widen(previous[firstInsert + state - 1]) + quantizedFromInsertTransitions[state];
+            var fromDelete = widen(previous[firstDelete + state - 2]) + quantizedFromDeleteTransitions[state];
+            var max = Math.max(Math.max(fromMatch, fromInsert), fromDelete);
+            var exactMax = Math.max(Math.max(
+                    previousInexact[state - 1] == 0 ? fromMatch : WIDE_NEGATIVE_INFINITY,
+                    previousInexact[firstInsert + state - 1] == 0 ? fromInsert : WIDE_NEGATIVE_INFINITY),
+                    previousInexact[firstDelete + state - 2] == 0 ? fromDelete : WIDE_NEGATIVE_INFINITY);
+            var value = max + quantizedEmissions[emissionOffset + state] - shift;
+            current[state] = narrow(value);
+            currentInexact[state] = inexact(value, max > exactMax);
+            columnMax = (short) Math.max(columnMax, current[state]);
+        }
+        for (var state = firstInsert; state <= lastInsert; state++) {
+            var node = state - firstInsert;
+            var fromMatch = widen(previous[node]) + quantizedFromMatchTransitions[state];
+            var fromInsert = widen(previous[state]) + quantizedFromInsertTransitions[state];
+            var fromDelete = widen(previous[firstDelete + node - 1]) + quantizedFromDeleteTransitions[state];
+            var max = Math.max(Math.max(fromMatch, fromInsert), fromDelete);
+            var exactMax = Math.max(Math.max(
+                    previousInexact[node] == 0 ? fromMatch : WIDE_NEGATIVE_INFINITY,
+                    previousInexact[state] == 0 ? fromInsert : WIDE_NEGATIVE_INFINITY),
+                    previousInexact[firstDelete + node - 1] == 0 ? fromDelete : WIDE_NEGATIVE_INFINITY);
+            var value = max + quantizedEmissions[emissionOffset + state] - shift;
+            current[state] = narrow(value);
+            currentInexact[state] = inexact(value, max > exactMax);
+            columnMax = (short) Math.max(columnMax, current[state]);
+        }
+        // a delete state is never better than its predecessors, so they do not change the column maximum
+        for (var state = firstDelete; state < stateCount; state++) {
+            var node = state - firstDelete + 1;
+            // D(1) has no delete predecessor, firstDelete - 1 is a valid state and the transition is -Infinity
+            var fromMatch = widen(current[node - 1]) + quantizedFromMatchTransitions[state];
+            var fromInsert = widen(current[firstInsert + node - 1]) + quantizedFromInsertTransitions[state];
+            var fromDelete = widen(current[state - 1]) + quantizedFromDeleteTransitions[state];
+            var max = Math.max(Math.max(fromMatch, fromInsert), fromDelete);
+            var exactMax = Math.max(Math.max(
+                    currentInexact[node - 1] == 0 ? fromMatch : WIDE_NEGATIVE_INFINITY,
+                    currentInexact[firstInsert + node - 1] == 0 ? fromInsert : WIDE_NEGATIVE_INFINITY),
+                    currentInexact[state - 1] == 0 ? fromDelete : WIDE_NEGATIVE_INFINITY);
+            current[state] = narrow(max);
+            currentInexact[state] = inexact(max, max > exactMax);
+        }
+        return columnMax;
+    }
+
+    /**
+     * @return the quantized value as int, log(0) mapped to WIDE_NEGATIVE_INFINITY
+     */
+    private static int widen(short quantized) {
+        // -1 only for QUANTIZED_NEGATIVE_INFINITY
+        var negativeInfinityMask = (quantized - QUANTIZED_NEGATIVE_INFINITY - 1) >> 31;
+        return quantized + (negativeInfinityMask & (WIDE_NEGATIVE_INFINITY - QUANTIZED_NEGATIVE_INFINITY));
+    }
+
+    /**
+     * @return value as short, clamped to SATURATED, or QUANTIZED_NEGATIVE_INFINITY if it contains log(0)
+     */
+    private static short narrow(int value) {
+        return value <= NEGATIVE_INFINITY_LIMIT ? QUANTIZED_NEGATIVE_INFINITY : (short) Math.max(value, SATURATED);
+    }
+
+    /**
+     * @return 1 if the narrowed value is only an upper bound of the real value
+     */
+    private static byte inexact(int value, boolean fromInexact) {
+        return (byte) (value > NEGATIVE_INFINITY_LIMIT && (fromInexact || value < SATURATED) ? 1 : 0);
+    }
+
+    /**
+     * Size of the buffers {@link #calc(int[], ViterbiMode, Precision, ViterbiWorkspace)} requests from the workspace,
+     * a workspace which was empty before has exactly this {@link ViterbiWorkspace#capacityBytes()} afterwards.
+     *
+     * @param observationCount length of the sequence
+     * @param mode             the variant to use
+     * @param precision        number format used by {@link ViterbiMode#SCORE_ONLY}
+     * @return the size of the workspace buffers in bytes
+     */
+    public long workspaceBytes(int observationCount, ViterbiMode mode, Precision precision) {
+        var columnBytes = (long) Double.BYTES * stateCount;
+        switch (mode) {
+            case CHECKPOINTED:
+                var segmentLength = Math.max(1, (int) Math.ceil(Math.sqrt(observationCount)));
+                var checkpointCount = observationCount / segmentLength + 1;
+                return 2 * columnBytes + stateCount + checkpointCount * columnBytes
+                        + (long) Long.BYTES * PackedTraceback.size(stateCount, segmentLength);
+            case SCORE_ONLY:
+                switch (precision) {
+                    case FLOAT:
+                        return 2L * Float.BYTES * stateCount;
+                    case SHORT:
+                        // two columns and their inexact flags
+                        return 2L * (Short.BYTES + 1) * stateCount;
+                    case DOUBLE:
+                    default:
+                        return 2 * columnBytes;
+                }
+            case FULL:
+            default:
+                return 2 * columnBytes + stateCount
+                        + (long) Long.BYTES * PackedTraceback.size(stateCount, observationCount + 2);
+        }
+    }
+
+    /**
+     * @return the size of the workspace buffers {@link #calcBeam(int[], double, ViterbiWorkspace)} uses in bytes,
+     * the memory outside of the workspace is the same as for {@link ViterbiMode#FULL}
+     */
+    public long beamWorkspaceBytes(int observationCount) {
+        return 2L * Double.BYTES * stateCount + (long) Integer.BYTES * 4 * stateCount
+                + (long) Long.BYTES * PackedTraceback.size(stateCount, observationCount + 1);
+    }
+
+    /**
+     * @return the size of the workspace buffers {@link #calcWavefront(int[], ForkJoinPool, ViterbiWorkspace)} uses in
+     * bytes, the memory outside of the workspace is the same as for {@link ViterbiMode#FULL}
+     */
+    public long wavefrontWorkspaceBytes(int observationCount) {
+        return (long) Double.BYTES * stateCount
+                + (long) Double.BYTES * wavefrontEdgesLength(observationCount, WAVEFRONT_TILE_NODES)
+                + (long) Long.BYTES * PackedTraceback.size(stateCount, observationCount + 2);
+    }
+
+    /**
+     * Upper bound of the memory {@link #calc(int[], ViterbiMode, Precision, ViterbiWorkspace)} allocates outside of
+     * the workspace: the path, which is collected in a growing array, and the double columns of the rare fallback of
+     * {@link Precision#SHORT}.
+     *
+     * @return the number of bytes
+     */
+    public long transientBytes(int observationCount, ViterbiMode mode, Precision precision) {
+        if (mode == ViterbiMode.SCORE_ONLY) {
+            return precision == Precision.SHORT ? 2L * Double.BYTES * stateCount : 0;
+        }
+        // every state of the path consumes an observation or is a delete state, the growing array holds up to
+        // twice the path length while it is copied
+        var maxPathLength = (long) observationCount + (endMatch - beginMatch) + 2;
+        return (long) Integer.BYTES * 3 * maxPathLength;
+    }
+
+    private double[] initialColumn(double[] column) {
+        Arrays.fill(column, 0, stateCount, Double.NEGATIVE_INFINITY);
+        column[beginMatch] = 0;
+        return column;
+    }
+
+    /**
+     * Calculates the viterbi variables of one observation column.
+     *
+     * @param observation     the observation consumed in this column
+     * @param previous        viterbi variables of the previous column
+     * @param current         receives the viterbi variables of this column
+     * @param backtrack       receives the packed index of the best predecessor of every state (see
+     *                        {@link PackedTraceback}), may be null if no traceback is needed
+     * @param backtrackOffset index of the first word of this column in backtrack
+     * @param slots           scratch space of |States| entries, only needed if backtrack is not null
+     */
+    private void calcColumn(int observation, double[] previous, double[] current, long[] backtrack, int backtrackOffset,
+                            byte[] slots) {
+        if (kernel == ViterbiKernel.VECTORIZED) {
+            calcColumnVectorized(observation, previous, current, backtrack, backtrackOffset, slots);
+        } else {
+            calcColumnScalar(observation, previous, current, backtrack, backtrackOffset);
+        }
+    }
+
+    private void calcColumnScalar(int observation, double[] previous, double[] current, long[] backtrack,
+                                  int backtrackOffset) {
+        // the begin state is only reachable in column 0
+        current[beginMatch] = Double.NEGATIVE_INFINITY;
+        var emissionOffset = observation * emittingStateCount;
+        // the slots of 32 consecutive states are collected and written as one word, the begin state gets slot 0
+        var word = 0L;
+
+        // match and insert states consume an observation, their predecessors are in the previous column
+        for (var state = 1; state <= lastInsert; state++) {
+            var emission = emissions[emissionOffset + state];
+            var tableIdx = state * MAX_PREDECESSORS;
+
+            var slot = 0;
+            var max = emission + previous[predecessors[tableIdx]] + predecessorTransitions[tableIdx];
+            var score = emission + previous[predecessors[tableIdx + 1]] + predecessorTransitions[tableIdx + 1];
+            if (score >= max) {
+                max = score;
+                slot = 1;
+            }
+            var predecessor = predecessors[tableIdx + 2];
+            if (predecessor >= 0) {
+                score = emission + previous[predecessor] + predecessorTransitions[tableIdx + 2];
+                if (score >= max) {
+                    max = score;
+                    slot = 2;
+                }
+            }
+            current[state] = max;
+            word |= (long) slot << ((state % PackedTraceback.CELLS_PER_WORD) * 2);
+            if (state % PackedTraceback.CELLS_PER_WORD == PackedTraceback.CELLS_PER_WORD - 1) {
+                if (backtrack != null) {
+                    backtrack[backtrackOffset + state / PackedTraceback.CELLS_PER_WORD] = word;
+                }
+                word = 0L;
+            }
+        }
+
+        // delete states are silent, their predecessors are in the current column
+        for (var state = firstDelete; state < stateCount; state++) {
+            var tableIdx = state * MAX_PREDECESSORS;
+
+            var slot = 0;
+            var max = current[predecessors[tableIdx]] + predecessorTransitions[tableIdx];
+            var score = current[predecessors[tableIdx + 1]] + predecessorTransitions[tableIdx + 1];
+            if (score >= max) {
+                max = score;
+                slot = 1;
+            }
+            var predecessor = predecessors[tableIdx + 2];
+            if (predecessor >= 0) {
+                score = current[predecessor] + predecessorTransitions[tableIdx + 2];
+                if (score >= max) {
+                    max = score;
+                    slot = 2;
+                }
+            }
+            current[state] = max;
+            word |= (long) slot << ((state % PackedTraceback.CELLS_PER_WORD) * 2);
+            if (state % PackedTraceback.CELLS_PER_WORD == PackedTraceback.CELLS_PER_WORD - 1) {
+                if (backtrack != null) {
+                    backtrack[backtrackOffset + state / PackedTraceback.CELLS_PER_WORD] = word;
+                }
+                word = 0L;
+            }
+        }
+
+        // delete states directly follow the insert states, flush the last incomplete word
+        if (backtrack != null && stateCount % PackedTraceback.CELLS_PER_WORD != 0) {
+            backtrack[backtrackOffset + (stateCount - 1) / PackedTraceback.CELLS_PER_WORD] = word;
+        }
+    }
+
+    /**
+     * Same recurrence as {@link #calcColumnScalar}, but every kind of state is computed in its own pass over
+     * contiguous arrays. The predecessors of match M(j) are M(j-1), I(j-1) and D(j-1), the ones of insert I(k) are
+     * M(k), I(k) and D(k), so within a pass all reads have a constant offset to the written state and the loops
+     * contain no branches. Deletes first take the best of their match and insert predecessor, the D(k-1) -> D(k)
+     * chain is propagated in a short scalar pass afterwards. Candidates are summed in the same order and ties are
+     * resolved in favour of the later predecessor like in the scalar kernel, so the results are bit identical.
+     */
+    private void calcColumnVectorized(int observation, double[] previous, double[] current, long[] backtrack,
+                                      int backtrackOffset, byte[] slots) {
+        current[beginMatch] = Double.NEGATIVE_INFINITY;
+        var emissionOffset = observation * emittingStateCount;
+        var withSlots = backtrack != null;
+
+        // M(1) has no delete predecessor
+        {
+            var emission = emissions[emissionOffset + 1];
+            var fromMatch = emission + previous[beginMatch] + fromMatchTransitions[1];
+            var fromInsert = emission + previous[firstInsert] + fromInsertTransitions[1];
+            current[1] = Math.max(fromMatch, fromInsert);
+            if (withSlots) {
+                slots[1] = (byte) (fromInsert >= fromMatch ? 1 : 0);
+            }
+        }
+        for (var state = 2; state <= endMatch; state++) {
+            var emission = emissions[emissionOffset + state];
+            var fromMatch = emission + previous[state - 1] + fromMatchTransitions[state];
+            var fromInsert = emission + previous[firstInsert + state - 1] + fromInsertTransitions[state];
+            var fromDelete = emission + previous[firstDelete + state - 2] + fromDeleteTransitions[state];
+            var matchOrInsert = Math.max(fromMatch, fromInsert);
+            current[state] = Math.max(matchOrInsert, fromDelete);
+            if (withSlots) {
+                slots[state] = (byte) (fromDelete >= matchOrInsert ? 2 : fromInsert >= fromMatch ? 1 : 0);
+            }
+        }
+
+        // I(0) has no delete predecessor
+        {
+            var emission = emissions[emissionOffset + firstInsert];
+            var fromMatch = emission + previous[beginMatch] + fromMatchTransitions[firstInsert];
+            var fromInsert = emission + previous[firstInsert] + fromInsertTransitions[firstInsert];
+            current[firstInsert] = Math.max(fromMatch, fromInsert);
+            if (withSlots) {
+                slots[firstInsert] = (byte) (fromInsert >= fromMatch ? 1 : 0);
+            }
+        }
+        for (var state = firstInsert + 1; state <= lastInsert; state++) {
+            var node = state - firstInsert;
+            var emission = emissions[emissionOffset + state];
+            var fromMatch = emission + previous[node] + fromMatchTransitions[state];
+            var fromInsert = emission + previous[state] + fromInsertTransitions[state];
+            var fromDelete = emission + previous[firstDelete + node - 1] + fromDeleteTransitions[state];
+            var matchOrInsert = Math.max(fromMatch, fromInsert);
+            current[state] = Math.max(matchOrInsert, fromDelete);
+            if (withSlots) {
+                slots[state] = (byte) (fromDelete >= matchOrInsert ? 2 : fromInsert >= fromMatch ? 1 : 0);
+            }
+        }
+
+        // D(k) from M(k-1) and I(k-1) of the current column
+        for (var state = firstDelete; state < stateCount; state++) {
+            var node = state - firstDelete + 1;
+            var fromMatch = current[node - 1] + fromMatchTransitions[state];
+            var fromInsert = current[firstInsert + node - 1] + fromInsertTransitions[state];
+            current[state] = Math.max(fromMatch, fromInsert);
+            if (withSlots) {
+                slots[state] = (byte) (fromInsert >= fromMatch ? 1 : 0);
+            }
+        }
+        // D(k-1) -> D(k)
+        for (var state = firstDelete + 1; state < stateCount; state++) {
+            var fromDelete = current[state - 1] + fromDeleteTransitions[state];
+            if (fromDelete >= current[state]) {
+                current[state] = fromDelete;
+                if (withSlots) {
+                    slots[state] = 2;
+                }
+            }
+        }
+
+        if (withSlots) {
+            packSlots(slots, backtrack, backtrackOffset);
+        }
+    }
+
+    private void packSlots(byte[] slots, long[] backtrack, int backtrackOffset) {
+        // the begin state keeps slot 0
+        slots[beginMatch] = 0;
+        for (var wordStart = 0; wordStart < stateCount; wordStart += PackedTraceback.CELLS_PER_WORD) {
+            var word = 0L;
+            var wordEnd = Math.min(wordStart + PackedTraceback.CELLS_PER_WORD, stateCount);
+            for (var state = wordStart; state < wordEnd; state++) {
+                word |= (long) slots[state] << ((state - wordStart) * 2);
+            }
+            backtrack[backtrackOffset + wordStart / PackedTraceback.CELLS_PER_WORD] = word;
+        }
+    }
+
+    /**
+     * @return the index of the best predecessor of the end state within its predecessor list
+     */
+    private int terminationSlot(double[] lastColumn) {
+        var tableIdx = endMatch * MAX_PREDECESSORS;
+        var argMax = 0;
+        var max = lastColumn[predecessors[tableIdx]] + predecessorTransitions[tableIdx];
+        for (var i = 1; i < MAX_PREDECESSORS; i++) {
+            var predecessor = predecessors[tableIdx + i];
+            if (predecessor < 0) {
+                continue;
+            }
+            var score = lastColumn[predecessor] + predecessorTransitions[tableIdx + i];
+            if (score >= max) {
+                max = score;
+                argMax = i;
+            }
+        }
+        return argMax;
+    }
+
+    private double terminationScore(double[] lastColumn, int endSlot) {
+        var tableIdx = endMatch * MAX_PREDECESSORS + endSlot;
+        return lastColumn[predecessors[tableIdx]] + predecessorTransitions[tableIdx];
+    }
+
+    /**
+     * Decodes the best predecessor of state in column of backtrack.
+     */
+    private int predecessor(PackedTraceback backtrack, int column, int state) {
+        if (state == beginMatch) {
+            // never written, behaves like an unset backtracking variable
+            return beginMatch;
+        }
+        return predecessors[state * MAX_PREDECESSORS + backtrack.slot(column, state)];
+    }
+
+    private int[] reconstructOptimalPath(int observationCount, PackedTraceback backtrack) {
+        var path = new ReversePath(observationCount + 2);
+        path.add(endMatch);
+
+        var observation = observationCount + 1;
+
+        while (observation > 0) {
+            var prevState = predecessor(backtrack, observation, path.last());
+            path.add(prevState);
+            if (prevState <= lastInsert || observation == observationCount + 1) {
+                observation--;
+            }
+        }
+        return path.toArray();
+    }
+
+    /**
+     * Growable int array to which the states of a path are added from the end to the beginning.
+     */
+    private static class ReversePath {
+        private int[] states;
+        private int length = 0;
+
+        ReversePath(int initialCapacity) {
+            states = new int[Math.max(1, initialCapacity)];
+        }
+
+        void add(int state) {
+            if (length == states.length) {
+                states = Arrays.copyOf(states, 2 * length);
+            }
+            states[length++] = state;
+        }
+
+        int last() {
+            return states[length - 1];
+        }
+
+        int[] toArray() {
+            var path = new int[length];
+            for (var i = 0; i < length; i++) {
+                path[i] = states[length - i - 1];
+            }
+            return path;
+        }
+    }
+}
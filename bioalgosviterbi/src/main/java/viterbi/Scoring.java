@@ -0,0 +1,15 @@
+package viterbi;
+
+/**
+ * Probability by which the sequences are ranked.
+ */
+public enum Scoring {
+    /**
+     * Log probability of the best path, see {@link ProfileViterbi}.
+     */
+    VITERBI,
+    /**
+     * Log probability summed over all paths, see {@link ProfileForward}.
+     */
+    FORWARD
+}
@@ -0,0 +1,40 @@
+package viterbi;
+
+/**
+ * All columns of a state are stored next to each other, like in a double[state][column] matrix. Consecutive states of
+ * a column are columnCount elements apart, so every cell of a column sweep lies in a different cache line.
+ */
+public final class StateMajorLayout implements ViterbiLayout {
+    private final int stateCount;
+    private final int columnCount;
+
+    public StateMajorLayout(int stateCount, int columnCount) {
+        this.stateCount = stateCount;
+        this.columnCount = columnCount;
+    }
+
+    @Override
+    public int size() {
+        return stateCount * columnCount;
+    }
+
+    @Override
+    public int columnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public int stateCount() {
+        return stateCount;
+    }
+
+    @Override
+    public int columnOffset(int column) {
+        return column;
+    }
+
+    @Override
+    public int stateOffset(int state) {
+        return state * columnCount;
+    }
+}
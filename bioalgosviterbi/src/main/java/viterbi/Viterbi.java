@@ -1,17 +1,35 @@
 package viterbi;
 
+import hmm.CompiledHMM;
 import phmm.ProfileHMM;
-import util.Util;
 
 import java.util.*;
-import java.util.stream.Collectors;
-
-import static util.Util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 public class Viterbi {
+    /**
+     * Below this number of states the vectorized kernel has no advantage over the scalar one.
+     */
+    private static final int VECTORIZED_KERNEL_MIN_STATES = 32;
+    /**
+     * Below this fraction of possible transitions the scalar kernel, which skips the impossible ones, is faster.
+     */
+    private static final double VECTORIZED_KERNEL_MIN_DENSITY = 0.5;
+    private static final ViterbiKernel KERNEL = ViterbiKernel.select();
+    /**
+     * Minimum number of observations per block of {@link #calcParallel(int[], CompiledHMM, ForkJoinPool)}, shorter
+     * blocks do not amortize their transfer matrices and the scan.
+     */
+    public static final int PARALLEL_MIN_BLOCK_LENGTH = 4096;
+    // more blocks than threads even out blocks which finish early
+    private static final int PARALLEL_BLOCKS_PER_THREAD = 2;
+
     /**
      * Calculates the viterbi path given a sequence of observations and a model.
-     * The observations are expected to be elements of [0, |EmissionStates|).
+     * The observations are expected to be elements of [0, |EmissionStates|). The matrices are not modified, to score
+     * several sequences against the same model compile it once and call {@link #calc(int[], CompiledHMM)}.
      *
      * @param observations         Sequence of observations
      * @param transitionMatrix     Provides the probabilities with which state transitions occur.
@@ -23,76 +41,472 @@ public class Viterbi {
      * @return the viterbi path
      */
     public static ViterbiResult calc(int[] observations, double[][] transitionMatrix, double[][] emissionMatrix) {
-        int countStateSpace = transitionMatrix.length;
-        double[][] viterbiVar = new double[countStateSpace][observations.length + 1];
-        int[][] backtrackingVar = new int[countStateSpace][observations.length + 1];
+        return calc(observations, new CompiledHMM(transitionMatrix, emissionMatrix));
+    }
 
-        viterbiVar[0][0] = 1;
+    /**
+     * Same as {@link #calc(int[], double[][], double[][])} with an explicitly chosen kernel instead of the one
+     * selected for the running JVM. All kernels return the same result.
+     */
+    public static ViterbiResult calc(int[] observations, double[][] transitionMatrix, double[][] emissionMatrix, ViterbiKernel kernel) {
+        return calc(observations, new CompiledHMM(transitionMatrix, emissionMatrix), kernel);
+    }
 
-        /*
-            Logarithm is applied element wise to the transition and emission matrices. Computing the logithms of
-            the probabilities instead of the probabilities themselves ensures that the values stay in ranges which
-            can be represented by doubles.
-         */
-        double[][] logTransitionMatrix = toLog(transitionMatrix.clone());
-        double[][] logEmissionMatrix = toLog(emissionMatrix.clone());
+    /**
+     * Same as {@link #calc(int[], double[][], double[][], ViterbiKernel)} with the viterbi and backtracking variables
+     * arranged according to layout instead of column major.
+     *
+     * @param layout arrangement of the |States| x (|observations| + 1) viterbi matrix
+     */
+    public static ViterbiResult calc(int[] observations, double[][] transitionMatrix, double[][] emissionMatrix, ViterbiKernel kernel, ViterbiLayout layout) {
+        return calc(observations, new CompiledHMM(transitionMatrix, emissionMatrix), kernel, layout);
+    }
+
+    /**
+     * Same as {@link #calc(int[], double[][], double[][])}, but the viterbi and backtracking variables are kept in the
+     * buffers of workspace instead of newly allocated arrays.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public static ViterbiResult calc(int[] observations, double[][] transitionMatrix, double[][] emissionMatrix, ViterbiWorkspace workspace) {
+        return calc(observations, new CompiledHMM(transitionMatrix, emissionMatrix), workspace);
+    }
+
+    /**
+     * Calculates the viterbi path of the observations through a compiled model, the same as
+     * {@link #calc(int[], double[][], double[][])} for the matrices the model was compiled from.
+     *
+     * @param observations Sequence of observations, elements of [0, {@link CompiledHMM#getAlphabetSize()})
+     * @param hmm          the model
+     * @return the viterbi path
+     */
+    public static ViterbiResult calc(int[] observations, CompiledHMM hmm) {
+        return calc(observations, hmm, selectKernel(hmm));
+    }
+
+    /**
+     * Same as {@link #calc(int[], CompiledHMM)} with an explicitly chosen kernel. All kernels return the same result.
+     */
+    public static ViterbiResult calc(int[] observations, CompiledHMM hmm, ViterbiKernel kernel) {
+        return calc(observations, hmm, kernel, new ColumnMajorLayout(hmm.getStateCount(), observations.length + 1));
+    }
+
+    /**
+     * Same as {@link #calc(int[], CompiledHMM, ViterbiKernel)} with the viterbi and backtracking variables arranged
+     * according to layout instead of column major.
+     *
+     * @param layout arrangement of the |States| x (|observations| + 1) viterbi matrix
+     */
+    public static ViterbiResult calc(int[] observations, CompiledHMM hmm, ViterbiKernel kernel, ViterbiLayout layout) {
+        return calc(observations, hmm, kernel, layout, new ViterbiWorkspace());
+    }
 
-        double maxProbability = calcViterbiBacktrackVars(observations, countStateSpace, viterbiVar, backtrackingVar, logTransitionMatrix, logEmissionMatrix);
+    /**
+     * Same as {@link #calc(int[], CompiledHMM)}, but the viterbi and backtracking variables are kept in the buffers
+     * of workspace instead of newly allocated arrays.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public static ViterbiResult calc(int[] observations, CompiledHMM hmm, ViterbiWorkspace workspace) {
+        var layout = new ColumnMajorLayout(hmm.getStateCount(), observations.length + 1);
+        return calc(observations, hmm, selectKernel(hmm), layout, workspace);
+    }
 
-        int[] path = reconstructOptimalPath(observations.length, countStateSpace, backtrackingVar, viterbiVar);
+    /**
+     * The vectorized kernel sweeps all |States| predecessors of every state, the scalar one only the possible ones.
+     * The vectorized kernel only pays off for larger models with few impossible transitions.
+     */
+    private static ViterbiKernel selectKernel(CompiledHMM hmm) {
+        var stateCount = hmm.getStateCount();
+        var dense = hmm.getTransitionCount() >= VECTORIZED_KERNEL_MIN_DENSITY * stateCount * stateCount;
+        return stateCount >= VECTORIZED_KERNEL_MIN_STATES && dense ? KERNEL : ViterbiKernel.SCALAR;
+    }
+
+    private static ViterbiResult calc(int[] observations, CompiledHMM hmm, ViterbiKernel kernel, ViterbiLayout layout, ViterbiWorkspace workspace) {
+        int countStateSpace = hmm.getStateCount();
+        checkLayout(layout, countStateSpace, observations.length + 1);
+        workspace.checkMemoryPressure();
+        double[] viterbiVar = workspace.viterbiVariables(layout.size());
+        int[] backtrackingVar = workspace.backtrackingVariables(layout.size());
+
+        // all other columns are overwritten completely
+        for (int state = 0; state < countStateSpace; state++) {
+            viterbiVar[layout.index(0, state)] = 0;
+        }
+        viterbiVar[layout.index(0, 0)] = 1;
+
+        double maxProbability;
+        if (kernel == ViterbiKernel.VECTORIZED) {
+            maxProbability = calcViterbiBacktrackVarsVectorized(observations, hmm, viterbiVar, backtrackingVar, layout);
+        } else {
+            maxProbability = calcViterbiBacktrackVars(observations, hmm, viterbiVar, backtrackingVar, layout);
+        }
+
+        int[] path = reconstructOptimalPath(observations.length, countStateSpace, backtrackingVar, viterbiVar, layout);
 
         return new ViterbiResult(path, maxProbability);
     }
 
-    private static double calcViterbiBacktrackVars(int[] observations, int countStateSpace, double[][] viterbiVar, int[][] backtrackingVar, double[][] logTransitionMatrix, double[][] logEmissionMatrix) {
+    private static void checkLayout(ViterbiLayout layout, int stateCount, int columnCount) {
+        if (layout.stateCount() != stateCount || layout.columnCount() != columnCount) {
+            throw new IllegalArgumentException("Layout of " + layout.stateCount() + " x " + layout.columnCount()
+                    + " cells does not fit a viterbi matrix of " + stateCount + " x " + columnCount + " cells");
+        }
+    }
+
+    /**
+     * @return the offsets of all states within a column of layout, so that kernels do not call the layout per cell
+     */
+    private static int[] stateOffsets(ViterbiLayout layout) {
+        var stateOffsets = new int[layout.stateCount()];
+        for (var state = 0; state < stateOffsets.length; state++) {
+            stateOffsets[state] = layout.stateOffset(state);
+        }
+        return stateOffsets;
+    }
+
+    /**
+     * Visits only the possible predecessors of every state. Impossible predecessors score -Infinity and are never
+     * chosen, except if all scores are -Infinity, in which case predecessor 0 is chosen like in the dense kernel.
+     */
+    private static double calcViterbiBacktrackVars(int[] observations, CompiledHMM hmm, double[] viterbiVar, int[] backtrackingVar, ViterbiLayout layout) {
+        var countStateSpace = hmm.getStateCount();
+        var predecessorOffsets = hmm.getPredecessorOffsets();
+        var predecessors = hmm.getPredecessors();
+        var predecessorTransitions = hmm.getPredecessorTransitions();
+        var logEmissions = hmm.getLogEmissions();
+        var stateOffsets = stateOffsets(layout);
         double maxProbability = 0.;
         for (int observationIdx = 1; observationIdx <= observations.length; observationIdx++) {
+            var previousColumn = layout.columnOffset(observationIdx - 1);
+            var currentColumn = layout.columnOffset(observationIdx);
+            var emissionRow = observations[observationIdx - 1] * countStateSpace;
             for (int state = 0; state < countStateSpace; state++) {
-                double maxScore = viterbiVar[0][observationIdx - 1] + logTransitionMatrix[0][state];
+                double maxScore = Double.NEGATIVE_INFINITY;
                 int argMaxScore = 0;
-                for (int i = 1; i < countStateSpace; i++) {
-                    double score = viterbiVar[i][observationIdx - 1] + logTransitionMatrix[i][state];
+                for (int i = predecessorOffsets[state]; i < predecessorOffsets[state + 1]; i++) {
+                    double score = viterbiVar[previousColumn + stateOffsets[predecessors[i]]] + predecessorTransitions[i];
                     if (score > maxScore) {
                         maxScore = score;
-                        argMaxScore = i;
+                        argMaxScore = predecessors[i];
                     }
                 }
-                maxScore += logEmissionMatrix[state][observations[observationIdx - 1]];
-                viterbiVar[state][observationIdx] = maxScore;
+                maxScore += logEmissions[emissionRow + state];
+                viterbiVar[currentColumn + stateOffsets[state]] = maxScore;
+                maxProbability = maxScore;
+                backtrackingVar[currentColumn + stateOffsets[state]] = argMaxScore;
+            }
+        }
+        return maxProbability;
+    }
+
+    /**
+     * Same as calcViterbiBacktrackVars, but the scores of all predecessors, possible or not, are computed in one
+     * branch free pass over contiguous arrays which the JIT compiler vectorizes. The argmax is searched in a second
+     * pass as the first predecessor reaching the maximum, which is the one the scalar version picks.
+     */
+    private static double calcViterbiBacktrackVarsVectorized(int[] observations, CompiledHMM hmm, double[] viterbiVar, int[] backtrackingVar, ViterbiLayout layout) {
+        var countStateSpace = hmm.getStateCount();
+        var logIncomingTransitions = hmm.getLogIncomingTransitions();
+        var logEmissions = hmm.getLogEmissions();
+        var stateOffsets = stateOffsets(layout);
+        var previousColumn = new double[countStateSpace];
+        var scores = new double[countStateSpace];
+
+        double maxProbability = 0.;
+        for (int observationIdx = 1; observationIdx <= observations.length; observationIdx++) {
+            var previousColumnOffset = layout.columnOffset(observationIdx - 1);
+            var currentColumn = layout.columnOffset(observationIdx);
+            var emissionRow = observations[observationIdx - 1] * countStateSpace;
+            for (int i = 0; i < countStateSpace; i++) {
+                previousColumn[i] = viterbiVar[previousColumnOffset + stateOffsets[i]];
+            }
+            for (int state = 0; state < countStateSpace; state++) {
+                var incomingTransitions = state * countStateSpace;
+                double maxScore = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < countStateSpace; i++) {
+                    double score = previousColumn[i] + logIncomingTransitions[incomingTransitions + i];
+                    scores[i] = score;
+                    maxScore = Math.max(maxScore, score);
+                }
+                int argMaxScore = 0;
+                while (argMaxScore < countStateSpace - 1 && scores[argMaxScore] != maxScore) {
+                    argMaxScore++;
+                }
+                maxScore += logEmissions[emissionRow + state];
+                viterbiVar[currentColumn + stateOffsets[state]] = maxScore;
                 maxProbability = maxScore;
-                backtrackingVar[state][observationIdx] = argMaxScore;
+                backtrackingVar[currentColumn + stateOffsets[state]] = argMaxScore;
             }
         }
         return maxProbability;
     }
 
-    private static int[] reconstructOptimalPath(int pathLength, int countStateSpace, int[][] backtrackingVar, double[][] viterbiVar) {
+    /**
+     * Calculates the viterbi path like {@link #calc(int[], CompiledHMM)}, but splits the observations into blocks of
+     * at least {@link #PARALLEL_MIN_BLOCK_LENGTH} observations which are calculated in parallel on pool. Meant for
+     * small models and very long observation streams, where the sequential recurrence cannot use more than one core.
+     * <ol>
+     * <li>For every block the max-plus transfer matrix is calculated, whose entry (p, s) is the log probability of
+     * the best path from state p before the block to state s at the end of the block.</li>
+     * <li>A scan applies the matrices one after another to the viterbi variables before the first block, which gives
+     * the viterbi variables before every block.</li>
+     * <li>Every block calculates its viterbi and backtracking variables from these, and for every state at its end
+     * the state before the block its best path comes from.</li>
+     * <li>Starting from the best final state these give the state at the end of every block, from which every block
+     * reconstructs its part of the path.</li>
+     * </ol>
+     * A transfer matrix costs |States| times a normal recurrence, so with P threads the runtime is about
+     * (|States| + 1) * L / P. The variables before a block are summed in a different order than in the sequential
+     * recurrence, so the log probability may differ in the last bits and paths of equal probability may be resolved
+     * differently.
+     *
+     * @param observations Sequence of observations, elements of [0, {@link CompiledHMM#getAlphabetSize()})
+     * @param hmm          the model
+     * @param pool         the threads to calculate the blocks with
+     * @return the viterbi path
+     */
+    public static ViterbiResult calcParallel(int[] observations, CompiledHMM hmm, ForkJoinPool pool) {
+        var blockCount = Math.min(PARALLEL_BLOCKS_PER_THREAD * pool.getParallelism(),
+                observations.length / PARALLEL_MIN_BLOCK_LENGTH);
+        return calcParallel(observations, hmm, pool, blockCount);
+    }
+
+    static ViterbiResult calcParallel(int[] observations, CompiledHMM hmm, ForkJoinPool pool, int blockCount) {
+        blockCount = Math.min(blockCount, observations.length);
+        if (blockCount <= 1) {
+            return calc(observations, hmm);
+        }
+        var stateCount = hmm.getStateCount();
+        var observationCount = observations.length;
+        var layout = new ColumnMajorLayout(stateCount, observationCount + 1);
+        var viterbiVar = new double[layout.size()];
+        var backtrackingVar = new int[layout.size()];
+        // block b covers the columns firstColumns[b] to firstColumns[b + 1] - 1
+        var firstColumns = new int[blockCount + 1];
+        for (var block = 0; block <= blockCount; block++) {
+            firstColumns[block] = 1 + (int) ((long) block * observationCount / blockCount);
+        }
+
+        // the variables of column 0 like in calc
+        var initialColumn = new double[stateCount];
+        initialColumn[0] = 1;
+
+        // transfer matrices, the first block only needs to advance the initial column
+        var entries = new double[blockCount * stateCount];
+        var transfers = new double[blockCount * stateCount * stateCount];
+        pool.invoke(new BlockTask(0, blockCount, block -> {
+            var vector = new double[stateCount];
+            var scratch = new double[stateCount];
+            if (block == 0) {
+                System.arraycopy(initialColumn, 0, entries, 0, stateCount);
+                System.arraycopy(initialColumn, 0, vector, 0, stateCount);
+                advance(observations, hmm, firstColumns[0], firstColumns[1] - 1, vector, scratch);
+                System.arraycopy(vector, 0, entries, stateCount, stateCount);
+                return;
+            }
+            for (var from = 0; from < stateCount; from++) {
+                Arrays.fill(vector, Double.NEGATIVE_INFINITY);
+                vector[from] = 0;
+                advance(observations, hmm, firstColumns[block], firstColumns[block + 1] - 1, vector, scratch);
+                System.arraycopy(vector, 0, transfers, (block * stateCount + from) * stateCount, stateCount);
+            }
+        }));
+
+        // scan, entries[b * |States| + s] is the viterbi variable of s in the column before block b
+        for (var block = 2; block < blockCount; block++) {
+            var previousEntry = (block - 1) * stateCount;
+            for (var state = 0; state < stateCount; state++) {
+                var max = Double.NEGATIVE_INFINITY;
+                for (var from = 0; from < stateCount; from++) {
+                    max = Math.max(max, entries[previousEntry + from]
+                            + transfers[((block - 1) * stateCount + from) * stateCount + state]);
+                }
+                entries[block * stateCount + state] = max;
+            }
+        }
+
+        // origins[b * |States| + s] is the state before block b on the best path to s at the end of block b
+        var origins = new int[blockCount * stateCount];
+        pool.invoke(new BlockTask(0, blockCount, block -> calcBlock(observations, hmm, firstColumns[block],
+                firstColumns[block + 1] - 1, entries, origins, block, viterbiVar, backtrackingVar, layout)));
+
+        // like reconstructOptimalPath, the reported probability is the one of the last state
+        var path = new int[observationCount];
+        var lastColumn = layout.columnOffset(observationCount);
+        var maxProbability = viterbiVar[lastColumn + stateCount - 1];
+        var endStates = new int[blockCount];
+        for (var state = 1; state < stateCount; state++) {
+            if (viterbiVar[lastColumn + state] > viterbiVar[lastColumn + endStates[blockCount - 1]]) {
+                endStates[blockCount - 1] = state;
+            }
+        }
+        for (var block = blockCount - 1; block > 0; block--) {
+            endStates[block - 1] = origins[block * stateCount + endStates[block]];
+        }
+        pool.invoke(new BlockTask(0, blockCount, block -> {
+            var state = endStates[block];
+            path[firstColumns[block + 1] - 2] = state;
+            for (var column = firstColumns[block + 1] - 1; column > firstColumns[block]; column--) {
+                state = backtrackingVar[layout.index(column, state)];
+                path[column - 2] = state;
+            }
+        }));
+        return new ViterbiResult(path, maxProbability);
+    }
+
+    /**
+     * Applies the recurrence of calcViterbiBacktrackVars to vector for the columns firstColumn to lastColumn without
+     * keeping any backtracking information.
+     */
+    private static void advance(int[] observations, CompiledHMM hmm, int firstColumn, int lastColumn, double[] vector,
+                                double[] scratch) {
+        var countStateSpace = hmm.getStateCount();
+        var predecessorOffsets = hmm.getPredecessorOffsets();
+        var predecessors = hmm.getPredecessors();
+        var predecessorTransitions = hmm.getPredecessorTransitions();
+        var logEmissions = hmm.getLogEmissions();
+        for (var column = firstColumn; column <= lastColumn; column++) {
+            var emissionRow = observations[column - 1] * countStateSpace;
+            for (var state = 0; state < countStateSpace; state++) {
+                var maxScore = Double.NEGATIVE_INFINITY;
+                for (var i = predecessorOffsets[state]; i < predecessorOffsets[state + 1]; i++) {
+                    maxScore = Math.max(maxScore, vector[predecessors[i]] + predecessorTransitions[i]);
+                }
+                scratch[state] = maxScore + logEmissions[emissionRow + state];
+            }
+            System.arraycopy(scratch, 0, vector, 0, countStateSpace);
+        }
+    }
+
+    /**
+     * Calculates the viterbi and backtracking variables of one block like calcViterbiBacktrackVars, starting from the
+     * variables entries[block * |States|, (block + 1) * |States|) of the column before the block, which belongs to
+     * the previous block and is written concurrently. Follows the backtracking variables of every state back to the
+     * column before the block on the way.
+     */
+    private static void calcBlock(int[] observations, CompiledHMM hmm, int firstColumn, int lastColumn,
+                                  double[] entries, int[] origins, int block, double[] viterbiVar,
+                                  int[] backtrackingVar, ViterbiLayout layout) {
+        var countStateSpace = hmm.getStateCount();
+        var predecessorOffsets = hmm.getPredecessorOffsets();
+        var predecessors = hmm.getPredecessors();
+        var predecessorTransitions = hmm.getPredecessorTransitions();
+        var logEmissions = hmm.getLogEmissions();
+        var previous = Arrays.copyOfRange(entries, block * countStateSpace, (block + 1) * countStateSpace);
+        var current = new double[countStateSpace];
+        var origin = new int[countStateSpace];
+        var currentOrigin = new int[countStateSpace];
+        for (var column = firstColumn; column <= lastColumn; column++) {
+            var currentColumn = layout.columnOffset(column);
+            var emissionRow = observations[column - 1] * countStateSpace;
+            for (var state = 0; state < countStateSpace; state++) {
+                double maxScore = Double.NEGATIVE_INFINITY;
+                int argMaxScore = 0;
+                for (var i = predecessorOffsets[state]; i < predecessorOffsets[state + 1]; i++) {
+                    double score = previous[predecessors[i]] + predecessorTransitions[i];
+                    if (score > maxScore) {
+                        maxScore = score;
+                        argMaxScore = predecessors[i];
+                    }
+                }
+                maxScore += logEmissions[emissionRow + state];
+                current[state] = maxScore;
+                viterbiVar[currentColumn + layout.stateOffset(state)] = maxScore;
+                backtrackingVar[currentColumn + layout.stateOffset(state)] = argMaxScore;
+                currentOrigin[state] = column == firstColumn ? argMaxScore : origin[argMaxScore];
+            }
+            var swap = previous;
+            previous = current;
+            current = swap;
+            var swapOrigin = origin;
+            origin = currentOrigin;
+            currentOrigin = swapOrigin;
+        }
+        System.arraycopy(origin, 0, origins, block * countStateSpace, countStateSpace);
+    }
+
+    /**
+     * Runs an action for every block of [start, end), splitting the range in halves down to single blocks.
+     */
+    private static class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final IntConsumer action;
+
+        BlockTask(int start, int end, IntConsumer action) {
+            this.start = start;
+            this.end = end;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                action.accept(start);
+                return;
+            }
+            var middle = (start + end) >>> 1;
+            invokeAll(new BlockTask(start, middle, action), new BlockTask(middle, end, action));
+        }
+    }
+
+    private static int[] reconstructOptimalPath(int pathLength, int countStateSpace, int[] backtrackingVar, double[] viterbiVar, ViterbiLayout layout) {
         int[] path = new int[pathLength];
         int last = path.length - 1;
         path[last] = 0;
-        double maxLastColumn = viterbiVar[0][last + 1];
+        double maxLastColumn = viterbiVar[layout.index(last + 1, 0)];
         for (int state = 1; state < countStateSpace; state++) {
-            if (viterbiVar[state][last + 1] > maxLastColumn) {
-                maxLastColumn = viterbiVar[state][last + 1];
+            if (viterbiVar[layout.index(last + 1, state)] > maxLastColumn) {
+                maxLastColumn = viterbiVar[layout.index(last + 1, state)];
                 path[last] = state;
             }
         }
         for (int observation = last; observation > 0; observation--) {
-            path[observation - 1] = backtrackingVar[path[observation]][observation + 1];
+            path[observation - 1] = backtrackingVar[layout.index(observation + 1, path[observation])];
         }
         return path;
     }
 
     public static ViterbiResult calc(int[] observations, ProfileHMM profileHMM) {
-        var transitionMatrix = profileHMM.getTransitionMatrix();
-        var emissionMatrix = profileHMM.getEmissionMatrix();
-        int countStateSpace = transitionMatrix.length;
-        double[][] viterbiVar = new double[countStateSpace][observations.length + 2];
-        int[][] backtrackingVar = new int[countStateSpace][observations.length + 2];
+        return calc(observations, profileHMM, new ColumnMajorLayout(profileHMM.getStateCount(), observations.length + 2));
+    }
+
+    /**
+     * Same as {@link #calc(int[], ProfileHMM)} with the viterbi and backtracking variables arranged according to
+     * layout.
+     *
+     * @param layout arrangement of the |States| x (|observations| + 2) viterbi matrix, column 0 holds the begin state
+     *               and column |observations| + 1 the end state
+     */
+    public static ViterbiResult calc(int[] observations, ProfileHMM profileHMM, ViterbiLayout layout) {
+        return calc(observations, profileHMM, layout, new ViterbiWorkspace());
+    }
+
+    /**
+     * Same as {@link #calc(int[], ProfileHMM)}, but the viterbi and backtracking variables are kept in the buffers of
+     * workspace instead of newly allocated arrays.
+     *
+     * @param workspace buffers to use, must not be used by another thread at the same time
+     */
+    public static ViterbiResult calc(int[] observations, ProfileHMM profileHMM, ViterbiWorkspace workspace) {
+        var layout = new ColumnMajorLayout(profileHMM.getStateCount(), observations.length + 2);
+        return calc(observations, profileHMM, layout, workspace);
+    }
 
-        viterbiVar[0][0] = 1;
+    private static ViterbiResult calc(int[] observations, ProfileHMM profileHMM, ViterbiLayout layout, ViterbiWorkspace workspace) {
+        checkLayout(layout, profileHMM.getStateCount(), observations.length + 2);
+        workspace.checkMemoryPressure();
+        double[] viterbiVar = workspace.viterbiVariables(layout.size());
+        int[] backtrackingVar = workspace.backtrackingVariables(layout.size());
 
-        toLog(viterbiVar);
+        // log(1) for the begin state, log(0) for all other cells. The begin state is never written after column 0
+        // but may be read during backtracking of impossible sequences, so its backtracking variables must be 0.
+        Arrays.fill(viterbiVar, 0, layout.size(), Double.NEGATIVE_INFINITY);
+        Arrays.fill(backtrackingVar, 0, layout.size(), 0);
+        viterbiVar[layout.index(0, 0)] = 0;
 
 
         /*
@@ -101,66 +515,98 @@ public class Viterbi {
             can be represented by doubles.
          */
 
-        double maxProbability = calcViterbiVars(observations, profileHMM, viterbiVar, backtrackingVar);
-        var path = reconstructOptimalPath(observations.length, profileHMM, backtrackingVar);
+        double maxProbability = calcViterbiVars(observations, profileHMM, viterbiVar, backtrackingVar, layout);
+        var path = reconstructOptimalPath(observations.length, profileHMM, backtrackingVar, layout);
         return new ViterbiResult(path, maxProbability);
     }
 
 
-    private static double calcViterbiVars(int[] observations, ProfileHMM profileHMM, double[][] viterbiVar, int[][] backtrackVars) {
-        var logTransitionMatrix = profileHMM.getTransitionMatrix();
+    /**
+     * Calculates only the log probability of the viterbi path of the observations through the profile HMM,
+     * without any backtracking information. To score many sequences against the same model create a
+     * {@link ProfileViterbi} once and call {@link ProfileViterbi#calcScore(int[])}.
+     *
+     * @param observations Sequence of observations
+     * @param profileHMM   the model
+     * @return the log probability of the viterbi path, the same as returned by {@link #calc(int[], ProfileHMM)}
+     */
+    public static double calcScore(int[] observations, ProfileHMM profileHMM) {
+        return new ProfileViterbi(profileHMM).calcScore(observations);
+    }
+
+    private static double calcViterbiVars(int[] observations, ProfileHMM profileHMM, double[] viterbiVar, int[] backtrackVars, ViterbiLayout layout) {
+        // the compact transitions, the dense matrix would be built on every call for compact models
+        var logTransitions = profileHMM.getTransitions();
         var logEmissionMatrix = profileHMM.getEmissionMatrix();
-        var countStateSpace = logTransitionMatrix.length;
+        var countStateSpace = profileHMM.getStateCount();
+        var predecessorTable = profileHMM.getPredecessorTable();
+        var lastInsert = profileHMM.getLastInsert();
+        var stateOffsets = stateOffsets(layout);
         for (int observationIdx = 0; observationIdx < observations.length; observationIdx++) {
             // we begin at column 1;
             var viterbiIdx = observationIdx + 1;
+            var previousColumn = layout.columnOffset(viterbiIdx - 1);
+            var currentColumn = layout.columnOffset(viterbiIdx);
             for (int state = 1; state < countStateSpace; state++) {
-                var predecessorStates = profileHMM.getPossiblePredecessorIndeces(state);
-                var compoundProbabilities = new ArrayList<Map.Entry<Integer, Double>>();
-                for (int predecessor : predecessorStates) {
-                    if (state <= profileHMM.getLastInsert()) {
-                        var entry = new AbstractMap.SimpleEntry<>(
-                                predecessor,
-                                logEmissionMatrix[state][observations[observationIdx]] +
-                                        viterbiVar[predecessor][viterbiIdx - 1] +
-                                        logTransitionMatrix[predecessor][state]
-                        );
-                        compoundProbabilities.add(entry);
-                    } else {
-                        var entry = new AbstractMap.SimpleEntry<>(
-                                predecessor,
-                                viterbiVar[predecessor][viterbiIdx] +
-                                        logTransitionMatrix[predecessor][state]
-                        );
-                        compoundProbabilities.add(entry);
+                // match and insert states emit and their predecessors are in the previous column, delete states are
+                // silent and their predecessors are in the current column
+                var emitting = state <= lastInsert;
+                var predecessorColumn = emitting ? previousColumn : currentColumn;
+                var emission = emitting ? logEmissionMatrix[state][observations[observationIdx]] : 0;
+                // state is at the same slot of the successors of all its predecessors
+                var slot = profileHMM.successorSlot(state);
+                var max = Double.NEGATIVE_INFINITY;
+                var argMax = -1;
+                for (int i = 0; i < ProfileHMM.MAX_PREDECESSORS; i++) {
+                    var predecessor = predecessorTable[state * ProfileHMM.MAX_PREDECESSORS + i];
+                    if (predecessor < 0) {
+                        continue;
+                    }
+                    var score = emission + viterbiVar[predecessorColumn + stateOffsets[predecessor]] +
+                            logTransitions[predecessor * ProfileHMM.MAX_SUCCESSORS + slot];
+                    // ties go to the later predecessor
+                    if (argMax < 0 || score >= max) {
+                        max = score;
+                        argMax = predecessor;
                     }
                 }
-                var argMaxAndMax = getMaxAndArgMax(compoundProbabilities);
-                viterbiVar[state][viterbiIdx] = argMaxAndMax.getValue();
-                backtrackVars[state][viterbiIdx] = argMaxAndMax.getKey();
+                viterbiVar[currentColumn + stateOffsets[state]] = max;
+                backtrackVars[currentColumn + stateOffsets[state]] = argMax;
             }
         }
 
         // termination
-        var predecessorsToEndState = profileHMM.getPossiblePredecessorIndeces(profileHMM.getEndMatch());
-        ArrayList<Map.Entry<Integer, Double>> lastColumnValsAndPredStates = predecessorsToEndState
-                .stream()
-                .map(state -> new AbstractMap.SimpleEntry<>(state, viterbiVar[state][viterbiVar[0].length-2] + logTransitionMatrix[state][profileHMM.getEndMatch()]))
-                .collect(Collectors.toCollection(ArrayList::new));
-        var argMaxAndMax = getMaxAndArgMax(lastColumnValsAndPredStates);
-        viterbiVar[profileHMM.getEndMatch()][viterbiVar[0].length - 1] = argMaxAndMax.getValue();
-        backtrackVars[profileHMM.getEndMatch()][backtrackVars[0].length - 1] = argMaxAndMax.getKey();
-        return argMaxAndMax.getValue();
-    }
-
-    private static int[] reconstructOptimalPath(int observationCount, ProfileHMM profileHMM, int[][] backtrackingVar) {
+        var lastColumn = layout.columnCount() - 1;
+        var endMatch = profileHMM.getEndMatch();
+        var endSlot = profileHMM.successorSlot(endMatch);
+        var max = Double.NEGATIVE_INFINITY;
+        var argMax = -1;
+        for (int i = 0; i < ProfileHMM.MAX_PREDECESSORS; i++) {
+            var predecessor = predecessorTable[endMatch * ProfileHMM.MAX_PREDECESSORS + i];
+            if (predecessor < 0) {
+                continue;
+            }
+            var score = viterbiVar[layout.index(lastColumn - 1, predecessor)]
+                    + logTransitions[predecessor * ProfileHMM.MAX_SUCCESSORS + endSlot];
+            // ties go to the later predecessor
+            if (argMax < 0 || score >= max) {
+                max = score;
+                argMax = predecessor;
+            }
+        }
+        viterbiVar[layout.index(lastColumn, endMatch)] = max;
+        backtrackVars[layout.index(lastColumn, endMatch)] = argMax;
+        return max;
+    }
+
+    private static int[] reconstructOptimalPath(int observationCount, ProfileHMM profileHMM, int[] backtrackingVar, ViterbiLayout layout) {
         var revPath = new ArrayList<Integer>();
         revPath.add(profileHMM.getEndMatch());
 
         var observation = observationCount + 1;
 
         while (observation > 0) {
-            var prevState = backtrackingVar[revPath.get(revPath.size() -1)][observation];
+            var prevState = backtrackingVar[layout.index(observation, revPath.get(revPath.size() -1))];
             revPath.add(prevState);
             if (prevState <= profileHMM.getLastInsert() || observation == observationCount + 1) {
                 observation--;
@@ -173,20 +619,4 @@ public class Viterbi {
         }
         return returnPath;
     }
-
-    private static Map.Entry<Integer, Double> getMaxAndArgMax(List<Map.Entry<Integer, Double>> input) {
-        if (input.isEmpty()) {
-            throw new IllegalArgumentException("Can not call getMaxAndArgMax with empty List");
-        }
-        var iter = input.iterator();
-        var max = iter.next();
-
-        while (iter.hasNext()) {
-            var next = iter.next();
-            if (next.getValue() >= max.getValue()) {
-                max = next;
-            }
-        }
-        return max;
-    }
 }
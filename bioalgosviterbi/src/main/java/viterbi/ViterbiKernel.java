@@ -0,0 +1,48 @@
+package viterbi;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Implementations of the inner viterbi recurrence. All kernels return identical results.
+ */
+public enum ViterbiKernel {
+    /**
+     * Loops over all states and their predecessor lists, comparing the candidates with branches. Impossible
+     * transitions are not part of the predecessor lists.
+     */
+    SCALAR,
+    /**
+     * Sweeps the match, insert and delete states of a column in separate, branch free passes over contiguous arrays
+     * with constant offsets, which the JIT compiler turns into SIMD instructions. Delete to delete transitions form
+     * a dependency chain within the column and are propagated in an extra scalar pass afterwards.
+     */
+    VECTORIZED;
+
+    /**
+     * Chooses the kernel for the running JVM. The system property viterbi.kernel (scalar or vectorized) takes
+     * precedence, otherwise the vectorized kernel is used if the JIT compiler is active and auto vectorizes loops.
+     *
+     * @return the kernel to use
+     */
+    public static ViterbiKernel select() {
+        var property = System.getProperty("viterbi.kernel");
+        if (property != null && !property.trim().isEmpty()) {
+            return valueOf(property.trim().toUpperCase());
+        }
+        if (System.getProperty("java.vm.info", "").contains("interpreted mode")) {
+            return SCALAR;
+        }
+        try {
+            var diagnostics = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            if (diagnostics == null) {
+                return SCALAR;
+            }
+            return Boolean.parseBoolean(diagnostics.getVMOption("UseSuperWord").getValue()) ? VECTORIZED : SCALAR;
+        } catch (IllegalArgumentException | UnsupportedOperationException | LinkageError e) {
+            // not a HotSpot VM
+            return SCALAR;
+        }
+    }
+}
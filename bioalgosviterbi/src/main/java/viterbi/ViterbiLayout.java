@@ -0,0 +1,32 @@
+package viterbi;
+
+/**
+ * Arrangement of the cells of a viterbi matrix in one flat array. Cell (column, state) is stored at
+ * columnOffset(column) + stateOffset(state), so a kernel resolves a column once and addresses its states relative to
+ * it. The recurrence sweeps all states of one column after the other, so layouts which keep the states of a column
+ * close together touch far fewer cache lines than a double[state][column] matrix.
+ */
+public interface ViterbiLayout {
+    /**
+     * @return the number of array elements needed to store all cells
+     */
+    int size();
+
+    /**
+     * @return the number of columns
+     */
+    int columnCount();
+
+    /**
+     * @return the number of states per column
+     */
+    int stateCount();
+
+    int columnOffset(int column);
+
+    int stateOffset(int state);
+
+    default int index(int column, int state) {
+        return columnOffset(column) + stateOffset(state);
+    }
+}
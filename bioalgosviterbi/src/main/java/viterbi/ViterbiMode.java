@@ -0,0 +1,21 @@
+package viterbi;
+
+/**
+ * Variants of the profile viterbi algorithm, see {@link ProfileViterbi#calc(int[], ViterbiMode)}.
+ */
+public enum ViterbiMode {
+    /**
+     * Keeps the backtracking information of all cells, needs O(|States| * L) memory.
+     */
+    FULL,
+    /**
+     * Keeps only every sqrt(L)-th column and recomputes the segments during traceback,
+     * needs O(|States| * sqrt(L)) memory.
+     */
+    CHECKPOINTED,
+    /**
+     * Only calculates the log probability of the viterbi path, the returned path is empty.
+     * Keeps two columns and no backtracking information, needs O(|States|) memory.
+     */
+    SCORE_ONLY
+}
@@ -0,0 +1,284 @@
+package viterbi;
+
+import javax.management.NotificationEmitter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffers of the viterbi variables and the backtracking information which are reused from one sequence to the next.
+ * Without a workspace every call allocates arrays proportional to |States| x |Observations|, which become garbage
+ * immediately and, being larger than a region, churn the old generation of G1.
+ *
+ * A buffer grows to the largest size requested so far and is never made smaller, apart from {@link #shrink()}.
+ * Workspaces are not thread safe, {@link #forCurrentThread()} hands out one workspace per thread. Once the
+ * application called {@link #registerMemoryPressureListener()}, all workspaces drop their buffers before their next
+ * use when the heap is still more than {@link #MEMORY_PRESSURE_THRESHOLD} full after a garbage collection.
+ */
+public final class ViterbiWorkspace {
+    /**
+     * Fraction of the heap which has to be in use after a garbage collection to make the workspaces shrink.
+     */
+    public static final double MEMORY_PRESSURE_THRESHOLD = 0.8;
+
+    private static final ThreadLocal<ViterbiWorkspace> workspaces = ThreadLocal.withInitial(ViterbiWorkspace::new);
+    // incremented on memory pressure, every workspace shrinks once it sees a new value
+    private static final AtomicInteger shrinkRequests = new AtomicInteger();
+    private static final AtomicBoolean listenerRegistered = new AtomicBoolean();
+
+    private int seenShrinkRequests = shrinkRequests.get();
+
+    private double[] previousColumn;
+    private double[] currentColumn;
+    private byte[] slots;
+    private long[] traceback;
+    private double[] checkpoints;
+    private double[] segmentColumns;
+    private double[] viterbiVariables;
+    private int[] backtrackingVariables;
+    private int[] activeStates;
+    private int[] bands;
+    private double[] wavefrontEdges;
+    // columns of the reduced precision scores
+    private float[] previousFloatColumn;
+    private float[] currentFloatColumn;
+    private short[] previousShortColumn;
+    private short[] currentShortColumn;
+    private byte[] previousInexact;
+    private byte[] currentInexact;
+
+    /**
+     * @return the workspace of the calling thread
+     */
+    public static ViterbiWorkspace forCurrentThread() {
+        return workspaces.get();
+    }
+
+    /**
+     * Makes every workspace drop its buffers before its next use, as if the heap were running full.
+     */
+    public static void requestShrink() {
+        shrinkRequests.incrementAndGet();
+    }
+
+    /**
+     * Drops all buffers, they are allocated again on demand.
+     */
+    public void shrink() {
+        previousColumn = null;
+        currentColumn = null;
+        slots = null;
+        traceback = null;
+        checkpoints = null;
+        segmentColumns = null;
+        viterbiVariables = null;
+        backtrackingVariables = null;
+        activeStates = null;
+        bands = null;
+        wavefrontEdges = null;
+        previousFloatColumn = null;
+        currentFloatColumn = null;
+        previousShortColumn = null;
+        currentShortColumn = null;
+        previousInexact = null;
+        currentInexact = null;
+    }
+
+    /**
+     * @return the number of bytes held by the buffers
+     */
+    public long capacityBytes() {
+        return Double.BYTES * ((long) length(previousColumn) + length(currentColumn) + length(checkpoints)
+                + length(segmentColumns) + length(viterbiVariables) + length(wavefrontEdges))
+                + Long.BYTES * (long) length(traceback)
+                + Integer.BYTES * ((long) length(backtrackingVariables) + length(activeStates)
+                + length(bands))
+                + Float.BYTES * ((long) length(previousFloatColumn) + length(currentFloatColumn))
+                + Short.BYTES * ((long) length(previousShortColumn) + length(currentShortColumn))
+                + length(slots) + length(previousInexact) + length(currentInexact);
+    }
+
+    /**
+     * Shrinks the workspace if memory pressure was signalled since the last call. Called once at the start of
+     * every calculation, never while buffers are in use.
+     */
+    void checkMemoryPressure() {
+        var requests = shrinkRequests.get();
+        if (requests != seenShrinkRequests) {
+            seenShrinkRequests = requests;
+            shrink();
+        }
+    }
+
+    // the returned arrays have at least the requested length and arbitrary content
+
+    double[] previousColumn(int length) {
+        if (length(previousColumn) < length) {
+            previousColumn = new double[length];
+        }
+        return previousColumn;
+    }
+
+    double[] currentColumn(int length) {
+        if (length(currentColumn) < length) {
+            currentColumn = new double[length];
+        }
+        return currentColumn;
+    }
+
+    byte[] slots(int length) {
+        if (length(slots) < length) {
+            slots = new byte[length];
+        }
+        return slots;
+    }
+
+    long[] traceback(int length) {
+        if (length(traceback) < length) {
+            traceback = new long[length];
+        }
+        return traceback;
+    }
+
+    double[] checkpoints(int length) {
+        if (length(checkpoints) < length) {
+            checkpoints = new double[length];
+        }
+        return checkpoints;
+    }
+
+    double[] segmentColumns(int length) {
+        if (length(segmentColumns) < length) {
+            segmentColumns = new double[length];
+        }
+        return segmentColumns;
+    }
+
+    double[] viterbiVariables(int length) {
+        if (length(viterbiVariables) < length) {
+            viterbiVariables = new double[length];
+        }
+        return viterbiVariables;
+    }
+
+    int[] backtrackingVariables(int length) {
+        if (length(backtrackingVariables) < length) {
+            backtrackingVariables = new int[length];
+        }
+        return backtrackingVariables;
+    }
+
+    int[] activeStates(int length) {
+        if (length(activeStates) < length) {
+            activeStates = new int[length];
+        }
+        return activeStates;
+    }
+
+    int[] bands(int length) {
+        if (length(bands) < length) {
+            bands = new int[length];
+        }
+        return bands;
+    }
+
+    double[] wavefrontEdges(int length) {
+        if (length(wavefrontEdges) < length) {
+            wavefrontEdges = new double[length];
+        }
+        return wavefrontEdges;
+    }
+
+    float[] previousFloatColumn(int length) {
+        if (length(previousFloatColumn) < length) {
+            previousFloatColumn = new float[length];
+        }
+        return previousFloatColumn;
+    }
+
+    float[] currentFloatColumn(int length) {
+        if (length(currentFloatColumn) < length) {
+            currentFloatColumn = new float[length];
+        }
+        return currentFloatColumn;
+    }
+
+    short[] previousShortColumn(int length) {
+        if (length(previousShortColumn) < length) {
+            previousShortColumn = new short[length];
+        }
+        return previousShortColumn;
+    }
+
+    short[] currentShortColumn(int length) {
+        if (length(currentShortColumn) < length) {
+            currentShortColumn = new short[length];
+        }
+        return currentShortColumn;
+    }
+
+    byte[] previousInexact(int length) {
+        if (length(previousInexact) < length) {
+            previousInexact = new byte[length];
+        }
+        return previousInexact;
+    }
+
+    byte[] currentInexact(int length) {
+        if (length(currentInexact) < length) {
+            currentInexact = new byte[length];
+        }
+        return currentInexact;
+    }
+
+    private static int length(double[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    private static int length(long[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    private static int length(int[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    private static int length(byte[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    private static int length(float[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    private static int length(short[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    /**
+     * Sets the collection usage threshold of the heap pools to MEMORY_PRESSURE_THRESHOLD (unless the application
+     * already set one) and requests a shrink whenever it is exceeded. This changes JVM wide settings, so it is left
+     * to the application, calling it more than once has no further effect.
+     */
+    public static void registerMemoryPressureListener() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        if (!(memory instanceof NotificationEmitter) || !listenerRegistered.compareAndSet(false, true)) {
+            return;
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            var max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0
+                    && pool.getCollectionUsageThreshold() == 0) {
+                pool.setCollectionUsageThreshold((long) (max * MEMORY_PRESSURE_THRESHOLD));
+            }
+        }
+        ((NotificationEmitter) memory).addNotificationListener((notification, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                requestShrink();
+            }
+        }, null, null);
+    }
+}
@@ -0,0 +1,164 @@
+package fasta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class CompressedFASTAReaderTest {
+    private static final Map<Character, Integer> observationMap = Map.of('A', 0, 'C', 1, 'G', 2, 'U', 3);
+    private static final ForkJoinPool pool = new ForkJoinPool(3);
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    private static byte[] records() {
+        var text = new StringBuilder();
+        for (var i = 0; i < 300; i++) {
+            text.append(">").append(i).append("\n");
+            for (var line = 0; line <= i % 4; line++) {
+                text.append("ACGUUGCAGA".substring(line)).append("\n");
+            }
+        }
+        return text.toString().getBytes();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses bytes into BGZF blocks of at most blockSize input bytes, followed by the empty end of file block.
+     */
+    private static byte[] bgzf(byte[] bytes, int blockSize) {
+        var out = new ByteArrayOutputStream();
+        for (var start = 0; start < bytes.length; start += blockSize) {
+            writeBlock(out, bytes, start, Math.min(blockSize, bytes.length - start));
+        }
+        writeBlock(out, bytes, 0, 0);
+        return out.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, byte[] bytes, int start, int length) {
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes, start, length);
+        deflater.finish();
+        var compressed = new byte[length + 64];
+        var compressedSize = deflater.deflate(compressed);
+        deflater.end();
+        var crc = new CRC32();
+        crc.update(bytes, start, length);
+        var blockSize = 18 + compressedSize + 8;
+        var header = new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                (byte) (blockSize - 1), (byte) ((blockSize - 1) >> 8)};
+        out.write(header, 0, header.length);
+        out.write(compressed, 0, compressedSize);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, length);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        for (var i = 0; i < 4; i++) {
+            out.write(value >> (8 * i));
+        }
+    }
+
+    private static List<EncodedSequence> read(byte[] bytes, ReadMode mode) throws IOException {
+        var path = Files.createTempFile("records", ".fasta.gz");
+        try {
+            Files.write(path, bytes);
+            var sequences = new ArrayList<EncodedSequence>();
+            try (var reader = FASTAParser.open(path, observationMap, mode, pool, 3)) {
+                reader.forEachRemaining(sequences::add);
+            }
+            return sequences;
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void assertSameRecords(List<EncodedSequence> expected, List<EncodedSequence> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (var i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertArrayEquals(expected.get(i).getObservations(), actual.get(i).getObservations());
+        }
+    }
+
+    @Test
+    public void testCompressedFilesGiveSameRecords() throws IOException {
+        var expected = read(records(), ReadMode.SEQUENTIAL);
+        assertEquals(300, expected.size());
+        assertSameRecords(expected, read(gzip(records()), ReadMode.SEQUENTIAL));
+        assertSameRecords(expected, read(gzip(records()), ReadMode.PARALLEL_ORDERED));
+        for (var blockSize : new int[]{1, 7, 100, 1 << 16}) {
+            var bgzf = bgzf(records(), blockSize);
+            assertTrue(BGZFInputStream.isBGZF(bgzf, bgzf.length));
+            // without an executor the blocks are read as gzip members
+            assertSameRecords(expected, read(bgzf, ReadMode.SEQUENTIAL));
+            assertSameRecords(expected, read(bgzf, ReadMode.PARALLEL_UNORDERED));
+        }
+    }
+
+    @Test
+    public void testParseReadsCompressedFiles() throws IOException {
+        var path = Files.createTempFile("records", ".fasta.gz");
+        try {
+            Files.write(path, bgzf(records(), 50));
+            var sequences = FASTAParser.parse(path);
+            assertEquals(300, sequences.size());
+            assertArrayEquals("ACGUUGCAGA".toCharArray(), sequences.get(0).getSequence());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testWrongChecksumIsInvalid() throws IOException {
+        var bgzf = bgzf(records(), 100);
+        // the CRC32 of the first block
+        var firstBlockSize = (bgzf[16] & 0xff | (bgzf[17] & 0xff) << 8) + 1;
+        bgzf[firstBlockSize - 8] ^= 1;
+        read(bgzf, ReadMode.PARALLEL_ORDERED);
+    }
+
+    @Test
+    public void testInflatedSizeAboveBlockLimitIsInvalid() throws IOException {
+        for (var size : new int[]{-1, (1 << 16) + 1, Integer.MAX_VALUE}) {
+            var bgzf = bgzf(records(), 100);
+            // the ISIZE of the first block
+            var firstBlockSize = (bgzf[16] & 0xff | (bgzf[17] & 0xff) << 8) + 1;
+            for (var i = 0; i < 4; i++) {
+                bgzf[firstBlockSize - 4 + i] = (byte) (size >>> 8 * i);
+            }
+            try {
+                read(bgzf, ReadMode.PARALLEL_ORDERED);
+                fail();
+            } catch (UncheckedIOException e) {
+                assertEquals("Invalid BGZF block", e.getCause().getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package fasta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class FASTAIndexTest {
+    private static final Map<Character, Integer> observationMap = Map.of('A', 0, 'C', 1, 'G', 2, 'U', 3);
+    private static final String records = ">one first\nACGU\nAC\n>two\r\nGGGG\r\nGG\r\n>empty\n>three\nACG";
+
+    private static Path write(String text) throws IOException {
+        var path = Files.createTempFile("records", ".fasta");
+        Files.write(path, text.getBytes());
+        return path;
+    }
+
+    private static List<EncodedSequence> readAll(EncodedSequenceReader reader) throws IOException {
+        var sequences = new ArrayList<EncodedSequence>();
+        try (reader) {
+            reader.forEachRemaining(sequences::add);
+        }
+        return sequences;
+    }
+
+    private static void assertSameRecords(List<EncodedSequence> expected, List<EncodedSequence> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (var i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertArrayEquals(expected.get(i).getObservations(), actual.get(i).getObservations());
+        }
+    }
+
+    @Test
+    public void testBuildsSamtoolsIndex() throws IOException {
+        var path = write(records);
+        var fai = FASTAIndex.indexPath(path);
+        try {
+            var index = FASTAIndex.load(path);
+            assertTrue(Files.isRegularFile(fai));
+            assertEquals("one\t6\t11\t4\t5\ntwo\t6\t25\t4\t6\nempty\t0\t42\t0\t0\nthree\t3\t49\t3\t3\n",
+                    new String(Files.readAllBytes(fai)));
+            var read = FASTAIndex.read(fai);
+            assertEquals(index.size(), read.size());
+            for (var i = 0; i < index.size(); i++) {
+                assertEquals(index.getName(i), read.getName(i));
+                assertEquals(index.getEnd(i), read.getEnd(i));
+            }
+            assertEquals(1, index.indexOf("two"));
+            assertEquals(-1, index.indexOf("one first"));
+        } finally {
+            Files.deleteIfExists(fai);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testFetchesRecords() throws IOException {
+        var path = write(records);
+        try (var reader = new IndexedFASTAReader(path, FASTAIndex.build(path), observationMap)) {
+            var one = reader.fetch("one");
+            assertEquals("one first", one.getId());
+            assertArrayEquals(new byte[]{0, 1, 2, 3, 0, 1}, one.getObservations());
+            assertEquals("three", reader.fetch(3).getId());
+            assertArrayEquals(new byte[]{0, 1, 2}, reader.fetch(3).getObservations());
+            assertEquals(0, reader.fetch("empty").getLength());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testRangesGiveSameRecordsAsSequentialReading() throws IOException {
+        var text = new StringBuilder();
+        for (var i = 0; i < 100; i++) {
+            text.append(">").append(i).append(" record\n");
+            for (var line = 0; line < i % 4; line++) {
+                text.append("ACGUA\n");
+            }
+            text.append("GAUC".substring(i % 4)).append("\n");
+        }
+        var path = write(text.toString());
+        try {
+            var expected = readAll(new MappedFASTAReader(path, observationMap));
+            var index = FASTAIndex.build(path);
+            var ranged = new ArrayList<EncodedSequence>();
+            for (var from = 0; from < index.size(); from += 7) {
+                ranged.addAll(readAll(new IndexedFASTAReader(path, index, observationMap, from,
+                        Math.min(from + 7, index.size()))));
+            }
+            assertSameRecords(expected, ranged);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testWriteLeavesNoTemporaryFile() throws IOException {
+        var path = write(records);
+        var fai = FASTAIndex.indexPath(path);
+        try {
+            FASTAIndex.build(path).write(fai);
+            // a second write replaces the index
+            FASTAIndex.build(path).write(fai);
+            try (var files = Files.list(path.getParent())) {
+                assertEquals(0, files.filter(file -> file.getFileName().toString()
+                        .startsWith(fai.getFileName().toString())).filter(file -> !file.equals(fai)).count());
+            }
+            assertEquals(4, FASTAIndex.read(fai).size());
+        } finally {
+            Files.deleteIfExists(fai);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testRangeAfterLastRecordIsAnError() throws IOException {
+        var path = write(records);
+        try {
+            // the end may be after the last record
+            assertEquals(1, readAll(FASTAParser.open(path, observationMap, 3, 100)).size());
+            try {
+                FASTAParser.open(path, observationMap, 4, 100);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("after the last"));
+            }
+        } finally {
+            Files.deleteIfExists(FASTAIndex.indexPath(path));
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testLinesOfDifferentLengthCannotBeIndexed() throws IOException {
+        var path = write(">a\nAC\nACG\n");
+        try {
+            FASTAIndex.build(path);
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package fasta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class FASTAReaderTest {
+    private static List<FASTASequence> read(String text) {
+        var sequences = new ArrayList<FASTASequence>();
+        new FASTAReader(new BufferedReader(new StringReader(text))).forEachRemaining(sequences::add);
+        return sequences;
+    }
+
+    @Test
+    public void testJoinsLinesOfRecords() {
+        var sequences = read(">first record\nACG\nU\n>second\r\nGG\r\n");
+        assertEquals(2, sequences.size());
+        assertEquals("first record", sequences.get(0).getId());
+        assertArrayEquals("ACGU".toCharArray(), sequences.get(0).getSequence());
+        assertEquals("second", sequences.get(1).getId());
+        assertArrayEquals("GG".toCharArray(), sequences.get(1).getSequence());
+    }
+
+    @Test
+    public void testSkipsHeadersWithoutLines() {
+        var sequences = read(">empty\n>a\nA\n>last");
+        assertEquals(1, sequences.size());
+        assertEquals("a", sequences.get(0).getId());
+        // an empty line still makes a record
+        assertEquals(0, read(">a\n\n>b").get(0).getSequence().length);
+        assertEquals(0, read("").size());
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testLinesBeforeFirstHeaderAreInvalid() {
+        read("ACG\n>a\nA\n");
+    }
+
+    @Test
+    public void testStreamGivesSameRecordsAsParse() throws IOException {
+        var path = Files.createTempFile("records", ".fasta");
+        try {
+            var text = new StringBuilder();
+            for (var i = 0; i < 1000; i++) {
+                text.append(">").append(i).append("\nACGU\nUGCA\n");
+            }
+            Files.write(path, text.toString().getBytes());
+            var parsed = FASTAParser.parse(path);
+            List<FASTASequence> streamed;
+            try (var stream = FASTAParser.stream(path)) {
+                streamed = stream.collect(Collectors.toList());
+            }
+            assertEquals(1000, parsed.size());
+            assertEquals(parsed.size(), streamed.size());
+            for (var i = 0; i < parsed.size(); i++) {
+                assertEquals(parsed.get(i).getId(), streamed.get(i).getId());
+                assertArrayEquals(parsed.get(i).getSequence(), streamed.get(i).getSequence());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseThrowsIOException() throws IOException {
+        var path = Files.createTempFile("invalid", ".fasta");
+        try {
+            Files.write(path, "ACG\n".getBytes());
+            FASTAParser.parse(path);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testHasNextDoesNotSkipRecords() {
+        var reader = new FASTAReader(new BufferedReader(new StringReader(">a\nA\n>b\nC\n")));
+        reader.hasNext();
+        reader.hasNext();
+        assertEquals("a", reader.next().getId());
+        assertEquals("b", reader.next().getId());
+        assertFalse(reader.hasNext());
+    }
+}
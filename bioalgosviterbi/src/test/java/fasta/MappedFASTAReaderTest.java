@@ -0,0 +1,79 @@
+package fasta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class MappedFASTAReaderTest {
+    private static final Map<Character, Integer> observationMap = Map.of('A', 0, 'C', 1, 'G', 2, 'U', 3);
+
+    private static List<EncodedSequence> read(String text, int windowSize) throws IOException {
+        var path = Files.createTempFile("records", ".fasta");
+        try {
+            Files.write(path, text.getBytes());
+            var sequences = new ArrayList<EncodedSequence>();
+            try (var reader = new MappedFASTAReader(path, observationMap, windowSize)) {
+                reader.forEachRemaining(sequences::add);
+            }
+            return sequences;
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void assertSameRecords(String text, int windowSize) throws IOException {
+        var expected = new ArrayList<FASTASequence>();
+        new FASTAReader(new BufferedReader(new StringReader(text))).forEachRemaining(expected::add);
+        var actual = read(text, windowSize);
+        assertEquals(expected.size(), actual.size());
+        for (var i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertArrayEquals(expected.get(i).parseBasesToInt(observationMap), actual.get(i).toIntArray());
+        }
+    }
+
+    @Test
+    public void testGivesSameRecordsAsFASTAReader() throws IOException {
+        var texts = new String[]{
+                ">first record\nACG\nU\n>second\r\nGG\r\n",
+                ">empty\n>a\nA\n>last",
+                ">a\n\n>b",
+                ">a\rAC\rGU\r>b\nC",
+                ">a\nACGU",
+                "",
+        };
+        for (var text : texts) {
+            assertSameRecords(text, 1 << 20);
+            assertSameRecords(text, 3);
+        }
+    }
+
+    @Test
+    public void testRecordsCrossWindows() throws IOException {
+        var text = new StringBuilder();
+        for (var i = 0; i < 100; i++) {
+            text.append(">").append(i).append("\r\nACGUUGCA\r\nGAC\r\n");
+        }
+        assertSameRecords(text.toString(), 7);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testUnknownBaseIsInvalid() throws IOException {
+        read(">a\nACNG\n", 1 << 20);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testLinesBeforeFirstHeaderAreInvalid() throws IOException {
+        read("ACG\n>a\nA\n", 1 << 20);
+    }
+}
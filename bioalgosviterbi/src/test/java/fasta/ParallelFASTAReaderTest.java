@@ -0,0 +1,166 @@
+package fasta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelFASTAReaderTest {
+    private static final Map<Character, Integer> observationMap = Map.of('A', 0, 'C', 1, 'G', 2, 'U', 3);
+    private static final ForkJoinPool pool = new ForkJoinPool(3);
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    private static List<EncodedSequence> read(Path path, boolean ordered, long chunkSize) throws IOException {
+        var sequences = new ArrayList<EncodedSequence>();
+        try (var reader = new ParallelFASTAReader(path, observationMap, pool, 3, ordered, chunkSize)) {
+            reader.forEachRemaining(sequences::add);
+        }
+        return sequences;
+    }
+
+    private static List<EncodedSequence> readSequentially(Path path) throws IOException {
+        var sequences = new ArrayList<EncodedSequence>();
+        try (var reader = new MappedFASTAReader(path, observationMap)) {
+            reader.forEachRemaining(sequences::add);
+        }
+        return sequences;
+    }
+
+    private static void assertSameRecords(List<EncodedSequence> expected, List<EncodedSequence> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (var i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertArrayEquals(expected.get(i).getObservations(), actual.get(i).getObservations());
+        }
+    }
+
+    private static Path write(String text) throws IOException {
+        var path = Files.createTempFile("records", ".fasta");
+        Files.write(path, text.getBytes());
+        return path;
+    }
+
+    @Test
+    public void testChunksGiveSameRecordsAsSequentialReading() throws IOException {
+        var text = new StringBuilder();
+        for (var i = 0; i < 200; i++) {
+            text.append(">").append(i).append(i % 2 == 0 ? "\r\n" : "\n");
+            if (i % 7 == 0) {
+                // skipped header
+                text.append(">skipped\n");
+            }
+            for (var line = 0; line < i % 5; line++) {
+                text.append("ACGU".substring(line % 4)).append(i % 2 == 0 ? "\r\n" : "\n");
+            }
+            if (i % 11 == 0) {
+                // a record longer than many chunks
+                for (var j = 0; j < 50; j++) {
+                    text.append("GAUC");
+                }
+                text.append("\n");
+            }
+        }
+        var path = write(text.toString());
+        try {
+            var expected = readSequentially(path);
+            for (var chunkSize : new long[]{1, 2, 5, 13, 64, 1 << 20}) {
+                assertSameRecords(expected, read(path, true, chunkSize));
+
+                // the ids are not unique, the records are compared as multisets
+                Comparator<EncodedSequence> byContent = Comparator.comparing(
+                        sequence -> sequence.getId() + Arrays.toString(sequence.getObservations()));
+                var unordered = read(path, false, chunkSize);
+                unordered.sort(byContent);
+                var sorted = new ArrayList<>(expected);
+                sorted.sort(byContent);
+                assertSameRecords(sorted, unordered);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testRangesInsideLongRecordReadNothingPastTheirEnd() throws IOException {
+        var text = new StringBuilder(">long\n");
+        for (var line = 0; line < 500; line++) {
+            text.append("ACGUACGUACGUACGUACGU\n");
+        }
+        var path = write(text.toString());
+        try {
+            for (var start = 100L; start < Files.size(path); start += 100) {
+                // a window of one byte maps exactly the bytes that are read
+                try (var reader = new MappedFASTAReader(path, observationMap, start, start + 100, 1)) {
+                    assertFalse(reader.hasNext());
+                    assertTrue(reader.mappedEnd() <= start + 100);
+                }
+            }
+            var records = read(path, true, 100);
+            assertEquals(1, records.size());
+            assertEquals(10000, records.get(0).getLength());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testEmptyFileHasNoRecords() throws IOException {
+        var path = write("");
+        try {
+            assertEquals(0, read(path, true, 8).size());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testErrorsOfChunksAreThrown() throws IOException {
+        var path = write(">a\nACGU\n>b\nACNU\n>c\nA\n");
+        try {
+            read(path, true, 4);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testErrorsOfThreadsAreThrownInsteadOfWaiting() throws IOException {
+        var path = write(">a\nACGU\n>b\nACGU\n");
+        // fails while a chunk is read on the pool
+        var failingMap = new AbstractMap<Character, Integer>() {
+            @Override
+            public Set<Entry<Character, Integer>> entrySet() {
+                throw new OutOfMemoryError("chunk");
+            }
+        };
+        try (var reader = new ParallelFASTAReader(path, failingMap, pool, 3, true, 4)) {
+            reader.hasNext();
+            fail();
+        } catch (OutOfMemoryError e) {
+            assertEquals("chunk", e.getMessage());
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
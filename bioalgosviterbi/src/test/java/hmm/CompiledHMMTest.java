@@ -0,0 +1,45 @@
+package hmm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CompiledHMMTest {
+    @Test
+    public void testPredecessorListsSkipImpossibleTransitions() {
+        double[][] transitionMatrix = {
+                {0, 0.5, 0.5},
+                {0, 0.95, 0.05},
+                {0, 0.1, 0.9}
+        };
+        double[][] emissionMatrix = {
+                {0, 0},
+                {0.5, 0.5},
+                {0.9, 0.1}
+        };
+        var hmm = new CompiledHMM(transitionMatrix, emissionMatrix);
+
+        assertEquals(3, hmm.getStateCount());
+        assertEquals(2, hmm.getAlphabetSize());
+        assertEquals(6, hmm.getTransitionCount());
+        // nothing leads back to state 0
+        assertArrayEquals(new int[]{0, 0, 3, 6}, hmm.getPredecessorOffsets());
+        assertArrayEquals(new int[]{0, 1, 2, 0, 1, 2}, hmm.getPredecessors());
+        assertEquals(Math.log(0.05), hmm.getPredecessorTransitions()[4], 0);
+        assertEquals(Math.log(0.05), hmm.getLogTransition(1, 2), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, hmm.getLogTransition(2, 0), 0);
+        assertEquals(Math.log(0.1), hmm.getLogEmission(2, 1), 0);
+        assertEquals(0.5, transitionMatrix[0][1], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMatricesMustHaveSameStates() {
+        new CompiledHMM(new double[][]{{0.5, 0.5}, {0.5, 0.5}}, new double[][]{{1}});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransitionMatrixMustBeSquare() {
+        new CompiledHMM(new double[][]{{0.5, 0.5}, {1}}, new double[][]{{1}, {1}});
+    }
+}
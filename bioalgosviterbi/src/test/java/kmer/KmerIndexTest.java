@@ -0,0 +1,127 @@
+package kmer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import fasta.FASTASequence;
+import org.junit.Test;
+import util.Util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+public class KmerIndexTest {
+
+    private static int[] observations(String bases) {
+        var observationMap = Util.createObersavtionMap();
+        var observations = new int[bases.length()];
+        for (var i = 0; i < bases.length(); i++) {
+            observations[i] = observationMap.get(bases.charAt(i));
+        }
+        return observations;
+    }
+
+    @Test
+    public void testCountsSharedKmers() {
+        var sequences = List.of(
+                new FASTASequence("1", "AC-GT-ACGG".toCharArray()),
+                new FASTASequence("2", "TTN-TT".toCharArray()));
+        var kmerIndex = KmerIndex.build(sequences, '-', Util.createObersavtionMap(), 3);
+
+        // ACG CGT GTA TAC CGG, the gaps are skipped, N interrupts the k-mers of the second sequence
+        assertEquals(5, kmerIndex.size());
+        assertEquals(0, kmerIndex.countSharedKmers(observations("TTTTT")));
+        // ACG twice, CGT and TAC once
+        assertEquals(4, kmerIndex.countSharedKmers(observations("ACGTTACG")));
+        assertEquals(0, kmerIndex.countSharedKmers(observations("AC")));
+        assertEquals(6, kmerIndex.countSharedKmers(observations("ACGTACGG")));
+    }
+
+    @Test
+    public void testLongKmers() {
+        var bases = "ACGTTGCAAGCTTCGAACGTACCATGGTACA";
+        var kmerIndex = KmerIndex.build(List.of(new FASTASequence("1", bases.toCharArray())), '-',
+                Util.createObersavtionMap(), KmerIndex.MAX_K);
+
+        assertEquals(1, kmerIndex.size());
+        assertEquals(1, kmerIndex.countSharedKmers(observations("A" + bases + "G")));
+        assertEquals(0, kmerIndex.countSharedKmers(observations(bases.substring(1) + "G")));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        var sequences = List.of(new FASTASequence("1", "ACGTTGCAAGCTTCGAACGTACCATGGTAC".toCharArray()));
+        var kmerIndex = KmerIndex.build(sequences, '-', Util.createObersavtionMap(), 8);
+        var path = Files.createTempFile("kmerIndex", ".bin");
+        try {
+            kmerIndex.write(path);
+            var readIndex = KmerIndex.read(path);
+
+            assertEquals(8, readIndex.getK());
+            assertEquals(kmerIndex.size(), readIndex.size());
+            var query = observations("GGACGTTGCAAGCTTCGTACC");
+            assertEquals(kmerIndex.countSharedKmers(query), readIndex.countSharedKmers(query));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testWriteLeavesNoTemporaryFile() throws IOException {
+        var sequences = List.of(new FASTASequence("1", "ACGTTGCAAGCTTCGA".toCharArray()));
+        var directory = Files.createTempDirectory("kmerIndex");
+        var path = directory.resolve("kmerIndex.bin");
+        try {
+            KmerIndex.build(sequences, '-', Util.createObersavtionMap(), 8).write(path);
+            // a second write replaces the index
+            KmerIndex.build(sequences, '-', Util.createObersavtionMap(), 4).write(path);
+            try (var files = Files.list(directory)) {
+                assertEquals(1, files.count());
+            }
+            assertEquals(4, KmerIndex.read(path).getK());
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testIndexOfOtherTrainingSequencesIsRebuilt() throws IOException {
+        var observationMap = Util.createObersavtionMap();
+        var sequences = List.of(new FASTASequence("1", "ACGTTGCAAGCTTCGA".toCharArray()));
+        var path = Files.createTempFile("kmerIndex", ".bin");
+        try {
+            KmerIndex.build(sequences, '-', observationMap, 8).write(path);
+            var readIndex = KmerIndex.read(path);
+            assertTrue(readIndex.isBuiltFrom(sequences, '-', observationMap, 8));
+            assertFalse(readIndex.isBuiltFrom(sequences, '-', observationMap, 7));
+
+            // one changed base in the training data needs a new index
+            var changed = List.of(new FASTASequence("1", "ACGTTGCAAGCTTCGT".toCharArray()));
+            assertFalse(readIndex.isBuiltFrom(changed, '-', observationMap, 8));
+            assertFalse(readIndex.isBuiltFrom(List.of(sequences.get(0), sequences.get(0)), '-', observationMap, 8));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersionIsRejected() throws IOException {
+        var path = Files.createTempFile("kmerIndex", ".bin");
+        try {
+            // magic and version 2
+            Files.write(path, new byte[]{0x4b, 0x4d, 0x45, 0x52, 0, 0, 0, 2, 0, 0, 0, 8});
+            KmerIndex.read(path);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKTooLong() {
+        KmerIndex.build(List.of(new FASTASequence("1", "ACGT".toCharArray())), '-', Util.createObersavtionMap(),
+                KmerIndex.MAX_K + 1);
+    }
+}
@@ -0,0 +1,52 @@
+package kmer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+public class LongOpenHashSetTest {
+
+    @Test
+    public void testSameElementsAsHashSet() {
+        var random = new Random(1);
+        // starts too small and has to grow several times
+        var set = new LongOpenHashSet(4);
+        var expected = new HashSet<Long>();
+        for (var i = 0; i < 20000; i++) {
+            // few distinct values, so that many elements are added twice
+            var element = (long) random.nextInt(10000) << 20;
+            assertEquals(expected.add(element), set.add(element));
+        }
+        assertEquals(expected.size(), set.size());
+        for (var i = 0; i < 20000; i++) {
+            var element = (long) random.nextInt(20000) << 20;
+            assertEquals(expected.contains(element), set.contains(element));
+        }
+
+        var elements = set.toArray();
+        Arrays.sort(elements);
+        var expectedElements = expected.stream().mapToLong(Long::longValue).sorted().toArray();
+        assertTrue(Arrays.equals(expectedElements, elements));
+    }
+
+    @Test
+    public void testZeroIsAnElement() {
+        var set = new LongOpenHashSet(0);
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertTrue(set.contains(0));
+        assertFalse(set.add(0));
+        assertEquals(1, set.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeElementsAreRejected() {
+        new LongOpenHashSet(1).add(-1);
+    }
+}
@@ -0,0 +1,40 @@
+package phmm;
+
+import fasta.FASTASequence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import util.Util;
+
+import java.util.List;
+
+public class NullModelTest {
+
+    @Test
+    public void testUniformLogProbability() {
+        var nullModel = NullModel.uniform(4);
+        var observations = new int[]{0, 1, 2, 3, 3};
+
+        // geometric length distribution with mean 5 and a probability of 1/4 per observation
+        var expected = 5 * Math.log(5. / 6) + Math.log(1. / 6) + 5 * Math.log(0.25);
+        assertEquals(expected, nullModel.logProbability(observations), 1e-12);
+        assertEquals(0, nullModel.logProbability(new int[0]), 0);
+        assertEquals(0, nullModel.bitScore(expected, observations), 1e-12);
+        assertEquals(1, nullModel.bitScore(expected + Math.log(2), observations), 1e-12);
+    }
+
+    @Test
+    public void testFrequenciesFromSequences() {
+        var sequences = List.of(
+                new FASTASequence("1", new char[]{'A', 'A', '-', 'C'}),
+                new FASTASequence("2", new char[]{'A', 'N', 'G', '-'}));
+
+        // A: 3 + 1, C: 1 + 1, G: 1 + 1, T: 0 + 1
+        var nullModel = NullModel.fromSequences(sequences, '-', Util.createObersavtionMap(), 1);
+        var lengthTerm = Math.log(1. / 2) + Math.log(1. / 2);
+
+        assertEquals(lengthTerm + Math.log(4. / 9), nullModel.logProbability(new int[]{0}), 1e-12);
+        assertEquals(lengthTerm + Math.log(1. / 9), nullModel.logProbability(new int[]{3}), 1e-12);
+        assertTrue(nullModel.bitScore(0, new int[]{3}) > nullModel.bitScore(0, new int[]{0}));
+    }
+}
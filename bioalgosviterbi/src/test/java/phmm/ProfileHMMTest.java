@@ -2,6 +2,8 @@ package phmm;
 
 import fasta.FASTASequence;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import util.Util;
 
@@ -349,4 +351,101 @@ public class ProfileHMMTest {
     }
 
 
+    @Test
+    public void testCompactTransitionsMatchDenseMatrix() {
+        var alignments = new ArrayList<ArrayList<FASTASequence>>();
+
+        var sequences = new ArrayList<FASTASequence>();
+        sequences.add(new FASTASequence("1", new char[]{'A', '-', '-', 'C'}));
+        sequences.add(new FASTASequence("2", new char[]{'A', '-', 'A', 'C'}));
+        sequences.add(new FASTASequence("3", new char[]{'-', 'T', 'A', '-'}));
+        sequences.add(new FASTASequence("4", new char[]{'-', 'A', '-', 'C'}));
+        sequences.add(new FASTASequence("5", new char[]{'A', '-', '-', '-'}));
+        alignments.add(sequences);
+
+        sequences = new ArrayList<FASTASequence>();
+        sequences.add(new FASTASequence("1", new char[]{'-', '-', '-', 'C', 'G', '-'}));
+        sequences.add(new FASTASequence("2", new char[]{'A', 'T', 'A', '-', 'G', 'A'}));
+        sequences.add(new FASTASequence("3", new char[]{'-', 'T', 'A', '-', '-', 'A'}));
+        sequences.add(new FASTASequence("4", new char[]{'-', 'A', 'C', 'C', 'G', '-'}));
+        sequences.add(new FASTASequence("5", new char[]{'A', '-', '-', '-', 'T', 'T'}));
+        alignments.add(sequences);
+
+        var observationMap = Util.createObersavtionMap();
+
+        for (var alignment : alignments) {
+            var denseHmm = new ProfileHMM(alignment, '-', observationMap, 1, 1, 1, 0.5);
+            var compactHmm = new ProfileHMM(alignment, '-', observationMap, 1, 1, 1, 0.5, true);
+
+            assertTrue(compactHmm.hasCompactTransitions());
+            assertArrayEquals(denseHmm.getTransitions(), compactHmm.getTransitions(), 0);
+            assertArrayEquals(denseHmm.getTransitionMatrix(), compactHmm.getTransitionMatrix());
+            assertArrayEquals(denseHmm.getEmissionMatrix(), compactHmm.getEmissionMatrix());
+        }
+    }
+
+    @Test
+    public void testSuccessorsAndPredecessorsAreConsistent() {
+        var sequences = new ArrayList<FASTASequence>();
+
+        sequences.add(new FASTASequence("1", new char[]{'-', '-', '-', 'C', 'G', '-'}));
+        sequences.add(new FASTASequence("2", new char[]{'A', 'T', 'A', '-', 'G', 'A'}));
+        sequences.add(new FASTASequence("3", new char[]{'-', 'T', 'A', '-', '-', 'A'}));
+
+        var profileHmm = new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5);
+
+        for (var state = 0; state < profileHmm.getStateCount(); state++) {
+            for (int successor : profileHmm.getPossibleSuccessorIndeces(state)) {
+                assertTrue(profileHmm.getPossiblePredecessorIndeces(successor).contains(state));
+            }
+            if (state == profileHmm.getBeginMatch()) {
+                continue;
+            }
+            for (int predecessor : profileHmm.getPossiblePredecessorIndeces(state)) {
+                assertTrue(profileHmm.getPossibleSuccessorIndeces(predecessor).contains(state));
+            }
+        }
+    }
+
+    @Test
+    public void testReestimateAppliesPseudocounts() {
+        var sequences = new ArrayList<FASTASequence>();
+        sequences.add(new FASTASequence("1", new char[]{'A', '-', '-', 'C', 'G', '-'}));
+        sequences.add(new FASTASequence("2", new char[]{'A', 'T', 'A', '-', 'G', 'A'}));
+        sequences.add(new FASTASequence("3", new char[]{'-', 'T', 'A', '-', '-', 'A'}));
+        var observationMap = Util.createObersavtionMap();
+
+        for (var compact : new boolean[]{false, true}) {
+            var profileHmm = new ProfileHMM(sequences, '-', observationMap, 1, 1, 1, 0.5, compact);
+            var stateCount = profileHmm.getStateCount();
+            var transitionCounts = new double[stateCount * ProfileHMM.MAX_SUCCESSORS];
+            var emissionCounts = new double[(profileHmm.getLastInsert() + 1) * observationMap.size()];
+            // state 1 emitted 96 times A and always went on to match state 2
+            emissionCounts[observationMap.size()] = 96;
+            transitionCounts[ProfileHMM.MAX_SUCCESSORS] = 96;
+
+            var reestimated = profileHmm.reestimate(transitionCounts, emissionCounts);
+
+            assertEquals(compact, reestimated.hasCompactTransitions());
+            assertEquals(Math.log(97 / 100.), reestimated.getEmissionMatrix()[1][0], 1e-12);
+            assertEquals(Math.log(1 / 100.), reestimated.getEmissionMatrix()[1][1], 1e-12);
+            assertEquals(Math.log(97 / 99.), reestimated.getTransitions()[ProfileHMM.MAX_SUCCESSORS], 1e-12);
+            for (var state = 0; state < stateCount; state++) {
+                var successors = profileHmm.getPossibleSuccessorIndeces(state);
+                if (state == profileHmm.getEndMatch() || state == 1) {
+                    continue;
+                }
+                for (var i = 0; i < ProfileHMM.MAX_SUCCESSORS; i++) {
+                    var successor = profileHmm.getSuccessorTable()[state * ProfileHMM.MAX_SUCCESSORS + i];
+                    var expected = successor < 0 ? Double.NEGATIVE_INFINITY : -Math.log(successors.size());
+                    assertEquals(expected, reestimated.getTransitions()[state * ProfileHMM.MAX_SUCCESSORS + i], 1e-12);
+                }
+            }
+            assertArrayEquals(reestimated.getTransitionMatrix(), new ProfileHMM(sequences, '-', observationMap, 1, 1,
+                    1, 0.5, !compact).reestimate(transitionCounts, emissionCounts).getTransitionMatrix());
+            // the model itself is not changed
+            assertArrayEquals(new ProfileHMM(sequences, '-', observationMap, 1, 1, 1, 0.5).getEmissionMatrix(),
+                    profileHmm.getEmissionMatrix());
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import viterbi.ViterbiWorkspace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MemoryBudgetSchedulerTest {
+    /**
+     * Job which only sleeps and records how many bytes and jobs are in use at the same time.
+     */
+    private static class SleepingJob implements MemoryBudgetScheduler.Job<Integer> {
+        private final int value;
+        private final long bytes;
+        private final AtomicLong usedBytes;
+        private final AtomicLong peakBytes;
+        private final AtomicInteger running;
+        private final AtomicInteger peakRunning;
+
+        SleepingJob(int value, long bytes, AtomicLong usedBytes, AtomicLong peakBytes, AtomicInteger running,
+                    AtomicInteger peakRunning) {
+            this.value = value;
+            this.bytes = bytes;
+            this.usedBytes = usedBytes;
+            this.peakBytes = peakBytes;
+            this.running = running;
+            this.peakRunning = peakRunning;
+        }
+
+        @Override
+        public long workspaceBytes() {
+            return 0;
+        }
+
+        @Override
+        public long transientBytes() {
+            return bytes;
+        }
+
+        @Override
+        public Integer run(ViterbiWorkspace workspace) {
+            peakBytes.accumulateAndGet(usedBytes.addAndGet(bytes), Math::max);
+            peakRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            usedBytes.addAndGet(-bytes);
+            return value;
+        }
+    }
+
+    private static class FailingJob implements MemoryBudgetScheduler.Job<Integer> {
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final int failures;
+
+        FailingJob(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public long workspaceBytes() {
+            return 0;
+        }
+
+        @Override
+        public long transientBytes() {
+            return 1;
+        }
+
+        @Override
+        public Integer run(ViterbiWorkspace workspace) {
+            if (attempts.incrementAndGet() <= failures) {
+                throw new OutOfMemoryError();
+            }
+            return attempts.get();
+        }
+    }
+
+    @Test
+    public void testBudgetIsNeverExceeded() throws InterruptedException {
+        var random = new Random(1);
+        var usedBytes = new AtomicLong();
+        var peakBytes = new AtomicLong();
+        var running = new AtomicInteger();
+        var peakRunning = new AtomicInteger();
+        var jobs = new ArrayList<SleepingJob>();
+        for (var i = 0; i < 200; i++) {
+            // mostly short sequences and a few long ones
+            var bytes = random.nextInt(10) == 0 ? 400 + random.nextInt(500) : 1 + random.nextInt(100);
+            jobs.add(new SleepingJob(i, bytes, usedBytes, peakBytes, running, peakRunning));
+        }
+
+        List<Integer> results;
+        try (var scheduler = new MemoryBudgetScheduler(1000, 4)) {
+            results = scheduler.run(jobs);
+            assertTrue(scheduler.getPeakReservedBytes() <= 1000);
+        }
+
+        for (var i = 0; i < jobs.size(); i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+        assertTrue(peakBytes.get() <= 1000);
+        assertTrue(peakRunning.get() <= 4);
+        // short sequences run next to the long ones
+        assertTrue(peakRunning.get() > 1);
+    }
+
+    @Test
+    public void testJobLargerThanBudgetRunsAlone() throws InterruptedException {
+        var usedBytes = new AtomicLong();
+        var peakBytes = new AtomicLong();
+        var running = new AtomicInteger();
+        var peakRunning = new AtomicInteger();
+        var jobs = new ArrayList<SleepingJob>();
+        for (var i = 0; i < 20; i++) {
+            jobs.add(new SleepingJob(i, i == 10 ? 5000 : 10, usedBytes, peakBytes, running, peakRunning));
+        }
+
+        try (var scheduler = new MemoryBudgetScheduler(1000, 4)) {
+            var results = scheduler.run(jobs);
+            assertEquals(10, (int) results.get(10));
+            assertEquals(5000, scheduler.getPeakReservedBytes());
+        }
+        // the large job must not have overlapped with any other
+        assertEquals(5000, peakBytes.get());
+    }
+
+    @Test
+    public void testRetainedBytesStayReservedUntilRunReturns() throws InterruptedException {
+        var running = new AtomicInteger();
+        var peakRunning = new AtomicInteger();
+        var jobs = new ArrayList<SleepingJob>();
+        for (var i = 0; i < 8; i++) {
+            jobs.add(new SleepingJob(i, 0, new AtomicLong(), new AtomicLong(), running, peakRunning) {
+                @Override
+                public long retainedBytes() {
+                    return 400;
+                }
+            });
+        }
+
+        try (var scheduler = new MemoryBudgetScheduler(1000, 4)) {
+            for (var run = 0; run < 2; run++) {
+                var results = scheduler.run(jobs);
+                for (var i = 0; i < jobs.size(); i++) {
+                    assertEquals(i, (int) results.get(i));
+                }
+            }
+            // the results of all 8 jobs of one run, the second run did not add to those of the first
+            assertEquals(8 * 400, scheduler.getPeakReservedBytes());
+        }
+        assertTrue(peakRunning.get() <= 2);
+    }
+
+    @Test
+    public void testOutOfMemoryIsRetriedOnce() throws InterruptedException {
+        var jobs = List.of(new FailingJob(0), new FailingJob(1), new FailingJob(2));
+
+        try (var scheduler = new MemoryBudgetScheduler(100, 2)) {
+            var results = scheduler.run(jobs);
+            assertEquals(1, (int) results.get(0));
+            assertEquals(2, (int) results.get(1));
+            assertNull(results.get(2));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExceptionIsRethrown() throws InterruptedException {
+        var job = new MemoryBudgetScheduler.Job<Integer>() {
+            @Override
+            public long workspaceBytes() {
+                return 0;
+            }
+
+            @Override
+            public long transientBytes() {
+                return 0;
+            }
+
+            @Override
+            public Integer run(ViterbiWorkspace workspace) {
+                throw new IllegalStateException();
+            }
+        };
+        try (var scheduler = new MemoryBudgetScheduler(100, 2)) {
+            scheduler.run(List.of(job));
+        }
+    }
+}
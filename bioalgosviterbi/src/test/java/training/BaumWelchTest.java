@@ -0,0 +1,122 @@
+package training;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import fasta.FASTASequence;
+import org.junit.Test;
+import phmm.ProfileHMM;
+import util.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BaumWelchTest {
+    private static final char[] bases = {'A', 'C', 'G', 'T'};
+
+    /**
+     * Random alignment of mutated copies of one ancestor, some columns are mostly gaps.
+     */
+    private static List<FASTASequence> randomAlignment(Random random, int sequenceCount, int columnCount) {
+        var ancestor = new char[columnCount];
+        var gapFrequencies = new double[columnCount];
+        for (var column = 0; column < columnCount; column++) {
+            ancestor[column] = bases[random.nextInt(4)];
+            gapFrequencies[column] = random.nextDouble() < 0.2 ? 0.8 : 0.05;
+        }
+        var sequences = new ArrayList<FASTASequence>();
+        for (var i = 0; i < sequenceCount; i++) {
+            var sequence = new char[columnCount];
+            for (var column = 0; column < columnCount; column++) {
+                if (random.nextDouble() < gapFrequencies[column]) {
+                    sequence[column] = '-';
+                } else {
+                    sequence[column] = random.nextDouble() < 0.8 ? ancestor[column] : bases[random.nextInt(4)];
+                }
+            }
+            sequences.add(new FASTASequence(String.valueOf(i), sequence));
+        }
+        return sequences;
+    }
+
+    private static List<int[]> withoutGaps(List<FASTASequence> alignment) {
+        var observationMap = Util.createObersavtionMap();
+        var sequences = new ArrayList<int[]>();
+        for (var sequence : alignment) {
+            var observations = new ArrayList<Integer>();
+            for (var base : sequence.getSequence()) {
+                if (base != '-') {
+                    observations.add(observationMap.get(base));
+                }
+            }
+            sequences.add(observations.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return sequences;
+    }
+
+    @Test
+    public void testTrainingImprovesLogLikelihood() {
+        var random = new Random(1);
+        var alignment = randomAlignment(random, 200, 40);
+        // the model only sees a few sequences of the alignment, the refinement all of them
+        var profileHmm = new ProfileHMM(alignment.subList(0, 5), '-', Util.createObersavtionMap(), 1, 1, 1, 0.5, true);
+        var sequences = withoutGaps(alignment);
+        var baumWelch = new BaumWelch(10, 1e-4, 2);
+
+        var trained = baumWelch.train(profileHmm, sequences);
+
+        var before = baumWelch.logLikelihood(profileHmm, sequences);
+        var after = baumWelch.logLikelihood(trained, sequences);
+        assertTrue(after > before);
+        // one iteration never does better than ten
+        assertTrue(after >= baumWelch.logLikelihood(new BaumWelch(1, 1e-4, 2).train(profileHmm, sequences),
+                sequences));
+    }
+
+    @Test
+    public void testRefineReportsLogLikelihoodsOfBothModels() {
+        var random = new Random(4);
+        var alignment = randomAlignment(random, 50, 30);
+        var profileHmm = new ProfileHMM(alignment.subList(0, 5), '-', Util.createObersavtionMap(), 1, 1, 1, 0.5, true);
+        var sequences = withoutGaps(alignment);
+        var baumWelch = new BaumWelch(5, 1e-4, 2);
+
+        var result = baumWelch.refine(profileHmm, sequences);
+
+        // the forward sums of the expected counts are approximated differently, so the values differ slightly
+        var initial = baumWelch.logLikelihood(profileHmm, sequences);
+        var refined = baumWelch.logLikelihood(result.getModel(), sequences);
+        assertEquals(initial, result.getInitialLogLikelihood(), 1e-5 * Math.abs(initial));
+        assertEquals(refined, result.getLogLikelihood(), 1e-5 * Math.abs(refined));
+        assertTrue(result.getIterations() > 0);
+    }
+
+    @Test
+    public void testParallelismGivesSameModel() {
+        var random = new Random(2);
+        var alignment = randomAlignment(random, 50, 30);
+        var profileHmm = new ProfileHMM(alignment, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5, true);
+        var sequences = withoutGaps(alignment);
+
+        var sequential = new BaumWelch(3, 0, 1).train(profileHmm, sequences);
+        var parallel = new BaumWelch(3, 0, 4).train(profileHmm, sequences);
+
+        // only the order of the additions differs
+        assertArrayEquals(sequential.getTransitions(), parallel.getTransitions(), 1e-9);
+        for (var state = 0; state < sequential.getEmissionMatrix().length; state++) {
+            assertArrayEquals(sequential.getEmissionMatrix()[state], parallel.getEmissionMatrix()[state], 1e-9);
+        }
+    }
+
+    @Test
+    public void testNoIterationsKeepsModel() {
+        var random = new Random(3);
+        var alignment = randomAlignment(random, 10, 20);
+        var profileHmm = new ProfileHMM(alignment, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5);
+
+        assertSame(profileHmm, new BaumWelch(0, 1e-4, 2).train(profileHmm, withoutGaps(alignment)));
+    }
+}
@@ -0,0 +1,102 @@
+package viterbi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fasta.FASTASequence;
+import org.junit.Test;
+import phmm.ProfileHMM;
+import util.Util;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class BandedViterbiTest {
+    private static final char[] bases = {'A', 'C', 'G', 'T'};
+
+    /**
+     * Copy of the consensus with substitutions and a few short insertions and deletions, as observations.
+     */
+    private static int[] mutate(Random random, int[] consensus) {
+        var observations = new ArrayList<Integer>();
+        for (var base : consensus) {
+            var event = random.nextDouble();
+            if (event < 0.02) {
+                continue;
+            }
+            observations.add(random.nextDouble() < 0.9 ? base : random.nextInt(4));
+            if (event > 0.98) {
+                observations.add(random.nextInt(4));
+            }
+        }
+        return observations.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static ProfileHMM collinearModel(Random random, int[] consensus) {
+        var sequences = new ArrayList<FASTASequence>();
+        for (var i = 0; i < 20; i++) {
+            var sequence = new char[consensus.length];
+            for (var column = 0; column < consensus.length; column++) {
+                sequence[column] = random.nextDouble() < 0.05 ? '-'
+                        : bases[random.nextDouble() < 0.9 ? consensus[column] : random.nextInt(4)];
+            }
+            sequences.add(new FASTASequence(String.valueOf(i), sequence));
+        }
+        return new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5);
+    }
+
+    @Test
+    public void testWholeModelBandGivesSameResult() {
+        var random = new Random(41);
+        var workspace = new ViterbiWorkspace();
+        for (var model = 0; model < 20; model++) {
+            var profileHmm = ProfileViterbiTest.randomProfileHMM(random, 2 + random.nextInt(20),
+                    1 + random.nextInt(40));
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            var bandedViterbi = new BandedViterbi(profileHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = ProfileViterbiTest.randomObservations(random, random.nextInt(60));
+                var expected = profileViterbi.calcBeam(observations, Double.POSITIVE_INFINITY);
+                var actual = bandedViterbi.calc(observations, profileHmm.getEndMatch(), workspace);
+                assertArrayEquals(expected.getViterbiPath(), actual.getViterbiPath());
+                assertEquals(profileViterbi.calc(observations).getMaxProbability(), actual.getMaxProbability(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testNarrowBandIsWidenedToAValidPath() {
+        var random = new Random(43);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = ProfileViterbiTest.randomProfileHMM(random, 2 + random.nextInt(20),
+                    1 + random.nextInt(40));
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            var bandedViterbi = new BandedViterbi(profileHmm);
+            for (var length : new int[]{1, 10, 100}) {
+                var observations = ProfileViterbiTest.randomObservations(random, length);
+                var result = bandedViterbi.calc(observations, 0);
+                assertTrue(result.getMaxProbability() <= profileViterbi.calc(observations).getMaxProbability());
+                assertEquals(result.getMaxProbability(), ProfileViterbiTest.pathLogProbability(profileHmm,
+                        result.getViterbiPath(), observations), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testNarrowBandFindsCollinearPath() {
+        var random = new Random(47);
+        var consensus = ProfileViterbiTest.randomObservations(random, 1000);
+        var profileHmm = collinearModel(random, consensus);
+        var profileViterbi = new ProfileViterbi(profileHmm);
+        var bandedViterbi = new BandedViterbi(profileHmm);
+        var workspace = new ViterbiWorkspace();
+        for (var sequence = 0; sequence < 5; sequence++) {
+            var observations = mutate(random, consensus);
+            assertEquals(profileViterbi.calc(observations).getMaxProbability(),
+                    bandedViterbi.calc(observations, 8, workspace).getMaxProbability(), 0);
+        }
+        // the band is far from being widened to the whole model
+        assertTrue(workspace.capacityBytes() < bandedViterbi.workspaceBytes(consensus.length) / 10);
+    }
+}
@@ -0,0 +1,107 @@
+package viterbi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fasta.FASTASequence;
+import org.junit.Test;
+import phmm.NullModel;
+import phmm.ProfileHMM;
+import util.Util;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class MsvFilterTest {
+
+    /**
+     * Tries every assignment of the residues to a match state or to no state (0) and scores it like the MSV
+     * configuration: consecutive residues on consecutive match states form one diagonal, every diagonal costs the
+     * entry and exit transitions, every unaligned residue the loop transition.
+     */
+    private static double bruteForceScore(int[] observations, ProfileHMM profileHmm, NullModel nullModel) {
+        var matchCount = profileHmm.getEndMatch() - 1;
+        var length = observations.length;
+        var loop = Math.log(length / (length + 3.));
+        var move = Math.log(3. / (length + 3.));
+        var entry = Math.log(2. / (matchCount * (matchCount + 1.)));
+        var labels = new int[length];
+        var best = Double.NEGATIVE_INFINITY;
+        while (true) {
+            var score = move;
+            var segments = 0;
+            for (var i = 0; i < length; i++) {
+                if (labels[i] == 0) {
+                    score += loop;
+                    continue;
+                }
+                if (i == 0 || labels[i - 1] == 0 || labels[i - 1] + 1 != labels[i]) {
+                    segments++;
+                    score += move + entry + Math.log(0.5);
+                }
+                score += profileHmm.getEmissionMatrix()[labels[i]][observations[i]]
+                        - nullModel.logFrequency(observations[i]);
+            }
+            if (segments > 0) {
+                best = Math.max(best, score);
+            }
+
+            var i = 0;
+            while (i < length && labels[i] == matchCount) {
+                labels[i++] = 0;
+            }
+            if (i == length) {
+                break;
+            }
+            labels[i]++;
+        }
+        return (best - nullModel.lengthLogProbability(length)) / Math.log(2);
+    }
+
+    @Test
+    public void testSameScoreAsBruteForce() {
+        var random = new Random(1);
+        var nullModel = new NullModel(new double[]{0.2, 0.3, 0.3, 0.2});
+        for (var model = 0; model < 20; model++) {
+            var profileHmm = ProfileViterbiTest.randomProfileHMM(random, 2 + random.nextInt(10),
+                    1 + random.nextInt(5));
+            if (profileHmm.getEndMatch() - 1 > 4) {
+                continue;
+            }
+            var msvFilter = new MsvFilter(profileHmm, nullModel);
+            var workspace = new ViterbiWorkspace();
+            for (var sequence = 0; sequence < 5; sequence++) {
+                var observations = ProfileViterbiTest.randomObservations(random, 1 + random.nextInt(6));
+                assertEquals(bruteForceScore(observations, profileHmm, nullModel),
+                        msvFilter.calcScore(observations, workspace), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testRelatedSequencesScoreHigher() {
+        var random = new Random(2);
+        var consensus = ProfileViterbiTest.randomObservations(random, 60);
+        var bases = new char[]{'A', 'C', 'G', 'T'};
+        var sequences = new ArrayList<FASTASequence>();
+        for (var i = 0; i < 20; i++) {
+            var sequence = new char[consensus.length];
+            for (var column = 0; column < consensus.length; column++) {
+                sequence[column] = bases[random.nextDouble() < 0.9 ? consensus[column] : random.nextInt(4)];
+            }
+            sequences.add(new FASTASequence(String.valueOf(i), sequence));
+        }
+        var profileHmm = new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5);
+        var msvFilter = new MsvFilter(profileHmm, NullModel.uniform(4));
+
+        // a fragment of the consensus embedded in random residues
+        var related = ProfileViterbiTest.randomObservations(random, 100);
+        System.arraycopy(consensus, 10, related, 30, 40);
+        var relatedScore = msvFilter.calcScore(related);
+        assertTrue(relatedScore > 20);
+        for (var i = 0; i < 20; i++) {
+            assertTrue(msvFilter.calcScore(ProfileViterbiTest.randomObservations(random, 100)) < relatedScore - 10);
+        }
+        assertEquals(Double.NEGATIVE_INFINITY, msvFilter.calcScore(new int[0]), 0);
+    }
+}
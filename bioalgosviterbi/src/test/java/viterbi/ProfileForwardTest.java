@@ -0,0 +1,331 @@
+package viterbi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fasta.FASTASequence;
+import org.junit.Test;
+import phmm.ProfileHMM;
+import util.Util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ProfileForwardTest {
+    /**
+     * Straightforward forward algorithm with exact log sums over the dense transition matrix.
+     */
+    private static double exactForward(int[] observations, ProfileHMM profileHmm) {
+        var transitionMatrix = profileHmm.getTransitionMatrix();
+        var emissionMatrix = profileHmm.getEmissionMatrix();
+        var stateCount = profileHmm.getStateCount();
+        var previous = new double[stateCount];
+        Arrays.fill(previous, Double.NEGATIVE_INFINITY);
+        previous[profileHmm.getBeginMatch()] = 0;
+        for (var observation : observations) {
+            var current = new double[stateCount];
+            current[profileHmm.getBeginMatch()] = Double.NEGATIVE_INFINITY;
+            for (var state = 1; state < stateCount; state++) {
+                var emitting = state <= profileHmm.getLastInsert();
+                var column = emitting ? previous : current;
+                var sum = Double.NEGATIVE_INFINITY;
+                for (var predecessor : profileHmm.getPossiblePredecessorIndeces(state)) {
+                    sum = exactLogSum(sum, column[predecessor] + transitionMatrix[predecessor][state]);
+                }
+                current[state] = emitting ? emissionMatrix[state][observation] + sum : sum;
+            }
+            previous = current;
+        }
+        var sum = Double.NEGATIVE_INFINITY;
+        for (var predecessor : profileHmm.getPossiblePredecessorIndeces(profileHmm.getEndMatch())) {
+            sum = exactLogSum(sum, previous[predecessor] + transitionMatrix[predecessor][profileHmm.getEndMatch()]);
+        }
+        return sum;
+    }
+
+    /**
+     * All forward columns with exact log sums, column i after emitting i observations.
+     */
+    private static double[][] exactForwardColumns(int[] observations, ProfileHMM profileHmm) {
+        var transitionMatrix = profileHmm.getTransitionMatrix();
+        var emissionMatrix = profileHmm.getEmissionMatrix();
+        var stateCount = profileHmm.getStateCount();
+        var columns = new double[observations.length + 1][stateCount];
+        Arrays.fill(columns[0], Double.NEGATIVE_INFINITY);
+        columns[0][profileHmm.getBeginMatch()] = 0;
+        for (var column = 1; column <= observations.length; column++) {
+            columns[column][profileHmm.getBeginMatch()] = Double.NEGATIVE_INFINITY;
+            for (var state = 1; state < stateCount; state++) {
+                var emitting = state <= profileHmm.getLastInsert();
+                var predecessorColumn = columns[emitting ? column - 1 : column];
+                var sum = Double.NEGATIVE_INFINITY;
+                for (var predecessor : profileHmm.getPossiblePredecessorIndeces(state)) {
+                    sum = exactLogSum(sum, predecessorColumn[predecessor] + transitionMatrix[predecessor][state]);
+                }
+                columns[column][state] = emitting ? emissionMatrix[state][observations[column - 1]] + sum : sum;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * All backward columns with exact log sums, summing over the same paths as the forward columns.
+     */
+    private static double[][] exactBackwardColumns(int[] observations, ProfileHMM profileHmm) {
+        var transitionMatrix = profileHmm.getTransitionMatrix();
+        var emissionMatrix = profileHmm.getEmissionMatrix();
+        var stateCount = profileHmm.getStateCount();
+        var endMatch = profileHmm.getEndMatch();
+        var columns = new double[observations.length + 1][stateCount];
+        for (var column = observations.length; column >= 0; column--) {
+            var last = column == observations.length;
+            for (var state = stateCount - 1; state >= 0; state--) {
+                var sum = Double.NEGATIVE_INFINITY;
+                if (state != endMatch) {
+                    for (var successor : profileHmm.getPossibleSuccessorIndeces(state)) {
+                        var transition = transitionMatrix[state][successor];
+                        if (successor == endMatch) {
+                            sum = exactLogSum(sum, last ? transition : Double.NEGATIVE_INFINITY);
+                        } else if (successor <= profileHmm.getLastInsert()) {
+                            if (!last) {
+                                sum = exactLogSum(sum, transition + emissionMatrix[successor][observations[column]]
+                                        + columns[column + 1][successor]);
+                            }
+                        } else if (state != profileHmm.getBeginMatch()) {
+                            sum = exactLogSum(sum, transition + columns[column][successor]);
+                        }
+                    }
+                }
+                columns[column][state] = sum;
+            }
+        }
+        return columns;
+    }
+
+    private static double exactLogSum(double a, double b) {
+        var max = Math.max(a, b);
+        return max == Double.NEGATIVE_INFINITY ? max : max + Math.log(Math.exp(a - max) + Math.exp(b - max));
+    }
+
+    private static double tolerance(int[] observations, ProfileHMM profileHmm) {
+        var matchStates = profileHmm.getEndMatch() - 1;
+        return 2 * (observations.length + matchStates + 1) * ProfileForward.MAX_LOG_SUM_ERROR;
+    }
+
+    @Test
+    public void testLogSumWithinError() {
+        var random = new Random(1);
+        for (var i = 0; i < 100000; i++) {
+            var a = -100 * random.nextDouble();
+            var b = a - 20 * random.nextDouble();
+            assertEquals(exactLogSum(a, b), ProfileForward.logSum(a, b), ProfileForward.MAX_LOG_SUM_ERROR);
+            assertEquals(exactLogSum(a, b), ProfileForward.logSum(b, a), ProfileForward.MAX_LOG_SUM_ERROR);
+        }
+        assertEquals(-3, ProfileForward.logSum(-3, Double.NEGATIVE_INFINITY), 0);
+        assertEquals(-3, ProfileForward.logSum(Double.NEGATIVE_INFINITY, -3), 0);
+        assertEquals(Double.NEGATIVE_INFINITY,
+                ProfileForward.logSum(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY), 0);
+    }
+
+    @Test
+    public void testSameScoreAsExactForward() {
+        var random = new Random(2);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = ProfileViterbiTest.randomProfileHMM(random, 2 + random.nextInt(20),
+                    1 + random.nextInt(40));
+            var profileForward = new ProfileForward(profileHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = ProfileViterbiTest.randomObservations(random, random.nextInt(100));
+                assertEquals(exactForward(observations, profileHmm), profileForward.calcScore(observations),
+                        tolerance(observations, profileHmm));
+            }
+        }
+    }
+
+    @Test
+    public void testForwardIsAtLeastViterbi() {
+        var random = new Random(3);
+        var workspace = new ViterbiWorkspace();
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = ProfileViterbiTest.randomProfileHMM(random, 2 + random.nextInt(20),
+                    1 + random.nextInt(80));
+            var profileForward = new ProfileForward(profileHmm);
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = ProfileViterbiTest.randomObservations(random, random.nextInt(200));
+                var forward = profileForward.calcScore(observations);
+                assertTrue(forward >= profileViterbi.calcScore(observations) - tolerance(observations, profileHmm));
+                // the workspace is shared with the viterbi algorithm
+                profileViterbi.calc(observations, workspace);
+                assertEquals(forward, profileForward.calcScore(observations, workspace), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testPosteriorsMatchExactForwardBackward() throws IOException {
+        var random = new Random(4);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = ProfileViterbiTest.randomProfileHMM(random, 2 + random.nextInt(20),
+                    1 + random.nextInt(30));
+            var profileForward = new ProfileForward(profileHmm);
+            for (var sequence = 0; sequence < 5; sequence++) {
+                var observations = ProfileViterbiTest.randomObservations(random, random.nextInt(50));
+                var forward = exactForwardColumns(observations, profileHmm);
+                var backward = exactBackwardColumns(observations, profileHmm);
+                var total = exactForward(observations, profileHmm);
+                var tolerance = tolerance(observations, profileHmm);
+                // both pass over the same paths
+                assertEquals(total, backward[0][profileHmm.getBeginMatch()], 1e-9);
+
+                var positions = new ArrayList<Integer>();
+                var logProbability = profileForward.calcPosteriors(observations,
+                        (position, state, confidence, match, insert, delete) -> {
+                            positions.add(position);
+                            var expectedMatch = 0.;
+                            var expectedInsert = 0.;
+                            var expectedDelete = 0.;
+                            var expectedConfidence = 0.;
+                            for (var s = 1; s < profileHmm.getStateCount(); s++) {
+                                var posterior = Math.exp(forward[position + 1][s] + backward[position + 1][s] - total);
+                                if (s <= profileHmm.getEndMatch()) {
+                                    expectedMatch += posterior;
+                                } else if (s <= profileHmm.getLastInsert()) {
+                                    expectedInsert += posterior;
+                                } else {
+                                    expectedDelete += posterior;
+                                }
+                                if (s <= profileHmm.getLastInsert()) {
+                                    expectedConfidence = Math.max(expectedConfidence, posterior);
+                                }
+                            }
+                            // every residue is emitted by exactly one state
+                            assertEquals(1, expectedMatch + expectedInsert, 1e-9);
+                            var relativeError = Math.exp(3 * tolerance) - 1;
+                            assertEquals(expectedMatch, match, relativeError + 1e-12);
+                            assertEquals(expectedInsert, insert, relativeError + 1e-12);
+                            assertEquals(expectedDelete, delete, relativeError * expectedDelete + 1e-12);
+                            assertEquals(expectedConfidence, confidence, relativeError + 1e-12);
+                            var decoded = Math.exp(forward[position + 1][state] + backward[position + 1][state] - total);
+                            assertEquals(expectedConfidence, decoded, relativeError + 1e-12);
+                        });
+                assertEquals(total, logProbability, tolerance);
+                assertEquals(observations.length, positions.size());
+                for (var i = 0; i < positions.size(); i++) {
+                    assertEquals(i, (int) positions.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPosteriorWorkspaceBytesMatchesCapacity() throws IOException {
+        var random = new Random(5);
+        var profileForward = new ProfileForward(ProfileViterbiTest.randomProfileHMM(random, 10, 30));
+        for (var length : new int[]{0, 1, 3, 8, 9, 100, 257}) {
+            var workspace = new ViterbiWorkspace();
+            profileForward.calcPosteriors(ProfileViterbiTest.randomObservations(random, length),
+                    (position, state, confidence, match, insert, delete) -> { }, workspace);
+            assertEquals(profileForward.posteriorWorkspaceBytes(length), workspace.capacityBytes());
+        }
+    }
+
+    @Test
+    public void testPosteriorWriterDecodesConservedSequence() throws IOException {
+        var sequences = new ArrayList<FASTASequence>();
+        for (var i = 0; i < 10; i++) {
+            sequences.add(new FASTASequence(String.valueOf(i), "ACGTTGCA".toCharArray()));
+        }
+        var profileHmm = new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 0.01, 0.01, 0.01, 0.5);
+        var output = new StringWriter();
+        var writer = new PosteriorWriter(output, profileHmm);
+
+        writer.beginSequence("query", "ACGTTGCA".toCharArray());
+        var logProbability = new ProfileForward(profileHmm).calcPosteriors(new int[]{0, 1, 2, 3, 3, 2, 1, 0}, writer);
+        writer.endSequence(logProbability);
+
+        var lines = output.toString().split("\n");
+        assertEquals(10, lines.length);
+        assertEquals(">query", lines[0]);
+        for (var position = 1; position <= 8; position++) {
+            var fields = lines[position].split("\t");
+            assertEquals(String.valueOf(position), fields[0]);
+            assertEquals("ACGTTGCA".charAt(position - 1), fields[1].charAt(0));
+            assertEquals("M" + position, fields[2]);
+            assertTrue(Double.parseDouble(fields[3]) > 0.9);
+        }
+        assertEquals("//\t" + logProbability, lines[9]);
+    }
+
+    @Test
+    public void testExpectedCountsMatchExactForwardBackward() {
+        var random = new Random(6);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = ProfileViterbiTest.randomProfileHMM(random, 2 + random.nextInt(20),
+                    1 + random.nextInt(30));
+            var profileForward = new ProfileForward(profileHmm);
+            var transitionMatrix = profileHmm.getTransitionMatrix();
+            var emissionMatrix = profileHmm.getEmissionMatrix();
+            var stateCount = profileHmm.getStateCount();
+            var endMatch = profileHmm.getEndMatch();
+            for (var sequence = 0; sequence < 5; sequence++) {
+                var observations = ProfileViterbiTest.randomObservations(random, 1 + random.nextInt(50));
+                var forward = exactForwardColumns(observations, profileHmm);
+                var backward = exactBackwardColumns(observations, profileHmm);
+                var total = exactForward(observations, profileHmm);
+
+                var expectedTransitions = new double[stateCount * ProfileHMM.MAX_SUCCESSORS];
+                var expectedEmissions = new double[(profileHmm.getLastInsert() + 1) * 4];
+                for (var column = 1; column <= observations.length; column++) {
+                    var observation = observations[column - 1];
+                    for (var state = 1; state < stateCount; state++) {
+                        if (state == endMatch) {
+                            continue;
+                        }
+                        var emitting = state <= profileHmm.getLastInsert();
+                        var logPosterior = backward[column][state] - total;
+                        if (emitting) {
+                            expectedEmissions[state * 4 + observation] +=
+                                    Math.exp(forward[column][state] + logPosterior);
+                            logPosterior += emissionMatrix[state][observation];
+                        }
+                        for (var predecessor : profileHmm.getPossiblePredecessorIndeces(state)) {
+                            var from = forward[emitting ? column - 1 : column][predecessor];
+                            expectedTransitions[predecessor * ProfileHMM.MAX_SUCCESSORS
+                                    + profileHmm.successorSlot(state)] +=
+                                    Math.exp(from + transitionMatrix[predecessor][state] + logPosterior);
+                        }
+                    }
+                }
+                for (var predecessor : profileHmm.getPossiblePredecessorIndeces(endMatch)) {
+                    expectedTransitions[predecessor * ProfileHMM.MAX_SUCCESSORS] += Math.exp(
+                            forward[observations.length][predecessor] + transitionMatrix[predecessor][endMatch]
+                                    - total);
+                }
+
+                var transitionCounts = new double[expectedTransitions.length];
+                var emissionCounts = new double[expectedEmissions.length];
+                var tolerance = tolerance(observations, profileHmm);
+                var logProbability = profileForward.calcExpectedCounts(observations, transitionCounts,
+                        emissionCounts, new ViterbiWorkspace());
+
+                assertEquals(total, logProbability, tolerance);
+                var relativeError = Math.exp(3 * tolerance) - 1;
+                for (var i = 0; i < expectedTransitions.length; i++) {
+                    assertEquals(expectedTransitions[i], transitionCounts[i],
+                            relativeError * expectedTransitions[i] + 1e-12);
+                }
+                var emitted = 0.;
+                for (var i = 0; i < expectedEmissions.length; i++) {
+                    assertEquals(expectedEmissions[i], emissionCounts[i], relativeError * expectedEmissions[i] + 1e-12);
+                    emitted += expectedEmissions[i];
+                }
+                // every residue is emitted exactly once
+                assertEquals(observations.length, emitted, 1e-9);
+            }
+        }
+    }
+}
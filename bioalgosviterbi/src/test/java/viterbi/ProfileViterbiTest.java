@@ -0,0 +1,340 @@
+package viterbi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fasta.FASTASequence;
+import org.junit.Test;
+import phmm.ProfileHMM;
+import util.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ProfileViterbiTest {
+    private static final char[] bases = {'A', 'C', 'G', 'T'};
+
+    /**
+     * Creates a random alignment in which every column has its own gap frequency, so that the resulting model
+     * has insert columns as well as match columns containing deletions.
+     */
+    static List<FASTASequence> randomAlignment(Random random, int sequenceCount, int columnCount) {
+        var gapFrequencies = new double[columnCount];
+        for (var column = 0; column < columnCount; column++) {
+            gapFrequencies[column] = random.nextDouble() < 0.3 ? 0.8 : 0.1 * random.nextDouble();
+        }
+        var sequences = new ArrayList<FASTASequence>();
+        for (var i = 0; i < sequenceCount; i++) {
+            var sequence = new char[columnCount];
+            for (var column = 0; column < columnCount; column++) {
+                sequence[column] = random.nextDouble() < gapFrequencies[column] ? '-' : bases[random.nextInt(4)];
+            }
+            sequences.add(new FASTASequence(String.valueOf(i), sequence));
+        }
+        return sequences;
+    }
+
+    static int[] randomObservations(Random random, int length) {
+        var observations = new int[length];
+        for (var i = 0; i < length; i++) {
+            observations[i] = random.nextInt(4);
+        }
+        return observations;
+    }
+
+    static ProfileHMM randomProfileHMM(Random random, int sequenceCount, int columnCount) {
+        var sequences = randomAlignment(random, sequenceCount, columnCount);
+        return new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5);
+    }
+
+    static void assertSameResult(ViterbiResult expected, ViterbiResult actual) {
+        assertArrayEquals(expected.getViterbiPath(), actual.getViterbiPath());
+        assertEquals(expected.getMaxProbability(), actual.getMaxProbability(), 0);
+    }
+
+    @Test
+    public void testSameResultAsViterbiOnSmallModel() {
+        var sequences = new ArrayList<FASTASequence>();
+
+        sequences.add(new FASTASequence("1", new char[]{'-', 'T', 'G'}));
+        sequences.add(new FASTASequence("2", new char[]{'A', '-', 'G'}));
+        sequences.add(new FASTASequence("3", new char[]{'A', '-', 'G'}));
+
+        var profileHmm = new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 0.00001, 1, 1, 0.5);
+        var observations = new int[]{3, 3, 3, 2};
+
+        assertSameResult(Viterbi.calc(observations, profileHmm), new ProfileViterbi(profileHmm).calc(observations));
+    }
+
+    @Test
+    public void testSameResultAsViterbiOnRandomModels() {
+        var random = new Random(42);
+        for (var model = 0; model < 20; model++) {
+            var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = randomObservations(random, random.nextInt(60));
+                assertSameResult(Viterbi.calc(observations, profileHmm), profileViterbi.calc(observations));
+            }
+        }
+    }
+
+    @Test
+    public void testCompactModelGivesSameResult() {
+        var random = new Random(7);
+        for (var model = 0; model < 10; model++) {
+            var sequences = randomAlignment(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var denseHmm = new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5);
+            var compactHmm = new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5, true);
+            var profileViterbi = new ProfileViterbi(compactHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = randomObservations(random, random.nextInt(60));
+                assertSameResult(Viterbi.calc(observations, denseHmm), profileViterbi.calc(observations));
+                assertSameResult(Viterbi.calc(observations, compactHmm), profileViterbi.calc(observations));
+            }
+        }
+    }
+
+    @Test
+    public void testCheckpointedGivesSameResult() {
+        var random = new Random(3);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            for (var length : new int[]{0, 1, 2, 4, 9, 10, 17, 64, 100}) {
+                var observations = randomObservations(random, length);
+                assertSameResult(profileViterbi.calc(observations),
+                        profileViterbi.calc(observations, ViterbiMode.CHECKPOINTED));
+            }
+        }
+    }
+
+    @Test
+    public void testWavefrontGivesSameResult() {
+        var random = new Random(37);
+        var pool = new ForkJoinPool(4);
+        try {
+            for (var model = 0; model < 10; model++) {
+                var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(80));
+                var profileViterbi = new ProfileViterbi(profileHmm);
+                for (var length : new int[]{0, 1, 2, 9, 33, 100}) {
+                    var observations = randomObservations(random, length);
+                    var expected = profileViterbi.calc(observations);
+                    // tiles of a single cell, tiles which do not divide the matrix and a single tile
+                    for (var tile : new int[][]{{1, 1}, {3, 5}, {7, 32}, {256, 256}}) {
+                        assertSameResult(expected, profileViterbi.calcWavefront(observations, pool,
+                                new ViterbiWorkspace(), tile[0], tile[1]));
+                    }
+                    var workspace = new ViterbiWorkspace();
+                    assertSameResult(expected, profileViterbi.calcWavefront(observations, pool, workspace));
+                    assertEquals(profileViterbi.wavefrontWorkspaceBytes(length), workspace.capacityBytes());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testScoreOnlyGivesSameScore() {
+        var random = new Random(5);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = randomObservations(random, random.nextInt(60));
+                var expected = profileViterbi.calc(observations).getMaxProbability();
+                assertEquals(expected, profileViterbi.calcScore(observations), 0);
+                assertEquals(expected, Viterbi.calcScore(observations, profileHmm), 0);
+                assertEquals(0, profileViterbi.calc(observations, ViterbiMode.SCORE_ONLY).getViterbiPath().length);
+            }
+        }
+    }
+
+    @Test
+    public void testKernelsGiveSameResult() {
+        var random = new Random(11);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(80));
+            var scalar = new ProfileViterbi(profileHmm, ViterbiKernel.SCALAR);
+            var vectorized = new ProfileViterbi(profileHmm, ViterbiKernel.VECTORIZED);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = randomObservations(random, random.nextInt(100));
+                for (var mode : ViterbiMode.values()) {
+                    assertSameResult(scalar.calc(observations, mode), vectorized.calc(observations, mode));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReducedPrecisionScoresWithinTolerance() {
+        var random = new Random(13);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(80));
+            var matchStates = profileHmm.getEndMatch() - 1;
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                // long enough that the scores fall far below the range of a short
+                var observations = randomObservations(random, random.nextInt(400));
+                var steps = 2 * observations.length + matchStates + 1;
+                var expected = profileViterbi.calcScore(observations);
+
+                assertEquals(expected, profileViterbi.calcScore(observations, Precision.DOUBLE), 0);
+                var floatScore = profileViterbi.calcScore(observations, Precision.FLOAT);
+                assertEquals(expected, floatScore, steps * Math.ulp(1f) * Math.abs(expected));
+                var shortScore = profileViterbi.calcScore(observations, Precision.SHORT);
+                assertEquals(expected, shortScore, steps * 0.5 / ProfileHMM.QUANTIZATION_SCALE);
+                var quantizedScore = profileViterbi.calcScoreQuantized(observations);
+                assertTrue(Double.isNaN(quantizedScore) || quantizedScore == shortScore);
+            }
+        }
+    }
+
+    @Test
+    public void testQuantizedScoreFallsBackToDouble() {
+        var random = new Random(17);
+        // a short sequence has to pass the long delete chain of a long model, far below the best states of a column
+        var profileHmm = randomProfileHMM(random, 20, 1500);
+        var profileViterbi = new ProfileViterbi(profileHmm);
+        var observations = randomObservations(random, 5);
+
+        assertTrue(Double.isNaN(profileViterbi.calcScoreQuantized(observations)));
+        assertEquals(profileViterbi.calcScore(observations), profileViterbi.calcScore(observations, Precision.SHORT), 0);
+    }
+
+    @Test
+    public void testReusedWorkspaceGivesSameResult() {
+        var random = new Random(19);
+        var workspace = new ViterbiWorkspace();
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = randomObservations(random, random.nextInt(100));
+                for (var mode : ViterbiMode.values()) {
+                    assertSameResult(profileViterbi.calc(observations, mode),
+                            profileViterbi.calc(observations, mode, Precision.DOUBLE, workspace));
+                }
+                for (var precision : Precision.values()) {
+                    assertEquals(profileViterbi.calcScore(observations, precision),
+                            profileViterbi.calc(observations, ViterbiMode.SCORE_ONLY, precision, workspace)
+                                    .getMaxProbability(), 0);
+                }
+                assertSameResult(Viterbi.calc(observations, profileHmm),
+                        Viterbi.calc(observations, profileHmm, workspace));
+            }
+        }
+    }
+
+    /**
+     * Sums the log transition and emission probabilities along a path from begin to end state.
+     */
+    static double pathLogProbability(ProfileHMM profileHmm, int[] path, int[] observations) {
+        var transitions = profileHmm.getTransitionMatrix();
+        var logProbability = 0.;
+        var observation = 0;
+        for (var i = 1; i < path.length; i++) {
+            logProbability += transitions[path[i - 1]][path[i]];
+            if (path[i] != profileHmm.getEndMatch() && path[i] <= profileHmm.getLastInsert()) {
+                logProbability += profileHmm.getEmissionMatrix()[path[i]][observations[observation++]];
+            }
+        }
+        assertEquals(observations.length, observation);
+        return logProbability;
+    }
+
+    @Test
+    public void testInfiniteBeamGivesSameScore() {
+        var random = new Random(31);
+        var workspace = new ViterbiWorkspace();
+        for (var model = 0; model < 20; model++) {
+            var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            for (var sequence = 0; sequence < 10; sequence++) {
+                var observations = randomObservations(random, random.nextInt(60));
+                var expected = profileViterbi.calc(observations);
+                var actual = profileViterbi.calcBeam(observations, Double.POSITIVE_INFINITY, workspace);
+                assertEquals(expected.getMaxProbability(), actual.getMaxProbability(), 0);
+                if (actual.getMaxProbability() == Double.NEGATIVE_INFINITY) {
+                    // only empty sequences cannot reach the end state
+                    assertEquals(0, observations.length);
+                    continue;
+                }
+                assertEquals(actual.getMaxProbability(),
+                        pathLogProbability(profileHmm, actual.getViterbiPath(), observations), 1e-9);
+                if (Arrays.stream(expected.getViterbiPath()).allMatch(state -> state <= profileHmm.getLastInsert())) {
+                    assertArrayEquals(expected.getViterbiPath(), actual.getViterbiPath());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNarrowBeamNeverScoresHigher() {
+        var random = new Random(37);
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var profileViterbi = new ProfileViterbi(profileHmm);
+            for (var length : new int[]{0, 1, 10, 100}) {
+                var observations = randomObservations(random, length);
+                var exact = profileViterbi.calc(observations).getMaxProbability();
+                for (var beam : new double[]{0, 1, 5, 20}) {
+                    var workspace = new ViterbiWorkspace();
+                    var result = profileViterbi.calcBeam(observations, beam, workspace);
+                    assertTrue(result.getMaxProbability() <= exact);
+                    if (result.getMaxProbability() > Double.NEGATIVE_INFINITY) {
+                        assertEquals(result.getMaxProbability(),
+                                pathLogProbability(profileHmm, result.getViterbiPath(), observations), 1e-9);
+                    }
+                    assertEquals(profileViterbi.beamWorkspaceBytes(length), workspace.capacityBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWorkspaceShrinks() {
+        var random = new Random(23);
+        var profileViterbi = new ProfileViterbi(randomProfileHMM(random, 10, 30));
+        var workspace = new ViterbiWorkspace();
+
+        profileViterbi.calc(randomObservations(random, 200), workspace);
+        var capacity = workspace.capacityBytes();
+        assertTrue(capacity > 0);
+        // shorter sequences reuse the buffers
+        profileViterbi.calc(randomObservations(random, 50), workspace);
+        assertEquals(capacity, workspace.capacityBytes());
+
+        ViterbiWorkspace.requestShrink();
+        profileViterbi.calc(randomObservations(random, 50), workspace);
+        assertTrue(workspace.capacityBytes() < capacity);
+
+        workspace.shrink();
+        assertEquals(0, workspace.capacityBytes());
+    }
+
+    @Test
+    public void testWorkspaceBytesMatchesCapacity() {
+        var random = new Random(29);
+        for (var model = 0; model < 5; model++) {
+            var profileViterbi = new ProfileViterbi(randomProfileHMM(random, 2 + random.nextInt(20),
+                    1 + random.nextInt(40)));
+            for (var length : new int[]{0, 1, 9, 10, 100}) {
+                var observations = randomObservations(random, length);
+                for (var mode : ViterbiMode.values()) {
+                    for (var precision : Precision.values()) {
+                        var workspace = new ViterbiWorkspace();
+                        profileViterbi.calc(observations, mode, precision, workspace);
+                        assertEquals(profileViterbi.workspaceBytes(length, mode, precision),
+                                workspace.capacityBytes());
+                    }
+                }
+            }
+        }
+    }
+}
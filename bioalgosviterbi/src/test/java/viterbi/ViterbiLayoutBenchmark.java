@@ -0,0 +1,117 @@
+package viterbi;
+
+import fasta.FASTAParser;
+import hmm.CompiledHMM;
+import phmm.ProfileHMM;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the running time of the viterbi matrix layouts on real test sequences. Not run as part of the tests:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes viterbi.ViterbiLayoutBenchmark \
+ *     [sequencesPerFile] [trainingAlignment] [testFile...]
+ * </pre>
+ * Defaults to 5 sequences of each of ../data/test/LSU_test_*.fasta and the model trained on the 80 column alignment
+ * ../data/short/firmicutes/LSU_short_f.fasta, pass a wider alignment for models closer to real use. Every layout performs exactly the same arithmetic, so the differences in running
+ * time come from the memory accesses.
+ */
+public class ViterbiLayoutBenchmark {
+    private static final int GENERIC_STATE_COUNT = 256;
+
+    public static void main(String[] args) throws IOException {
+        var sequencesPerFile = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        var training = args.length > 1 ? args[1] : "../data/short/firmicutes/LSU_short_f.fasta";
+        var testFiles = new ArrayList<String>();
+        for (var i = 2; i < args.length; i++) {
+            testFiles.add(args[i]);
+        }
+        if (testFiles.isEmpty()) {
+            for (var i = 1; i <= 3; i++) {
+                testFiles.add("../data/test/LSU_test_" + i + ".fasta");
+            }
+        }
+
+        var observationMap = Map.of('A', 0, 'C', 1, 'G', 2, 'U', 3);
+        var profileHmm = new ProfileHMM(FASTAParser.parse(Paths.get(training)), '-', observationMap, 1, 1, 1, 0.5, true);
+        var sequences = new ArrayList<int[]>();
+        for (var testFile : testFiles) {
+            var fileSequences = FASTAParser.parse(Paths.get(testFile));
+            for (var i = 0; i < Math.min(sequencesPerFile, fileSequences.size()); i++) {
+                sequences.add(fileSequences.get(i).parseBasesToInt(observationMap));
+            }
+        }
+        System.out.println(sequences.size() + " sequences, profile HMM with " + profileHmm.getStateCount() + " states");
+
+        var stateCount = profileHmm.getStateCount();
+        benchmarkProfile("state major", sequences, columns -> new StateMajorLayout(stateCount, columns), profileHmm);
+        benchmarkProfile("column major", sequences, columns -> new ColumnMajorLayout(stateCount, columns), profileHmm);
+        benchmarkProfile("interleaved", sequences, columns -> new InterleavedProfileLayout(profileHmm, columns),
+                profileHmm);
+
+        var random = new Random(1);
+        var hmm = new CompiledHMM(randomStochasticMatrix(random, GENERIC_STATE_COUNT, GENERIC_STATE_COUNT),
+                randomStochasticMatrix(random, GENERIC_STATE_COUNT, observationMap.size()));
+        for (var kernel : ViterbiKernel.values()) {
+            benchmarkGeneric("state major, " + kernel, sequences,
+                    columns -> new StateMajorLayout(GENERIC_STATE_COUNT, columns), hmm, kernel);
+            benchmarkGeneric("column major, " + kernel, sequences,
+                    columns -> new ColumnMajorLayout(GENERIC_STATE_COUNT, columns), hmm, kernel);
+        }
+    }
+
+    private static void benchmarkProfile(String name, List<int[]> sequences, IntFunction<ViterbiLayout> layouts,
+                                         ProfileHMM profileHmm) {
+        // the first round only warms up the JIT compiler
+        for (var round = 0; round < 2; round++) {
+            var cells = 0L;
+            var start = System.nanoTime();
+            for (var observations : sequences) {
+                Viterbi.calc(observations, profileHmm, layouts.apply(observations.length + 2));
+                cells += (long) profileHmm.getStateCount() * observations.length;
+            }
+            report("profile " + name, round, cells, System.nanoTime() - start);
+        }
+    }
+
+    private static void benchmarkGeneric(String name, List<int[]> sequences, IntFunction<ViterbiLayout> layouts,
+                                         CompiledHMM hmm, ViterbiKernel kernel) {
+        for (var round = 0; round < 2; round++) {
+            var cells = 0L;
+            var start = System.nanoTime();
+            for (var observations : sequences) {
+                Viterbi.calc(observations, hmm, kernel, layouts.apply(observations.length + 1));
+                cells += (long) GENERIC_STATE_COUNT * GENERIC_STATE_COUNT * observations.length;
+            }
+            report("generic " + name, round, cells, System.nanoTime() - start);
+        }
+    }
+
+    private static void report(String name, int round, long cells, long nanos) {
+        if (round > 0) {
+            System.out.printf("%-30s %8.0f ms %8.1f Mcells/s%n", name, nanos / 1e6, cells * 1e3 / nanos);
+        }
+    }
+
+    private static double[][] randomStochasticMatrix(Random random, int rows, int columns) {
+        var matrix = new double[rows][columns];
+        for (var row = 0; row < rows; row++) {
+            var sum = 0.;
+            for (var column = 0; column < columns; column++) {
+                matrix[row][column] = random.nextDouble();
+                sum += matrix[row][column];
+            }
+            for (var column = 0; column < columns; column++) {
+                matrix[row][column] /= sum;
+            }
+        }
+        return matrix;
+    }
+}
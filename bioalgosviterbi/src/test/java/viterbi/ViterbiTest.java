@@ -1,13 +1,17 @@
 package viterbi;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 import fasta.FASTASequence;
+import hmm.CompiledHMM;
 import org.junit.Test;
 import phmm.ProfileHMM;
 import util.Util;
 
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class ViterbiTest {
     @Test
@@ -64,4 +68,171 @@ public class ViterbiTest {
 
 
     }
+
+    private static double[][] randomStochasticMatrix(Random random, int rows, int columns, double zeroProbability) {
+        var matrix = new double[rows][columns];
+        for (var row = 0; row < rows; row++) {
+            var sum = 0.;
+            for (var column = 0; column < columns; column++) {
+                matrix[row][column] = random.nextDouble() < zeroProbability ? 0 : random.nextDouble();
+                sum += matrix[row][column];
+            }
+            for (var column = 0; column < columns; column++) {
+                matrix[row][column] = sum == 0 ? 1. / columns : matrix[row][column] / sum;
+            }
+        }
+        return matrix;
+    }
+
+    private static double[][] copy(double[][] matrix) {
+        var copy = new double[matrix.length][];
+        for (var i = 0; i < matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return copy;
+    }
+
+    @Test
+    public void testKernelsGiveSameResult() {
+        var random = new Random(13);
+        for (var model = 0; model < 10; model++) {
+            var stateCount = 2 + random.nextInt(40);
+            var transitionMatrix = randomStochasticMatrix(random, stateCount, stateCount, 0.3);
+            var emissionMatrix = randomStochasticMatrix(random, stateCount, 6, 0.1);
+            var observations = new int[random.nextInt(200)];
+            for (var i = 0; i < observations.length; i++) {
+                observations[i] = random.nextInt(6);
+            }
+
+            var scalar = Viterbi.calc(observations, copy(transitionMatrix), copy(emissionMatrix), ViterbiKernel.SCALAR);
+            var vectorized = Viterbi.calc(observations, copy(transitionMatrix), copy(emissionMatrix), ViterbiKernel.VECTORIZED);
+            assertArrayEquals(scalar.getViterbiPath(), vectorized.getViterbiPath());
+            assertEquals(scalar.getMaxProbability(), vectorized.getMaxProbability(), 0);
+        }
+    }
+
+    @Test
+    public void testLayoutsGiveSameResult() {
+        var random = new Random(17);
+        for (var model = 0; model < 10; model++) {
+            var stateCount = 2 + random.nextInt(40);
+            var transitionMatrix = randomStochasticMatrix(random, stateCount, stateCount, 0.3);
+            var emissionMatrix = randomStochasticMatrix(random, stateCount, 6, 0.1);
+            var observations = new int[1 + random.nextInt(200)];
+            for (var i = 0; i < observations.length; i++) {
+                observations[i] = random.nextInt(6);
+            }
+
+            for (var kernel : ViterbiKernel.values()) {
+                var columnMajor = Viterbi.calc(observations, copy(transitionMatrix), copy(emissionMatrix), kernel,
+                        new ColumnMajorLayout(stateCount, observations.length + 1));
+                var stateMajor = Viterbi.calc(observations, copy(transitionMatrix), copy(emissionMatrix), kernel,
+                        new StateMajorLayout(stateCount, observations.length + 1));
+                assertArrayEquals(columnMajor.getViterbiPath(), stateMajor.getViterbiPath());
+                assertEquals(columnMajor.getMaxProbability(), stateMajor.getMaxProbability(), 0);
+            }
+        }
+
+        for (var model = 0; model < 10; model++) {
+            var profileHmm = ProfileViterbiTest.randomProfileHMM(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var observations = ProfileViterbiTest.randomObservations(random, random.nextInt(60));
+            var columnCount = observations.length + 2;
+
+            var columnMajor = Viterbi.calc(observations, profileHmm);
+            ProfileViterbiTest.assertSameResult(columnMajor, Viterbi.calc(observations, profileHmm,
+                    new InterleavedProfileLayout(profileHmm, columnCount)));
+            ProfileViterbiTest.assertSameResult(columnMajor, Viterbi.calc(observations, profileHmm,
+                    new StateMajorLayout(profileHmm.getStateCount(), columnCount)));
+        }
+    }
+
+    @Test
+    public void testCompactProfileHMMGivesSameResult() {
+        var random = new Random(23);
+        for (var model = 0; model < 10; model++) {
+            var sequences = ProfileViterbiTest.randomAlignment(random, 2 + random.nextInt(20), 1 + random.nextInt(40));
+            var denseHmm = new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5, false);
+            var compactHmm = new ProfileHMM(sequences, '-', Util.createObersavtionMap(), 1, 1, 1, 0.5, true);
+            var observations = ProfileViterbiTest.randomObservations(random, random.nextInt(60));
+
+            ProfileViterbiTest.assertSameResult(Viterbi.calc(observations, denseHmm),
+                    Viterbi.calc(observations, compactHmm));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLayoutMustFitMatrix() {
+        var transitionMatrix = new double[][]{{0, 1}, {0, 1}};
+        var emissionMatrix = new double[][]{{1}, {1}};
+        Viterbi.calc(new int[]{0, 0}, transitionMatrix, emissionMatrix, ViterbiKernel.SCALAR,
+                new ColumnMajorLayout(2, 2));
+    }
+
+    @Test
+    public void testCompiledModelGivesSameResult() {
+        var random = new Random(19);
+        for (var model = 0; model < 10; model++) {
+            var stateCount = 2 + random.nextInt(40);
+            var transitionMatrix = randomStochasticMatrix(random, stateCount, stateCount, random.nextDouble());
+            var emissionMatrix = randomStochasticMatrix(random, stateCount, 6, 0.1);
+            var originalTransitionMatrix = copy(transitionMatrix);
+            var originalEmissionMatrix = copy(emissionMatrix);
+            var hmm = new CompiledHMM(transitionMatrix, emissionMatrix);
+
+            for (var sequence = 0; sequence < 5; sequence++) {
+                var observations = new int[1 + random.nextInt(100)];
+                for (var i = 0; i < observations.length; i++) {
+                    observations[i] = random.nextInt(6);
+                }
+                var expected = Viterbi.calc(observations, transitionMatrix, emissionMatrix);
+                for (var kernel : ViterbiKernel.values()) {
+                    ProfileViterbiTest.assertSameResult(expected, Viterbi.calc(observations, hmm, kernel));
+                }
+                ProfileViterbiTest.assertSameResult(expected, Viterbi.calc(observations, hmm));
+            }
+            // the matrices of the caller are not transformed to log space
+            assertArrayEquals(originalTransitionMatrix, transitionMatrix);
+            assertArrayEquals(originalEmissionMatrix, emissionMatrix);
+        }
+    }
+
+    @Test
+    public void testParallelGivesSameResult() {
+        var random = new Random(23);
+        var pool = new ForkJoinPool(4);
+        try {
+            for (var model = 0; model < 10; model++) {
+                var stateCount = 2 + random.nextInt(10);
+                var hmm = new CompiledHMM(randomStochasticMatrix(random, stateCount, stateCount, 0.3),
+                        randomStochasticMatrix(random, stateCount, 6, 0.1));
+                var observations = new int[1 + random.nextInt(2000)];
+                for (var i = 0; i < observations.length; i++) {
+                    observations[i] = random.nextInt(6);
+                }
+                var expected = Viterbi.calc(observations, hmm);
+                // more blocks than observations are reduced to one block per observation
+                for (var blockCount : new int[]{1, 2, 3, 7, 64, 5000}) {
+                    var parallel = Viterbi.calcParallel(observations, hmm, pool, blockCount);
+                    assertArrayEquals(expected.getViterbiPath(), parallel.getViterbiPath());
+                    assertEquals(expected.getMaxProbability(), parallel.getMaxProbability(),
+                            1e-12 * Math.abs(expected.getMaxProbability()));
+                }
+            }
+            // observation streams long enough to be split without an explicit block count
+            var casino = new CompiledHMM(new double[][]{{0, 0.5, 0.5}, {0, 0.95, 0.05}, {0, 0.1, 0.9}},
+                    new double[][]{{0, 0, 0, 0, 0, 0}, {1. / 6, 1. / 6, 1. / 6, 1. / 6, 1. / 6, 1. / 6},
+                            {0.1, 0.1, 0.1, 0.1, 0.1, 0.5}});
+            var observations = new int[3 * Viterbi.PARALLEL_MIN_BLOCK_LENGTH + 17];
+            for (var i = 0; i < observations.length; i++) {
+                observations[i] = random.nextInt(6);
+            }
+            var expected = Viterbi.calc(observations, casino);
+            var parallel = Viterbi.calcParallel(observations, casino, pool);
+            assertArrayEquals(expected.getViterbiPath(), parallel.getViterbiPath());
+            assertEquals(expected.getMaxProbability(), parallel.getMaxProbability(),
+                    1e-12 * Math.abs(expected.getMaxProbability()));
+        } finally {
+            pool.shutdown();
+        }
+    }
 }